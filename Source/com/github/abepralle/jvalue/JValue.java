@@ -4,19 +4,74 @@
 package com.github.abepralle.jvalue;
 
 import java.io.*;
-import java.text.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.charset.*;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.function.*;
+import java.util.stream.*;
 
 public class JValue implements Iterable<JValue>
 {
-  static DecimalFormat formatter;
-
   // GLOBAL METHODS
   static public JValue load( File file )
   {
     try
     {
-      return new JSONReader( file ).parseValue();
+      return JSONReader.open( file ).parseValue();
+    }
+    catch (JSONParseError err)
+    {
+      return UndefinedValue.singleton;
+    }
+  }
+
+  // Returns a table that any number of threads may read and write without
+  // locking; see ConcurrentTableValue.
+  static public JValue concurrentTable()
+  {
+    return new ConcurrentTableValue();
+  }
+
+  // Decodes a value written by toCBOR() or another CBOR encoder (see
+  // CBORReader). Returns undefined if the data is malformed or truncated.
+  static public JValue fromCBOR( byte[] cbor )
+  {
+    return fromCBOR( cbor, 0, cbor.length );
+  }
+
+  static public JValue fromCBOR( byte[] cbor, int offset, int length )
+  {
+    return fromCBOR( new CBORReader(cbor,offset,length) );
+  }
+
+  // Decodes the bytes between the buffer's position and limit. The buffer's
+  // position is left unchanged.
+  static public JValue fromCBOR( ByteBuffer cbor )
+  {
+    if (cbor.hasArray())
+    {
+      return fromCBOR( cbor.array(), cbor.arrayOffset()+cbor.position(), cbor.remaining() );
+    }
+    byte[] bytes = new byte[ cbor.remaining() ];
+    cbor.duplicate().get( bytes );
+    return fromCBOR( bytes );
+  }
+
+  // Reads exactly one value from the stream, which is not closed. Reads are
+  // small, so an unbuffered stream should be wrapped in a BufferedInputStream.
+  static public JValue fromCBOR( InputStream in )
+  {
+    return fromCBOR( new CBORReader(in) );
+  }
+
+  static JValue fromCBOR( CBORReader reader )
+  {
+    try
+    {
+      return reader.readValue();
     }
     catch (JSONParseError err)
     {
@@ -24,6 +79,16 @@ public class JValue implements Iterable<JValue>
     }
   }
 
+  static public JValue immutableList()
+  {
+    return ImmutableListValue.empty;
+  }
+
+  static public JValue immutableTable()
+  {
+    return ImmutableTableValue.empty;
+  }
+
   static public JValue list()
   {
     return new ListValue();
@@ -33,7 +98,7 @@ public class JValue implements Iterable<JValue>
   {
     try
     {
-      JValue result = new JSONReader( file ).parseValue();
+      JValue result = JSONReader.open( file ).parseValue();
       if (result.isList()) return result;
     }
     catch (JSONParseError err)
@@ -42,6 +107,22 @@ public class JValue implements Iterable<JValue>
     return new ListValue();
   }
 
+  static public JValue list( double[] values )
+  {
+    ListValue result = new ListValue();
+    result.doubles = Arrays.copyOf( values, Math.max(values.length,1) );
+    result.packed_count = values.length;
+    return result;
+  }
+
+  static public JValue list( long[] values )
+  {
+    ListValue result = new ListValue();
+    result.longs = Arrays.copyOf( values, Math.max(values.length,1) );
+    result.packed_count = values.length;
+    return result;
+  }
+
   static public JValue list( String json )
   {
     try
@@ -62,9 +143,23 @@ public class JValue implements Iterable<JValue>
 
   static public JValue number( double value )
   {
+    if (value >= -9.223372036854775808E18 && value < 9.223372036854775808E18)
+    {
+      long n = (long) value;
+      if (n == value && (n != 0 || 1/value > 0)) return number( n );
+    }
     return new NumberValue( value );
   }
 
+  static public JValue number( long value )
+  {
+    if (value >= IntegerValue.CACHE_MIN && value <= IntegerValue.CACHE_MAX)
+    {
+      return IntegerValue.cache[ (int) value - IntegerValue.CACHE_MIN ];
+    }
+    return new IntegerValue( value );
+  }
+
   static public JValue nullValue()
   {
     return NullValue.singleton;
@@ -74,7 +169,7 @@ public class JValue implements Iterable<JValue>
   {
     try
     {
-      return new JSONReader( file ).parseValue();
+      return JSONReader.open( file ).parseValue();
     }
     catch (JSONParseError err)
     {
@@ -94,6 +189,296 @@ public class JValue implements Iterable<JValue>
     }
   }
 
+  static public JValue parse( byte[] utf8 )
+  {
+    return parse( utf8, 0, utf8.length );
+  }
+
+  static public JValue parse( byte[] utf8, int offset, int length )
+  {
+    return parse( ByteBuffer.wrap(utf8,offset,length) );
+  }
+
+  // Parses the UTF-8 bytes between the buffer's position and limit. The
+  // buffer's position is left unchanged.
+  static public JValue parse( ByteBuffer utf8 )
+  {
+    try
+    {
+      return new UTF8Reader( utf8 ).parseValue();
+    }
+    catch (JSONParseError err)
+    {
+      return UndefinedValue.singleton;
+    }
+  }
+
+  // Variants of parse() that build only the parts of the document selected
+  // by 'projection'. Everything else is stepped over, matching only brackets
+  // and quotes, and creates no values.
+  static public JValue parse( File file, Projection projection )
+  {
+    return parse( JSONReader.open(file), projection );
+  }
+
+  static public JValue parse( String json, Projection projection )
+  {
+    return parse( new JSONReader(json), projection );
+  }
+
+  static public JValue parse( byte[] utf8, Projection projection )
+  {
+    return parse( ByteBuffer.wrap(utf8), projection );
+  }
+
+  static public JValue parse( ByteBuffer utf8, Projection projection )
+  {
+    return parse( new UTF8Reader(utf8), projection );
+  }
+
+  static JValue parse( JSONReader reader, Projection projection )
+  {
+    try
+    {
+      return reader.parseValue( projection );
+    }
+    catch (JSONParseError err)
+    {
+      return UndefinedValue.singleton;
+    }
+  }
+
+  // Variants of parse() for large documents kept in memory for a long time.
+  // The document is parsed into a Tape, one long[] and one byte[] however
+  // many values it holds, instead of a tree of objects, so it gives the
+  // garbage collector almost nothing to trace. Lists and tables are read
+  // through flyweight cursors over the tape (see TapeListValue) and other
+  // values are created as they are read. The result is read-only and may be
+  // shared between threads.
+  static public JValue parseTape( File file )
+  {
+    return parseTape( JSONReader.open(file) );
+  }
+
+  static public JValue parseTape( String json )
+  {
+    return parseTape( new JSONReader(json) );
+  }
+
+  static public JValue parseTape( byte[] utf8 )
+  {
+    return parseTape( ByteBuffer.wrap(utf8) );
+  }
+
+  static public JValue parseTape( ByteBuffer utf8 )
+  {
+    return parseTape( new UTF8Reader(utf8) );
+  }
+
+  static JValue parseTape( JSONReader reader )
+  {
+    try
+    {
+      Tape tape = new Tape( reader.count - reader.position );
+      reader.parseValue( tape );
+      return tape.trim().value( 0 );
+    }
+    catch (JSONParseError err)
+    {
+      return UndefinedValue.singleton;
+    }
+  }
+
+  // Variants of parse() that first build a structural index of the input
+  // (see StructuralIndex) and parse against it. Building the index costs a
+  // pass over the input, so this only pays off for large documents that are
+  // mostly whitespace or strings; plain parse() is usually as fast.
+  static public JValue parseIndexed( byte[] utf8 )
+  {
+    return parseIndexed( ByteBuffer.wrap(utf8) );
+  }
+
+  static public JValue parseIndexed( ByteBuffer utf8 )
+  {
+    try
+    {
+      return new IndexedReader( utf8 ).parseValue();
+    }
+    catch (JSONParseError err)
+    {
+      return UndefinedValue.singleton;
+    }
+  }
+
+  // Variants of parse() for a large top-level list. The list is split into
+  // runs of elements that are parsed concurrently on the given pool (the
+  // common pool by default) and joined in order. Other documents are parsed
+  // normally. Any speedup depends on the cores available and has not been
+  // measured; time it against parse() before relying on it.
+  static public JValue parseParallel( File file )
+  {
+    return parseParallel( JSONReader.open(file), ForkJoinPool.commonPool() );
+  }
+
+  static public JValue parseParallel( String json )
+  {
+    return parseParallel( new JSONReader(json), ForkJoinPool.commonPool() );
+  }
+
+  static public JValue parseParallel( byte[] utf8 )
+  {
+    return parseParallel( new UTF8Reader(ByteBuffer.wrap(utf8)), ForkJoinPool.commonPool() );
+  }
+
+  static public JValue parseParallel( ByteBuffer utf8 )
+  {
+    return parseParallel( new UTF8Reader(utf8), ForkJoinPool.commonPool() );
+  }
+
+  static public JValue parseParallel( ByteBuffer utf8, ForkJoinPool pool )
+  {
+    return parseParallel( new UTF8Reader(utf8), pool );
+  }
+
+  static JValue parseParallel( JSONReader reader, ForkJoinPool pool )
+  {
+    try
+    {
+      reader.consumeSpacesAndEOLs();
+      int size = reader.count - reader.position;
+      int chunk_size = Math.max( ParallelListParser.MIN_CHUNK_SIZE, size / (pool.getParallelism() * 4) );
+      if (pool.getParallelism() < 2 || size < 2*chunk_size || reader.peek() != '[')
+      {
+        return reader.parseValue();
+      }
+
+      ParallelListParser task = new ParallelListParser( reader, reader.splitList(chunk_size) );
+      pool.invoke( task );
+      return task.joinResults();
+    }
+    catch (JSONParseError err)
+    {
+      return UndefinedValue.singleton;
+    }
+  }
+
+  // Reads a JSON Lines (newline-delimited JSON) file or stream one value at a
+  // time through a single JSONTokenizer, so the read buffer and key
+  // consolidation are shared across records. A line that fails to parse is
+  // returned as an undefined value and reading resumes with the next line.
+  // Closing the stream closes the input. Call parallel() on the result to
+  // have batches of lines parsed on worker threads.
+  static public Stream<JValue> lines( File file )
+  {
+    try
+    {
+      return lines( new FileInputStream(file) );
+    }
+    catch (IOException err)
+    {
+      return Stream.<JValue>empty();
+    }
+  }
+
+  static public Stream<JValue> lines( InputStream in )
+  {
+    final JSONTokenizer tokenizer = new JSONTokenizer( in );
+    return StreamSupport.stream( new LineSpliterator(tokenizer), false ).onClose(
+        new Runnable()
+        {
+          public void run()
+          {
+            tokenizer.close();
+          }
+        }
+    );
+  }
+
+  // Writes each value as compact JSON followed by a newline.
+  static public boolean writeLines( Iterable<JValue> values, OutputStream out )
+  {
+    JSONWriter writer = JSONWriter.obtain();
+    try
+    {
+      writer.attach( out );
+      for (JValue value : values)
+      {
+        value.write( writer );
+        writer.print( '\n' );
+      }
+      return writer.flush();
+    }
+    finally
+    {
+      writer.release();
+    }
+  }
+
+  // Lazy variants of parse() and load(). Tables and lists are parsed one
+  // level at a time on first access; containers that are never touched cost
+  // only their source span and are written back out from it. The source
+  // must not change while lazy values refer to it. Like other JValues,
+  // lazily parsed values are not safe to read from several threads at once
+  // because reads may materialize them.
+  static public JValue loadLazy( File file )
+  {
+    return parseLazy( JSONReader.open(file) );
+  }
+
+  static public JValue parseLazy( String json )
+  {
+    return parseLazy( new JSONReader(json) );
+  }
+
+  static public JValue parseLazy( byte[] utf8 )
+  {
+    return parseLazy( utf8, 0, utf8.length );
+  }
+
+  static public JValue parseLazy( byte[] utf8, int offset, int length )
+  {
+    return parseLazy( ByteBuffer.wrap(utf8,offset,length) );
+  }
+
+  static public JValue parseLazy( ByteBuffer utf8 )
+  {
+    return parseLazy( new UTF8Reader(utf8) );
+  }
+
+  static JValue parseLazy( JSONReader reader )
+  {
+    try
+    {
+      reader.lazy = true;
+      return reader.parseValue();
+    }
+    catch (JSONParseError err)
+    {
+      return UndefinedValue.singleton;
+    }
+  }
+
+  // Opens a file written by saveSnapshot() without reading it: the file is
+  // memory-mapped and the result is a read-only view whose lists and tables
+  // decode their elements on access (see Snapshot), so opening is near
+  // instant at any size and processes that open the same file share its
+  // pages through the OS page cache. The file must not change while views
+  // of it are in use. Returns undefined if the file cannot be mapped or is
+  // not a snapshot.
+  static public JValue openSnapshot( File file )
+  {
+    return Snapshot.open( file );
+  }
+
+  // Shares table keys across all readers and tokenizers through a bounded
+  // pool of about 'capacity' strings, so that documents with the same keys
+  // reuse the same String objects. A capacity of 0 (the default) turns the
+  // pool off.
+  static public void setKeyPoolCapacity( int capacity )
+  {
+    KeyPool.shared = (capacity > 0) ? new KeyPool( capacity ) : null;
+  }
+
   static public JValue string( String value )
   {
     if (value == null) return NullValue.singleton;
@@ -110,7 +495,7 @@ public class JValue implements Iterable<JValue>
   {
     try
     {
-      JValue result = new JSONReader( file ).parseValue();
+      JValue result = JSONReader.open( file ).parseValue();
       if (result.isTable()) return result;
     }
     catch (JSONParseError err)
@@ -137,16 +522,6 @@ public class JValue implements Iterable<JValue>
     return UndefinedValue.singleton;
   }
 
-  static String format( double n )
-  {
-    if (formatter == null)
-    {
-      formatter = new DecimalFormat( "0", DecimalFormatSymbols.getInstance(Locale.ENGLISH) );
-      formatter.setMaximumFractionDigits( 340 );
-    }
-    return formatter.format( n );
-  }
-
   // METHODS
   public JValue add( JValue value )
   {
@@ -159,6 +534,11 @@ public class JValue implements Iterable<JValue>
     return add( JValue.number(value) );
   }
 
+  public JValue add( long value )
+  {
+    return add( JValue.number(value) );
+  }
+
   public JValue add( boolean value )
   {
     return add( JValue.logical(value) );
@@ -176,19 +556,48 @@ public class JValue implements Iterable<JValue>
     else                return result;
   }
 
+  // Returns the value selected by a JSON Pointer or JSONPath expression (see
+  // Path), which is compiled once and cached, or undefined if there is none
+  // or the expression is invalid. A path that can select several values
+  // returns a list of them; Path.iterator() walks them lazily instead.
+  public JValue at( String pointer_or_path )
+  {
+    return at( Path.compile(pointer_or_path) );
+  }
+
+  public JValue at( Path path )
+  {
+    if (path.isSingle()) return path.get( this );
+    if ( !path.isValid() ) return UndefinedValue.singleton;
+
+    JValue result = JValue.list();
+    for (Iterator<JValue> matches=path.iterator(this); matches.hasNext(); )
+    {
+      result.add( matches.next() );
+    }
+    return result;
+  }
+
   public JValue clear()
   {
     // No action
     return this;
   }
 
+  // Lists and tables return a copy-on-write copy; see ListValue.cloned().
+  // Other values are immutable and return themselves.
   public JValue cloned()
   {
     return this;
   }
 
+  // Values of different types order by type: undefined, null, logical,
+  // number, string, list, table.
   public double compareTo( JValue other )
   {
+    int order = typeOrder();
+    int other_order = other.typeOrder();
+    if (order != other_order) return order - other_order;
     return toString().compareTo( other.toString() );
   }
 
@@ -247,8 +656,14 @@ public class JValue implements Iterable<JValue>
 
   public boolean equals( JValue other )
   {
-    if (other == null) return false;
-    return other.toString().equals( this.toString() );
+    return (other == this);
+  }
+
+  // Returns an immutable deep copy of this value (see immutableList() and
+  // immutableTable()), or this value itself if it is already immutable.
+  public JValue freeze()
+  {
+    return this;
   }
 
   public JValue get( String key )
@@ -261,12 +676,22 @@ public class JValue implements Iterable<JValue>
     return UndefinedValue.singleton;
   }
 
+  public JValue get( Key key )
+  {
+    return get( key.name );
+  }
+
   public JValue get( JValue index )
   {
     if (index.isNumber()) return get( index.toInt() );
     else                  return get( index.toString() );
   }
 
+  public int hashCode()
+  {
+    return typeOrder();
+  }
+
   public boolean isList()
   {
     return false;
@@ -341,34 +766,68 @@ public class JValue implements Iterable<JValue>
   {
     try
     {
-      String json = this.toJSON();
-      BufferedWriter writer = new BufferedWriter( new FileWriter(file), 1024 );
-      writer.write( json );
-      writer.close();
-      return true;
+      FileOutputStream out = new FileOutputStream( file );
+      try
+      {
+        return write( out );
+      }
+      finally
+      {
+        out.close();
+      }
     }
     catch (IOException ignore)
     {
       return false;
     }
   }
-  public JValue set( int index, JValue value )
-  {
-    // No action
-    return this;
-  }
-
-  public JValue set( int index, double value )
-  {
-    return set( index, JValue.number(value) );
-  }
 
-  public JValue set( int index, boolean value )
+  // Writes this value as a snapshot, a binary form that openSnapshot() maps
+  // into memory instead of parsing; see Snapshot for the format. Returns
+  // false if an I/O error occurred.
+  public boolean saveSnapshot( File file )
   {
-    return set( index, JValue.logical(value) );
-  }
-
-  public JValue set( int index, String value )
+    try
+    {
+      FileOutputStream out = new FileOutputStream( file );
+      try
+      {
+        new SnapshotWriter( out.getChannel() ).write( this );
+        return true;
+      }
+      finally
+      {
+        out.close();
+      }
+    }
+    catch (IOException ignore)
+    {
+      return false;
+    }
+  }
+
+  public JValue set( int index, JValue value )
+  {
+    // No action
+    return this;
+  }
+
+  public JValue set( int index, double value )
+  {
+    return set( index, JValue.number(value) );
+  }
+
+  public JValue set( int index, long value )
+  {
+    return set( index, JValue.number(value) );
+  }
+
+  public JValue set( int index, boolean value )
+  {
+    return set( index, JValue.logical(value) );
+  }
+
+  public JValue set( int index, String value )
   {
     return set( index, JValue.string(value) );
   }
@@ -384,6 +843,11 @@ public class JValue implements Iterable<JValue>
     return set( key, JValue.number(value) );
   }
 
+  public JValue set( String key, long value )
+  {
+    return set( key, JValue.number(value) );
+  }
+
   public JValue set( String key, boolean value )
   {
     return set( key, JValue.logical(value) );
@@ -405,6 +869,11 @@ public class JValue implements Iterable<JValue>
     return set( key, JValue.number(value) );
   }
 
+  public JValue set( JValue key, long value )
+  {
+    return set( key, JValue.number(value) );
+  }
+
   public JValue set( JValue key, boolean value )
   {
     return set( key, JValue.logical(value) );
@@ -415,6 +884,16 @@ public class JValue implements Iterable<JValue>
     return set( key, JValue.string(value) );
   }
 
+  // Returns this value encoded as CBOR (RFC 8949), a binary form of JSON
+  // that is smaller and faster to write and read; see fromCBOR(). Integers
+  // are encoded exactly, reals as 32-bit floats when that is lossless.
+  public byte[] toCBOR()
+  {
+    CBORWriter writer = new CBORWriter();
+    writeCBOR( writer );
+    return writer.toByteArray();
+  }
+
   public double toDouble()
   {
     return 0.0;
@@ -425,6 +904,21 @@ public class JValue implements Iterable<JValue>
     return (int) toDouble();
   }
 
+  public double[] toDoubleArray()
+  {
+    return new double[ 0 ];
+  }
+
+  public long toLong()
+  {
+    return (long) toDouble();
+  }
+
+  public long[] toLongArray()
+  {
+    return new long[ 0 ];
+  }
+
   public String toJSON()
   {
     return toString();
@@ -437,9 +931,16 @@ public class JValue implements Iterable<JValue>
 
   public String toString()
   {
-    JSONWriter writer = new JSONWriter();
-    write( writer );
-    return writer.toString();
+    JSONWriter writer = JSONWriter.obtain();
+    try
+    {
+      write( writer );
+      return writer.toString();
+    }
+    finally
+    {
+      writer.release();
+    }
   }
 
   public void write( JSONWriter writer )
@@ -447,6 +948,137 @@ public class JValue implements Iterable<JValue>
     writer.print( toJSON() );
   }
 
+  // Streams this value as UTF-8 JSON. The sink is flushed but not closed.
+  // Returns false if an I/O error occurred.
+  public boolean write( OutputStream out )
+  {
+    JSONWriter writer = JSONWriter.obtain();
+    try
+    {
+      write( writer.attach(out) );
+      return writer.flush();
+    }
+    finally
+    {
+      writer.release();
+    }
+  }
+
+  public boolean write( Writer out )
+  {
+    JSONWriter writer = JSONWriter.obtain();
+    try
+    {
+      write( writer.attach(out) );
+      return writer.flush();
+    }
+    finally
+    {
+      writer.release();
+    }
+  }
+
+  public boolean write( WritableByteChannel channel )
+  {
+    JSONWriter writer = JSONWriter.obtain();
+    try
+    {
+      write( writer.attach(channel) );
+      return writer.flush();
+    }
+    finally
+    {
+      writer.release();
+    }
+  }
+
+  // Streams this value as CBOR; see toCBOR(). The sink is flushed but not
+  // closed. Returns false if an I/O error occurred.
+  public boolean writeCBOR( OutputStream out )
+  {
+    CBORWriter writer = new CBORWriter( out );
+    writeCBOR( writer );
+    return writer.flush();
+  }
+
+  void writeCBOR( CBORWriter writer )
+  {
+    if (isTable())
+    {
+      JValue keys = keys();
+      writer.writeHead( 5, keys.count() );
+      for (JValue key : keys)
+      {
+        writer.writeString( key.toString() );
+        get( key.toString() ).writeCBOR( writer );
+      }
+    }
+    else if (isList())
+    {
+      int n = count();
+      writer.writeHead( 4, n );
+      for (int i=0; i<n; ++i) get( i ).writeCBOR( writer );
+    }
+    else if (isNull())    writer.writeByte( 0xF6 );
+    else if (isLogical()) writer.writeByte( toLogical() ? 0xF5 : 0xF4 );
+    else if (isNumber())  writer.writeDouble( toDouble() );
+    else if (isString())  writer.writeString( toString() );
+    else                  writer.writeByte( 0xF7 );
+  }
+
+  // Returns false if this value can change, in which case a container that
+  // holds it can't cache its own hash code (see ListValue.hashCode()).
+  boolean hasFixedHash()
+  {
+    return true;
+  }
+
+  // Copy-on-write support for lists and tables; see ListValue.cloned().
+
+  // Returns the value that clones of this one are made from.
+  JValue cloneSource()
+  {
+    return cloned();
+  }
+
+  // Returns true if 'container', which holds this value, hears of every
+  // change to it through modified(). Values that never change qualify.
+  boolean reportsChangesTo( JValue container )
+  {
+    return hasFixedHash();
+  }
+
+  // Returns true for the shared, unchanging lists and tables that clones
+  // are made from; these must be cloned before being handed out.
+  boolean isCloneSource()
+  {
+    return false;
+  }
+
+  void attachTo( JValue container )
+  {
+  }
+
+  void detachFrom( JValue container )
+  {
+  }
+
+  void modified()
+  {
+  }
+
+  int typeOrder()
+  {
+    if (isUndefined()) return 0;
+    if (isNull())      return 1;
+    if (isLogical())   return 2;
+    if (isNumber())    return 3;
+    if (isString())    return 4;
+    if (isList())      return 5;
+    if (isTable())     return 6;
+    return 7;
+  }
+
   static class NullValue extends JValue
   {
     static NullValue singleton = new NullValue();
@@ -513,11 +1145,6 @@ public class JValue implements Iterable<JValue>
       this.value = value;
     }
 
-    public JValue cloned()
-    {
-      return new LogicalValue( value );
-    }
-
     public double compareTo( JValue other )
     {
       if (other.isLogical()) return other.toInt() - this.toInt();
@@ -527,7 +1154,12 @@ public class JValue implements Iterable<JValue>
     public boolean equals( JValue other )
     {
       if (other == null) return (value == false);
-      return other.toLogical() == value;
+      return other.isLogical() && other.toLogical() == value;
+    }
+
+    public int hashCode()
+    {
+      return Boolean.hashCode( value );
     }
 
     public boolean isLogical()
@@ -560,21 +1192,145 @@ public class JValue implements Iterable<JValue>
       this.value = value;
     }
 
-    public JValue cloned()
+    public double compareTo( JValue other )
+    {
+      if (other instanceof IntegerValue) return -compare( ((IntegerValue)other).value, value );
+      if (other.isNumber()) return compare( value, other.toDouble() );
+      return super.compareTo( other );
+    }
+
+    // NaN equals NaN so that equals() is reflexive, as hashing requires.
+    public boolean equals( JValue other )
+    {
+      if (other == null) return (value == 0.0);
+      if (other instanceof IntegerValue) return isEqual( ((IntegerValue)other).value, value );
+      if ( !other.isNumber() ) return false;
+      return isEqual( value, other.toDouble() );
+    }
+
+    public int hashCode()
+    {
+      return hashCode( value );
+    }
+
+    // Returns real 'd' minus integer 'n'. Converting 'n' to a double can
+    // round it onto 'd', so a zero difference is settled exactly. NaN orders
+    // after every number.
+    static double compare( long n, double d )
+    {
+      double difference = d - n;
+      if (difference != 0) return (difference == difference) ? difference : 1;
+      if (d >= 0x1p63) return 1;
+      long m = (long) d;
+      return (m > n) ? 1 : ((m < n) ? -1 : 0);
+    }
+
+    // Returns 'b' minus 'a', with NaN equal to itself and after every number.
+    static double compare( double a, double b )
+    {
+      double difference = b - a;
+      if (difference == difference) return difference;
+      if (a != a) return (b != b) ? 0 : -1;
+      if (b != b) return 1;
+      return (a == b) ? 0 : ((b > a) ? 1 : -1);  // infinities
+    }
+
+    // Compares exactly, so that distinct integers are never both equal to
+    // the same real.
+    static boolean isEqual( long n, double d )
+    {
+      return d >= -0x1p63 && d < 0x1p63 && (long) d == n && (double) n == d;
+    }
+
+    static boolean isEqual( double a, double b )
+    {
+      return a == b || (a != a && b != b);
+    }
+
+    // Shared with IntegerValue so that equal numbers hash alike.
+    static int hashCode( double n )
+    {
+      if (n == 0) return 0;  // 0.0 == -0.0
+      return Double.hashCode( n );
+    }
+
+    public boolean isNumber()
+    {
+      return true;
+    }
+
+    public double toDouble()
+    {
+      return value;
+    }
+
+    public int toInt()
+    {
+      return (int) value;
+    }
+
+    public long toLong()
+    {
+      return (long) value;
+    }
+
+    public boolean toLogical()
+    {
+      return value != 0.0;
+    }
+
+    public void write( JSONWriter writer )
+    {
+      writer.print( value );
+    }
+
+    void writeCBOR( CBORWriter writer )
+    {
+      writer.writeDouble( value );
+    }
+  }
+
+  // Integral number stored exactly. JValue.number() returns shared instances
+  // for small values.
+  static class IntegerValue extends JValue
+  {
+    static final int CACHE_MIN = -128;
+    static final int CACHE_MAX = 1023;
+    static final IntegerValue[] cache = new IntegerValue[ CACHE_MAX - CACHE_MIN + 1 ];
+
+    static
+    {
+      for (int i=0; i<cache.length; ++i) cache[i] = new IntegerValue( i + CACHE_MIN );
+    }
+
+    long value;
+
+    public IntegerValue( long value )
     {
-      return new NumberValue( value );
+      this.value = value;
     }
 
     public double compareTo( JValue other )
     {
-      if (other.isNumber()) return other.toDouble() - this.toDouble();
+      if (other instanceof IntegerValue)
+      {
+        long other_value = ((IntegerValue)other).value;
+        return (other_value > value) ? 1 : ((other_value < value) ? -1 : 0);
+      }
+      if (other.isNumber()) return NumberValue.compare( value, other.toDouble() );
       return super.compareTo( other );
     }
 
     public boolean equals( JValue other )
     {
-      if (other == null) return (value == 0.0);
-      return other.toDouble() == value;
+      if (other == null) return (value == 0);
+      if (other instanceof IntegerValue) return ((IntegerValue)other).value == value;
+      return other.isNumber() && NumberValue.isEqual( value, other.toDouble() );
+    }
+
+    public int hashCode()
+    {
+      return NumberValue.hashCode( (double) value );
     }
 
     public boolean isNumber()
@@ -589,18 +1345,29 @@ public class JValue implements Iterable<JValue>
 
     public int toInt()
     {
+      if (value > Integer.MAX_VALUE) return Integer.MAX_VALUE;
+      if (value < Integer.MIN_VALUE) return Integer.MIN_VALUE;
       return (int) value;
     }
 
+    public long toLong()
+    {
+      return value;
+    }
+
     public boolean toLogical()
     {
-      return value != 0.0;
+      return value != 0;
     }
 
-    public String toString()
+    public void write( JSONWriter writer )
     {
-      if (value == Math.floor(value)) return "" + (int) value;
-      return format( value );
+      writer.print( value );
+    }
+
+    void writeCBOR( CBORWriter writer )
+    {
+      writer.writeLong( value );
     }
   }
 
@@ -623,7 +1390,12 @@ public class JValue implements Iterable<JValue>
     public boolean equals( JValue other )
     {
       if (other == null) return (value == null || value.equals(""));
-      return other.toString().equals( toString() );
+      return other.isString() && other.toString().equals( value );
+    }
+
+    public int hashCode()
+    {
+      return value.hashCode();
     }
 
     public boolean isString()
@@ -645,9 +1417,19 @@ public class JValue implements Iterable<JValue>
 
     public String toJSON()
     {
-      JSONWriter writer = new JSONWriter();
-      write( writer );
-      return writer.toString();
+      return super.toString();
+    }
+
+    public long toLong()
+    {
+      try
+      {
+        return Long.parseLong( value );
+      }
+      catch (Exception ignore)
+      {
+        return super.toLong();
+      }
     }
 
     public boolean toLogical()
@@ -665,6 +1447,11 @@ public class JValue implements Iterable<JValue>
       write( value, writer );
     }
 
+    void writeCBOR( CBORWriter writer )
+    {
+      writer.writeString( value );
+    }
+
     // GLOBAL METHODS
     static public void write( String st, JSONWriter writer )
     {
@@ -675,9 +1462,24 @@ public class JValue implements Iterable<JValue>
       }
 
       writer.print( '"' );
-      for (int i=0; i<st.length(); ++i)
+      int count = st.length();
+      int run_start = 0;
+      for (int i=0; i<count; ++i)
       {
         char ch = st.charAt( i );
+        if (ch >= 32 && ch <= 126)
+        {
+          if (ch != '"' && ch != '\\') continue;
+        }
+        else if (ch > 127 && ch != 0x2028 && ch != 0x2029)
+        {
+          // Store printable Unicode without encoding as \\uXXXX
+          continue;
+        }
+
+        // Copy the run of plain characters in bulk, then the escape
+        writer.print( st, run_start, i );
+        run_start = i + 1;
         switch (ch)
         {
           case '"':
@@ -702,60 +1504,124 @@ public class JValue implements Iterable<JValue>
             writer.print( "\\t" );
             break;
           default:
-            if (ch >= 32 && ch <= 126)
-            {
-              writer.print( ch );
-            }
-            else if (ch < 32 || ch == 127 || ch == 0x2028 || ch == 0x2029)
-            {
-              // RE: 2028/9:
-              // http://stackoverflow.com/questions/2965293/javascript-parse-error-on-u2028-unicode-character
-              writer.print( "\\u" );
-              int n = ch;
-              for (int nibble=0; nibble<=3; ++nibble)
-              {
-                int digit = (n >> 12) & 15;
-                n = n << 4;
-                if (digit <= 9)
-                {
-                  writer.print( digit );
-                }
-                else
-                {
-                  writer.print( (char)('a' + (digit - 10)) );
-                }
-              }
-            }
-            else
+            // RE: 2028/9:
+            // http://stackoverflow.com/questions/2965293/javascript-parse-error-on-u2028-unicode-character
+            writer.print( "\\u" );
+            int n = ch;
+            for (int nibble=0; nibble<=3; ++nibble)
             {
-              // Store printable Unicode without encoding as \\uXXXX
-              writer.print( ch );
+              int digit = (n >> 12) & 15;
+              n = n << 4;
+              writer.print( (char)((digit <= 9) ? ('0' + digit) : ('a' + (digit - 10))) );
             }
         }
       }
+      writer.print( st, run_start, count );
       writer.print( '"' );
     }
   }
 
   static class ListValue extends JValue
   {
-    ArrayList<JValue> data = new ArrayList<JValue>();
+    // While a list holds only numbers they are packed into 'longs' (all
+    // integers) or 'doubles' (integers exactly representable as doubles mixed
+    // with reals). The first other value widens the list to 'data'.
+    ArrayList<JValue> data;
+    long[]   longs;
+    double[] doubles;
+    int      packed_count;
+
+    int hash;  // 0 until computed; see hashCode()
+
+    // Copy-on-write state; see cloned()
+    JValue             parent;
+    volatile ListValue clone_source;
+
+    ListValue()
+    {
+    }
+
+    ListValue( int capacity )
+    {
+      data = new ArrayList<JValue>( capacity );
+    }
 
     public JValue add( JValue value )
     {
       if (value == null) value = NullValue.singleton;
-      data.add( value );
+      modified();
+      value.attachTo( this );
+      if (data != null)
+      {
+        data.add( value );
+      }
+      else if ( !storePacked(packed_count,value) )
+      {
+        widen();
+        data.add( value );
+      }
       return this;
     }
 
+    public JValue add( double value )
+    {
+      if (data == null && longs == null)
+      {
+        modified();
+        if (doubles == null) doubles = new double[ 10 ];
+        else if (packed_count == doubles.length) doubles = Arrays.copyOf( doubles, packed_count*2 );
+        doubles[ packed_count++ ] = value;
+        return this;
+      }
+      return add( JValue.number(value) );
+    }
+
+    public JValue add( long value )
+    {
+      if (data == null && doubles == null)
+      {
+        modified();
+        if (longs == null) longs = new long[ 10 ];
+        else if (packed_count == longs.length) longs = Arrays.copyOf( longs, packed_count*2 );
+        longs[ packed_count++ ] = value;
+        return this;
+      }
+      return add( JValue.number(value) );
+    }
+
     public JValue apply( JValue.Processor fn )
     {
+      modified();
+      if (data == null)
+      {
+        // Results may not be numbers - rebuild through add()
+        ListValue result = new ListValue();
+        for (int i=0; i<packed_count; ++i)
+        {
+          JValue processed_element = get(i).apply( fn );
+          if (processed_element != null && !processed_element.isUndefined())
+          {
+            result.add( processed_element );
+          }
+        }
+        data = result.data;
+        longs = result.longs;
+        doubles = result.doubles;
+        packed_count = result.packed_count;
+        if (data != null)
+        {
+          for (JValue element : data) element.attachTo( this );
+        }
+        return super.apply( fn );
+      }
+
       int write_index = 0;
       for (int i=0; i<data.size(); ++i)
       {
-        JValue processed_element = data.get(i).apply( fn );
+        JValue processed_element = get(i).apply( fn );
         if (processed_element != null && !processed_element.isUndefined())
         {
+          processed_element.attachTo( this );
           data.set( write_index++, processed_element );
         }
       }
@@ -765,28 +1631,50 @@ public class JValue implements Iterable<JValue>
 
     public JValue clear()
     {
-      data.clear();
+      modified();
+      data = null;
+      longs = null;
+      doubles = null;
+      packed_count = 0;
       return this;
     }
 
+    // Returns a copy-on-write copy. The first clone makes a private deep
+    // copy of this list, its clone source, which is kept until the list or
+    // anything in it changes, so cloning it again costs nothing. A clone
+    // (see ClonedListValue) copies its source's storage on first use and
+    // each nested list or table as it's fetched, so it costs as much as the
+    // parts of it that are used.
+    // Immutable values, including frozen lists and tables, are shared.
+    //
+    // Changes anywhere in the original, including through lists and tables
+    // fetched from it before cloning, clear the clone sources above them
+    // (see modified()) rather than reaching clones already made. Apart from
+    // caching its clone source the original is only read, so any number of
+    // threads may clone it at once.
     public JValue cloned()
     {
-      JValue.ListValue result = new ListValue();
-      result.data.ensureCapacity( count() );
-      int n = count();
-      for (int i=0; i<n; ++i)
-      {
-        result.add( get(i).cloned() );
-      }
-      return result;
+      return new ClonedListValue( cloneSource() );
     }
 
     public double compareTo( JValue other )
     {
       if (this == other) return 0;
+      if ( !other.isList() ) return super.compareTo( other );
       if (this.count() != other.count()) return other.count() - this.count();
 
       int n = count();
+      if (data == null && other instanceof ListValue && ((ListValue)other).data == null)
+      {
+        ListValue list = (ListValue) other;
+        for (int i=0; i<n; ++i)
+        {
+          double result = comparePacked( i, list );
+          if (result != 0) return result;
+        }
+        return 0;
+      }
+
       for (int i=0; i<n; ++i)
       {
         double result = this.get(i).compareTo( other.get(i) );
@@ -798,6 +1686,7 @@ public class JValue implements Iterable<JValue>
 
     public boolean contains( String value )
     {
+      if (data == null) return false;
       int size = data.size();
       for (int i=0; i<size; ++i)
       {
@@ -809,25 +1698,41 @@ public class JValue implements Iterable<JValue>
 
     public boolean contains( JValue value )
     {
-      int size = data.size();
-      for (int i=0; i<size; ++i)
-      {
-        if (data.get(i).equals(value)) return true;
-      }
-      return false;
+      return indexOf( value ) >= 0;
     }
 
     public int count()
     {
-      return data.size();
+      return (data != null) ? data.size() : packed_count;
     }
 
     public boolean equals( JValue other )
     {
+      if (other == this) return true;
       if (other == null) return false;
+      if ( !other.isList() ) return false;
       int size = count();
       if (size != other.count()) return false;
-      if ( !other.isList() ) return false;
+
+      if (data == null && other instanceof ListValue && ((ListValue)other).data == null)
+      {
+        ListValue list = (ListValue) other;
+        if (longs != null && list.longs != null)
+        {
+          for (int i=0; i<size; ++i)
+          {
+            if (longs[i] != list.longs[i]) return false;
+          }
+        }
+        else
+        {
+          for (int i=0; i<size; ++i)
+          {
+            if (comparePacked(i,list) != 0) return false;
+          }
+        }
+        return true;
+      }
 
       for (int i=0; i<size; ++i)
       {
@@ -837,6 +1742,17 @@ public class JValue implements Iterable<JValue>
       return true;
     }
 
+    public JValue freeze()
+    {
+      PersistentVector elements = PersistentVector.empty;
+      for (int i=0, n=count(); i<n; ++i)
+      {
+        JValue element = (data != null) ? data.get(i) : get(i);
+        elements = elements.add( element.freeze() );
+      }
+      return new ImmutableListValue( elements );
+    }
+
     public JValue get( String key )
     {
       try
@@ -851,8 +1767,44 @@ public class JValue implements Iterable<JValue>
 
     public JValue get( int index )
     {
-      if (index < 0 || index >= data.size()) return UndefinedValue.singleton;
-      return data.get( index );
+      if (data != null)
+      {
+        if (index < 0 || index >= data.size()) return UndefinedValue.singleton;
+        return data.get( index );
+      }
+      if (index < 0 || index >= packed_count) return UndefinedValue.singleton;
+      if (longs != null) return JValue.number( longs[index] );
+      return JValue.number( doubles[index] );
+    }
+
+    // Cached until the list changes, unless it holds lists or tables: those
+    // can change without this list knowing, so their codes are recomputed.
+    // As in String.hashCode(), 0 doubles as "not cached", so racing readers
+    // at worst compute the same code twice.
+    public int hashCode()
+    {
+      int result = hash;
+      if (result != 0) return result;
+
+      result = 1;
+      boolean cacheable = true;
+      int n = count();
+      if (data != null)
+      {
+        for (int i=0; i<n; ++i)
+        {
+          JValue element = data.get( i );
+          result = 31*result + element.hashCode();
+          if ( !element.hasFixedHash() ) cacheable = false;
+        }
+      }
+      else
+      {
+        for (int i=0; i<n; ++i) result = 31*result + NumberValue.hashCode( numberAt(i) );
+      }
+
+      if (cacheable) hash = result;
+      return result;
     }
 
     public boolean isList()
@@ -862,7 +1814,27 @@ public class JValue implements Iterable<JValue>
 
     public Iterator<JValue> iterator()
     {
-      return data.iterator();
+      return new Iterator<JValue>()
+      {
+        int next_index;
+
+        public boolean hasNext()
+        {
+          return next_index < count();
+        }
+
+        public JValue next()
+        {
+          if (next_index >= count()) throw new NoSuchElementException();
+          return get( next_index++ );
+        }
+
+        public void remove()
+        {
+          if (next_index == 0) throw new IllegalStateException();
+          ListValue.this.remove( --next_index );
+        }
+      };
     }
 
     public JValue keys()
@@ -880,28 +1852,89 @@ public class JValue implements Iterable<JValue>
 
     public JValue remove( JValue value )
     {
-      data.remove( value );
+      int index = indexOf( value );
+      if (index >= 0) remove( index );
       return value;
     }
 
     public JValue remove( int index )
     {
       if (index < 0 || index >= count()) return UndefinedValue.singleton;
+      modified();
       JValue result = get( index );
-      data.remove( index );
+      if (data != null)
+      {
+        data.remove( index );
+        result.detachFrom( this );
+      }
+      else
+      {
+        Object array = (longs != null) ? longs : doubles;
+        System.arraycopy( array, index+1, array, index, packed_count-(index+1) );
+        --packed_count;
+      }
       return result;
     }
 
     public ListValue set( int index, JValue value )
     {
-      if (index < 0 || index >= data.size()) return this;
-      data.set( index, (value != null) ? value : NullValue.singleton );
+      if (index < 0 || index >= count()) return this;
+      if (value == null) value = NullValue.singleton;
+      modified();
+      value.attachTo( this );
+      if (data == null && !storePacked(index,value)) widen();
+      if (data != null)
+      {
+        JValue previous = data.set( index, value );
+        if (previous != value) previous.detachFrom( this );
+      }
       return this;
     }
 
     public ListValue set( String index, JValue value )
     {
-      return set( ""+index, value );
+      try
+      {
+        return set( Integer.parseInt(index), value );
+      }
+      catch (NumberFormatException ignore)
+      {
+        return this;
+      }
+    }
+
+    public double[] toDoubleArray()
+    {
+      if (doubles != null) return Arrays.copyOf( doubles, packed_count );
+
+      int n = count();
+      double[] result = new double[ n ];
+      if (longs != null)
+      {
+        for (int i=0; i<n; ++i) result[i] = longs[i];
+      }
+      else
+      {
+        for (int i=0; i<n; ++i) result[i] = get(i).toDouble();
+      }
+      return result;
+    }
+
+    public long[] toLongArray()
+    {
+      if (longs != null) return Arrays.copyOf( longs, packed_count );
+
+      int n = count();
+      long[] result = new long[ n ];
+      if (doubles != null)
+      {
+        for (int i=0; i<n; ++i) result[i] = (long) doubles[i];
+      }
+      else
+      {
+        for (int i=0; i<n; ++i) result[i] = get(i).toLong();
+      }
+      return result;
     }
 
     public boolean toLogical()
@@ -913,628 +1946,8918 @@ public class JValue implements Iterable<JValue>
     {
       writer.print( '[' );
       int size = count();
-      for (int i=0; i<size; ++i)
+      if (longs != null)
       {
-        if (i > 0) writer.print( ',' );
-        get( i ).write( writer );
+        for (int i=0; i<size; ++i)
+        {
+          if (i > 0) writer.print( ',' );
+          writer.print( longs[i] );
+        }
+      }
+      else if (doubles != null)
+      {
+        for (int i=0; i<size; ++i)
+        {
+          if (i > 0) writer.print( ',' );
+          writer.print( doubles[i] );
+        }
+      }
+      else
+      {
+        for (int i=0; i<size; ++i)
+        {
+          if (i > 0) writer.print( ',' );
+          data.get( i ).write( writer );
+        }
       }
       writer.print( ']' );
     }
-  }
 
-  static class TableValue extends JValue
-  {
-    LinkedHashMap<String,JValue> data = new LinkedHashMap<String,JValue>();
+    void writeCBOR( CBORWriter writer )
+    {
+      int size = count();
+      writer.writeHead( 4, size );
+      if (longs != null)
+      {
+        for (int i=0; i<size; ++i) writer.writeLong( longs[i] );
+      }
+      else if (doubles != null)
+      {
+        for (int i=0; i<size; ++i)
+        {
+          // Integers stay integers, as through JValue.number()
+          double value = doubles[i];
+          long n = (long) value;
+          if (value >= -9.223372036854775808E18 && value < 9.223372036854775808E18
+              && n == value && (n != 0 || 1/value > 0)) writer.writeLong( n );
+          else                                          writer.writeDouble( value );
+        }
+      }
+      else
+      {
+        for (int i=0; i<size; ++i) data.get( i ).writeCBOR( writer );
+      }
+    }
 
-    public JValue apply( JValue.Processor fn )
+    int indexOf( JValue value )
     {
-      for (String key : data.keySet())
+      int size = count();
+      if (data != null)
       {
-        JValue old_value = data.get( key );
-        JValue new_value = old_value.apply( fn );
-        if (new_value != old_value)
+        for (int i=0; i<size; ++i)
         {
-          if (new_value == null || new_value.isUndefined())
+          if (data.get(i).equals(value)) return i;
+        }
+      }
+      else if (value != null && value.isNumber())
+      {
+        // Exactly as the elements' equals() would
+        double n = value.toDouble();
+        if (value instanceof IntegerValue)
+        {
+          long target = value.toLong();
+          for (int i=0; i<size; ++i)
           {
-            data.remove( key );
+            if ((longs != null) ? longs[i] == target : NumberValue.isEqual(target,doubles[i])) return i;
           }
-          else
+        }
+        else
+        {
+          for (int i=0; i<size; ++i)
           {
-            data.put( key, new_value );
+            if ((longs != null) ? NumberValue.isEqual(longs[i],n) : NumberValue.isEqual(doubles[i],n)) return i;
           }
         }
       }
-      return super.apply( fn );
+      else if (size > 0)
+      {
+        // A null value matches zero
+        for (int i=0; i<size; ++i)
+        {
+          if (get(i).equals(value)) return i;
+        }
+      }
+      return -1;
     }
 
-    public JValue clear()
+    boolean hasFixedHash()
     {
-      data.clear();
-      return this;
+      return false;
     }
 
-    public JValue cloned()
+    // Returns a deep copy of this list that is never changed or handed out;
+    // see cloned(). It is cached, and is its own clone source, while every
+    // list and table in it reports its changes here. Tables and lists hold
+    // on to the last container they were stored in for this (see attachTo()).
+    ListValue cloneSource()
     {
-      JValue.TableValue result = new JValue.TableValue();
-      for (String key : data.keySet())
+      ListValue result = clone_source;
+      if (result != null) return result;
+
+      result = new ListValue();
+      boolean cacheable = true;
+      int n = count();
+      if (data != null)
       {
-        result.set( key, get(key).cloned() );
+        result.data = new ArrayList<JValue>( n );
+        for (int i=0; i<n; ++i)
+        {
+          JValue element = data.get( i );
+          result.data.add( element.cloneSource() );
+          if ( !element.reportsChangesTo(this) ) cacheable = false;
+        }
       }
-      return result;
-    }
+      if (longs != null)   result.longs = Arrays.copyOf( longs, n );
+      if (doubles != null) result.doubles = Arrays.copyOf( doubles, n );
+      result.packed_count = packed_count;
 
-    public double compareTo( JValue other )
-    {
-      if (this == other) return 0;
-      if (this.count() != other.count()) return other.count() - this.count();
-      return super.compareTo( other );
+      if (cacheable)
+      {
+        result.clone_source = result;
+        clone_source = result;
+      }
+      return result;
     }
 
-    public boolean contains( String key )
+    boolean reportsChangesTo( JValue container )
     {
-      return data.containsKey( key );
+      return clone_source != null && (parent == container || clone_source == this);
     }
 
-    public int count()
+    boolean isCloneSource()
     {
-      return data.size();
+      return clone_source == this;
     }
 
-    public boolean equals( JValue other )
+    // Records the container this list was last stored in, whose clone
+    // source then depends on hearing of changes here. One it was stored in
+    // before can't rely on that any longer, so its clone source is cleared.
+    void attachTo( JValue container )
     {
-      if (other == null) return false;
-      if (count() != other.count()) return false;
-      if ( !other.isTable() ) return false;
-
-      LinkedHashMap<String,JValue> other_data = ((TableValue)other).data;
-      for (String key : data.keySet())
-      {
-        if ( !other_data.containsKey(key) ) return false;
-        if ( !get(key).equals(other_data.get(key)) ) return false;
-      }
-
-      return true;
+      JValue previous = parent;
+      if (previous == container) return;
+      if (previous != null) previous.modified();
+      parent = container;
     }
 
-    public JValue get( String key )
+    void detachFrom( JValue container )
     {
-      JValue result = data.get( key );
-      if (result != null) return result;
-      else                return UndefinedValue.singleton;
+      if (parent == container) parent = null;
     }
 
-    public JValue get( int index )
+    // Called before every change. Clears the cached hash code and clone
+    // source, and those of the containers above. A container caches its
+    // clone source only while its children's are cached, so the walk up
+    // stops at the first one without.
+    void modified()
     {
-      return get( ""+index );
+      hash = 0;
+      if (clone_source == null) return;
+      clone_source = null;
+      if (parent != null) parent.modified();
     }
 
-    public boolean isTable()
+    // Returns the other packed list's element 'index' minus this one's,
+    // comparing exactly as the elements' own compareTo() would.
+    double comparePacked( int index, ListValue other )
     {
-      return true;
+      if (longs != null)
+      {
+        long a = longs[ index ];
+        if (other.longs == null) return NumberValue.compare( a, other.doubles[index] );
+        long b = other.longs[ index ];
+        return (b > a) ? 1 : ((b < a) ? -1 : 0);
+      }
+      if (other.longs != null) return -NumberValue.compare( other.longs[index], doubles[index] );
+      return NumberValue.compare( doubles[index], other.doubles[index] );
     }
 
-    public Iterator<JValue> iterator()
+    double numberAt( int index )
     {
-      return data.values().iterator();
+      return (longs != null) ? longs[index] : doubles[index];
     }
 
-    public JValue keys()
+    // Stores a number at 'index' (== packed_count to append) in packed form,
+    // converting long storage to double storage if that is lossless. Returns
+    // false if the value can't be packed.
+    boolean storePacked( int index, JValue value )
     {
-      JValue list = JValue.list();
-      for (String key : data.keySet())
+      if (value instanceof IntegerValue)
       {
-        list.add( JValue.string(key) );
+        long n = ((IntegerValue)value).value;
+        if (doubles == null)
+        {
+          if (longs == null) longs = new long[ 10 ];
+          else if (index == longs.length) longs = Arrays.copyOf( longs, index*2 );
+          longs[ index ] = n;
+        }
+        else
+        {
+          if ( !isExactDouble(n) ) return false;
+          if (index == doubles.length) doubles = Arrays.copyOf( doubles, index*2 );
+          doubles[ index ] = n;
+        }
+      }
+      else if (value instanceof NumberValue)
+      {
+        if (longs != null)
+        {
+          for (int i=0; i<packed_count; ++i)
+          {
+            if ( !isExactDouble(longs[i]) ) return false;
+          }
+          doubles = new double[ Math.max(longs.length,10) ];
+          for (int i=0; i<packed_count; ++i) doubles[i] = longs[i];
+          longs = null;
+        }
+        if (doubles == null) doubles = new double[ 10 ];
+        else if (index == doubles.length) doubles = Arrays.copyOf( doubles, index*2 );
+        doubles[ index ] = ((NumberValue)value).value;
+      }
+      else
+      {
+        return false;
       }
-      return list;
-    }
 
-    public JValue remove( String key )
-    {
-      JValue result = data.get( key );
-      if (result == null) return UndefinedValue.singleton;
-      data.remove( key );
-      return result;
+      if (index == packed_count) ++packed_count;
+      return true;
     }
 
-    public JValue remove( JValue value )
+    // Returns true if 'n' converts to a double and back unchanged. Casting
+    // saturates at Long.MAX_VALUE, so 2^63 must be ruled out separately.
+    static boolean isExactDouble( long n )
     {
-      return remove( value.toString() );
+      double d = n;
+      return d != 0x1p63 && (long) d == n;
     }
 
-    public TableValue set( int key, JValue value )
+    // Converts packed storage to the generic form.
+    void widen()
     {
-      return set( ""+key, value );
+      ArrayList<JValue> list = new ArrayList<JValue>( Math.max(packed_count+1,10) );
+      for (int i=0; i<packed_count; ++i) list.add( get(i) );
+      data = list;
+      longs = null;
+      doubles = null;
+      packed_count = 0;
     }
+  }
 
-    public TableValue set( String key, JValue value )
-    {
-      data.put( key, (value != null) ? value : NullValue.singleton );
-      return this;
-    }
+  static class TableValue extends JValue
+  {
+    // Entries live either in a shared Shape plus a slot array or, once the
+    // table has too many or too varied keys or has had a key removed, in a
+    // dictionary ('data', with 'shape' null).
+    Shape      shape;
+    JValue[]   values;
+    OrderedMap data;
 
-    public boolean toLogical()
+    int hash;  // 0 until computed; see ListValue.hashCode()
+
+    // Copy-on-write state; see ListValue.cloned()
+    JValue              parent;
+    volatile TableValue clone_source;
+
+    TableValue()
     {
-      return true;
+      shape = Shape.empty;
     }
 
-    public void write( JSONWriter writer )
+    public JValue apply( JValue.Processor fn )
     {
-      writer.print( '{' );
-      boolean first = true;
-      for (String key : data.keySet())
+      modified();
+      if (shape != null)
       {
-        if (first) first = false;
-        else       writer.print( ',' );
-        StringValue.write( key, writer );
-        writer.print( ':' );
-        data.get( key ).write( writer );
+        boolean removed = false;
+        int n = shape.keys.length;
+        for (int i=0; i<n; ++i)
+        {
+          JValue new_value = valueAt( i ).apply( fn );
+          if (new_value == null || new_value.isUndefined())
+          {
+            new_value = null;
+            removed = true;
+          }
+          else
+          {
+            new_value.attachTo( this );
+          }
+          values[i] = new_value;
+        }
+        if (removed) toDictionary();
+        return super.apply( fn );
       }
-      writer.print( '}' );
-    }
-  }
+
+      String[] keys = data.keys;
+      for (int i=0; i<data.count; ++i)
+      {
+        if (keys[i] == null) continue;
+        JValue new_value = valueAt( i ).apply( fn );
+        if (new_value == null || new_value.isUndefined())
+        {
+          data.removeAt( i );
+        }
+        else
+        {
+          new_value.attachTo( this );
+          data.values[i] = new_value;
+        }
+      }
+      return super.apply( fn );
+    }
+
+    public JValue clear()
+    {
+      modified();
+      shape = Shape.empty;
+      values = null;
+      data = null;
+      return this;
+    }
+
+    // Returns a copy-on-write copy; see ListValue.cloned().
+    public JValue cloned()
+    {
+      return new ClonedTableValue( cloneSource() );
+    }
+
+    public double compareTo( JValue other )
+    {
+      if (this == other) return 0;
+      if ( !other.isTable() ) return super.compareTo( other );
+      if (this.count() != other.count()) return other.count() - this.count();
+      if ( !(other instanceof TableValue) ) return -other.compareTo( this );
+
+      // Compare entries in order; tables that differ only in key order are equal
+      TableValue table = (TableValue) other;
+      String[] keys = keyArray();
+      JValue[] values = valueArray();
+      String[] other_keys = table.keyArray();
+      JValue[] other_values = table.valueArray();
+      int j = 0;
+      for (int i=0, n=entryCount(); i<n; ++i)
+      {
+        if (keys[i] == null) continue;
+        while (other_keys[j] == null) ++j;
+        if ( !keys[i].equals(other_keys[j]) )
+        {
+          return equals( other ) ? 0 : keys[i].compareTo( other_keys[j] );
+        }
+        double result = values[i].compareTo( other_values[j++] );
+        if (result != 0) return result;
+      }
+      return 0;
+    }
+
+    public boolean contains( String key )
+    {
+      if (shape != null) return shape.indexOf( key ) >= 0;
+      return data.find( key ) >= 0;
+    }
+
+    public int count()
+    {
+      if (shape != null) return shape.keys.length;
+      return data.size;
+    }
+
+    public boolean equals( JValue other )
+    {
+      if (other == this) return true;
+      if (other == null) return false;
+      if ( !other.isTable() ) return false;
+      if (count() != other.count()) return false;
+      if ( !(other instanceof TableValue) ) return other.equals( this );
+
+      TableValue table = (TableValue) other;
+      if (shape != null && shape == table.shape)
+      {
+        for (int i=shape.keys.length; --i>=0; )
+        {
+          if ( !values[i].equals(table.values[i]) ) return false;
+        }
+        return true;
+      }
+
+      String[] keys = keyArray();
+      JValue[] values = valueArray();
+      for (int i=0, n=entryCount(); i<n; ++i)
+      {
+        if (keys[i] == null) continue;
+        JValue other_value = table.find( keys[i] );
+        if (other_value == null || !values[i].equals(other_value)) return false;
+      }
+
+      return true;
+    }
+
+    public JValue freeze()
+    {
+      ImmutableTableValue result = ImmutableTableValue.empty;
+      String[] keys = keyArray();
+      JValue[] values = valueArray();
+      for (int i=0, n=entryCount(); i<n; ++i)
+      {
+        if (keys[i] != null) result = result.set( keys[i], values[i] );
+      }
+      return result;
+    }
+
+    public JValue get( String key )
+    {
+      int index = (shape != null) ? shape.indexOf( key ) : data.find( key );
+      if (index < 0) return UndefinedValue.singleton;
+      return valueAt( index );
+    }
+
+    public JValue get( int index )
+    {
+      return get( ""+index );
+    }
+
+    public JValue get( Key key )
+    {
+      Shape shape = this.shape;
+      if (shape == null) return get( key.name );
+
+      Key.Slot cached = key.cached;
+      if (cached != null && cached.shape == shape) return valueAt( cached.index );
+
+      int index = shape.indexOf( key.name );
+      if (index < 0) return UndefinedValue.singleton;
+      key.cached = new Key.Slot( shape, index );
+      return valueAt( index );
+    }
+
+    // Independent of key order, like equals().
+    // Cached as in ListValue.hashCode().
+    public int hashCode()
+    {
+      int result = hash;
+      if (result != 0) return result;
+
+      boolean cacheable = true;
+      String[] keys = keyArray();
+      JValue[] values = valueArray();
+      for (int i=0, n=entryCount(); i<n; ++i)
+      {
+        if (keys[i] == null) continue;
+        result += keys[i].hashCode() ^ values[i].hashCode();
+        if ( !values[i].hasFixedHash() ) cacheable = false;
+      }
+
+      if (cacheable) hash = result;
+      return result;
+    }
+
+    public boolean isTable()
+    {
+      return true;
+    }
+
+    public Iterator<JValue> iterator()
+    {
+      if (shape != null)
+      {
+        final Shape iterated = shape;
+        return new Iterator<JValue>()
+        {
+          int next_index;
+
+          public boolean hasNext()
+          {
+            return next_index < iterated.keys.length;
+          }
+
+          public JValue next()
+          {
+            if (next_index >= iterated.keys.length) throw new NoSuchElementException();
+            if (shape == iterated) return valueAt( next_index++ );
+            return get( iterated.keys[next_index++] );
+          }
+
+          public void remove()
+          {
+            if (next_index == 0) throw new IllegalStateException();
+            TableValue.this.remove( iterated.keys[next_index-1] );
+          }
+        };
+      }
+
+      return new Iterator<JValue>()
+      {
+        final OrderedMap iterated = data;
+        int next_index = skipRemoved( 0 );
+        int last_index = -1;
+
+        public boolean hasNext()
+        {
+          return next_index < iterated.count;
+        }
+
+        public JValue next()
+        {
+          if (next_index >= iterated.count) throw new NoSuchElementException();
+          last_index = next_index;
+          next_index = skipRemoved( next_index+1 );
+          return iterated.values[ last_index ];
+        }
+
+        public void remove()
+        {
+          if (last_index < 0 || iterated.keys[last_index] == null) throw new IllegalStateException();
+          modified();
+          iterated.values[ last_index ].detachFrom( TableValue.this );
+          iterated.removeAt( last_index );
+        }
+
+        int skipRemoved( int i )
+        {
+          while (i < iterated.count && iterated.keys[i] == null) ++i;
+          return i;
+        }
+      };
+    }
+
+    public JValue keys()
+    {
+      JValue list = JValue.list();
+      String[] keys = keyArray();
+      for (int i=0, n=entryCount(); i<n; ++i)
+      {
+        if (keys[i] != null) list.add( JValue.string(keys[i]) );
+      }
+      return list;
+    }
+
+    public JValue remove( String key )
+    {
+      JValue result = find( key );
+      if (result == null) return UndefinedValue.singleton;
+      modified();
+      if (shape != null) toDictionary();
+      data.remove( key );
+      result.detachFrom( this );
+      return result;
+    }
+
+    public JValue remove( JValue value )
+    {
+      return remove( value.toString() );
+    }
+
+    public TableValue set( int key, JValue value )
+    {
+      return set( ""+key, value );
+    }
+
+    public TableValue set( String key, JValue value )
+    {
+      if (value == null) value = NullValue.singleton;
+      modified();
+      value.attachTo( this );
+      if (shape != null)
+      {
+        int index = shape.indexOf( key );
+        if (index >= 0)
+        {
+          JValue previous = values[ index ];
+          values[ index ] = value;
+          if (previous != null && previous != value) previous.detachFrom( this );
+          return this;
+        }
+
+        Shape next = shape.successor( key );
+        if (next != null)
+        {
+          index = shape.keys.length;
+          if (values == null) values = new JValue[ 4 ];
+          else if (index == values.length) values = Arrays.copyOf( values, index*2 );
+          values[ index ] = value;
+          shape = next;
+          return this;
+        }
+
+        toDictionary();
+      }
+      JValue previous = data.put( key, value );
+      if (previous != null && previous != value) previous.detachFrom( this );
+      return this;
+    }
+
+    public boolean toLogical()
+    {
+      return true;
+    }
+
+    public void write( JSONWriter writer )
+    {
+      writer.print( '{' );
+      String[] keys = keyArray();
+      JValue[] values = valueArray();
+      boolean first = true;
+      for (int i=0, n=entryCount(); i<n; ++i)
+      {
+        if (keys[i] == null) continue;
+        if (first) first = false;
+        else       writer.print( ',' );
+        StringValue.write( keys[i], writer );
+        writer.print( ':' );
+        values[i].write( writer );
+      }
+      writer.print( '}' );
+    }
+
+    void writeCBOR( CBORWriter writer )
+    {
+      writer.writeHead( 5, count() );
+      String[] keys = keyArray();
+      JValue[] values = valueArray();
+      for (int i=0, n=entryCount(); i<n; ++i)
+      {
+        if (keys[i] == null) continue;
+        writer.writeString( keys[i] );
+        values[i].writeCBOR( writer );
+      }
+    }
+
+    // Entries are walked as parallel arrays of keys and values in insertion
+    // order over [0,entryCount()). A null key marks a removed entry.
+    int entryCount()
+    {
+      return (shape != null) ? shape.keys.length : data.count;
+    }
+
+    // Returns the value for 'key', or null if there is none.
+    JValue find( String key )
+    {
+      if (shape != null)
+      {
+        int index = shape.indexOf( key );
+        return (index >= 0) ? values[index] : null;
+      }
+      return data.get( key );
+    }
+
+    String[] keyArray()
+    {
+      return (shape != null) ? shape.keys : data.keys;
+    }
+
+    JValue[] valueArray()
+    {
+      return (shape != null) ? values : data.values;
+    }
+
+    boolean hasFixedHash()
+    {
+      return false;
+    }
+
+    // See ListValue.cloneSource().
+    TableValue cloneSource()
+    {
+      TableValue result = clone_source;
+      if (result != null) return result;
+
+      result = new TableValue();
+      boolean cacheable = true;
+      int n = entryCount();
+      result.shape = shape;
+      if (values != null) result.values = values.clone();
+      if (data != null)   result.data = data.copy();
+      JValue[] copied = result.valueArray();
+      for (int i=0; i<n; ++i)
+      {
+        JValue value = copied[ i ];
+        if (value == null) continue;
+        copied[ i ] = value.cloneSource();
+        if ( !value.reportsChangesTo(this) ) cacheable = false;
+      }
+
+      if (cacheable)
+      {
+        result.clone_source = result;
+        clone_source = result;
+      }
+      return result;
+    }
+
+    boolean reportsChangesTo( JValue container )
+    {
+      return clone_source != null && (parent == container || clone_source == this);
+    }
+
+    boolean isCloneSource()
+    {
+      return clone_source == this;
+    }
+
+    // See ListValue.attachTo().
+    void attachTo( JValue container )
+    {
+      JValue previous = parent;
+      if (previous == container) return;
+      if (previous != null) previous.modified();
+      parent = container;
+    }
+
+    void detachFrom( JValue container )
+    {
+      if (parent == container) parent = null;
+    }
+
+    // See ListValue.modified().
+    void modified()
+    {
+      hash = 0;
+      if (clone_source == null) return;
+      clone_source = null;
+      if (parent != null) parent.modified();
+    }
+
+    JValue valueAt( int index )
+    {
+      return valueArray()[ index ];
+    }
+
+    // Moves the entries to a dictionary, dropping any null slots.
+    void toDictionary()
+    {
+      String[] keys = shape.keys;
+      data = new OrderedMap( keys.length+1 );
+      for (int i=0; i<keys.length; ++i)
+      {
+        if (values[i] != null) data.put( keys[i], values[i] );
+      }
+      shape = null;
+      values = null;
+    }
+  }
+
+  // Immutable key layout shared by tables whose keys were added in the same
+  // order. Each shape knows the slot of each of its keys and caches the
+  // successor shapes reached by adding one more key. Growth is bounded: a
+  // table whose next shape would exceed MAX_KEYS keys or MAX_SUCCESSORS
+  // successors of one shape becomes a dictionary. Every table starts from
+  // the empty shape, so it takes any number of first keys instead. Once
+  // MAX_SHAPES shapes have been made the cache starts over from the empty
+  // shape (see startOver()), so a long-running process that meets many key
+  // layouts keeps sharing shapes for the ones it uses now.
+  static class Shape
+  {
+    static final int MAX_KEYS          = 32;
+    static final int MAX_SUCCESSORS    = 16;
+    static final int MAX_SHAPES        = 64 * 1024;
+    static final int LINEAR_SCAN_LIMIT = 8;
+
+    static final AtomicInteger shape_count = new AtomicInteger();
+    static final Shape empty = new Shape( new String[0] );
+
+    final String[] keys;
+    final HashMap<String,Integer> slots;  // null for shapes with few keys
+    volatile ConcurrentHashMap<String,Shape> successors;
+
+    Shape( String[] keys )
+    {
+      this.keys = keys;
+      if (keys.length > LINEAR_SCAN_LIMIT)
+      {
+        slots = new HashMap<String,Integer>( keys.length*2 );
+        for (int i=0; i<keys.length; ++i) slots.put( keys[i], i );
+      }
+      else
+      {
+        slots = null;
+      }
+    }
+
+    int indexOf( String key )
+    {
+      if (slots != null)
+      {
+        Integer index = slots.get( key );
+        return (index != null) ? index : -1;
+      }
+      String[] keys = this.keys;
+      for (int i=0; i<keys.length; ++i)
+      {
+        if (keys[i].equals(key)) return i;
+      }
+      return -1;
+    }
+
+    // Returns the shape with 'key' appended, or null if that would exceed a limit.
+    Shape successor( String key )
+    {
+      ConcurrentHashMap<String,Shape> successors = this.successors;
+      if (successors != null)
+      {
+        Shape next = successors.get( key );
+        if (next != null) return next;
+      }
+      if (keys.length == MAX_KEYS) return null;
+
+      synchronized (this)
+      {
+        if (this.successors == null) this.successors = new ConcurrentHashMap<String,Shape>();
+        successors = this.successors;
+        Shape next = successors.get( key );
+        if (next != null) return next;
+        if (successors.size() == MAX_SUCCESSORS && this != empty) return null;
+
+        String[] next_keys = Arrays.copyOf( keys, keys.length+1 );
+        next_keys[ keys.length ] = key;
+        next = new Shape( next_keys );
+        successors.put( key, next );
+        if (shape_count.incrementAndGet() >= MAX_SHAPES) startOver();
+        return next;
+      }
+    }
+
+    // Drops the successors of the empty shape. Tables keep the shapes they
+    // have and go on caching successors of them; shapes that no table can
+    // reach any longer are collected, and new tables build up shapes again.
+    static void startOver()
+    {
+      shape_count.set( 0 );
+      empty.successors = null;
+    }
+  }
+
+  // Insertion-ordered map from keys to values in the style of CPython's dict:
+  // entries are appended to dense parallel arrays and found through a
+  // separate open-addressing index of entry numbers. Removing an entry leaves
+  // a hole (a null key) so that entry numbers stay put while iterating; holes
+  // are squeezed out when the arrays next fill up. Maps that have never held
+  // more than LINEAR_SCAN_LIMIT entries have no index and are scanned.
+  static class OrderedMap
+  {
+    static final int LINEAR_SCAN_LIMIT = 8;
+
+    String[] keys;
+    JValue[] values;
+    int[]    hashes;
+    int      count;   // entries including holes
+    int      size;    // live entries
+    int[]    index;   // entry number + 1 per slot, 0 if empty; null if scanned
+
+    OrderedMap( int capacity )
+    {
+      capacity = Math.max( capacity, 4 );
+      keys = new String[ capacity ];
+      values = new JValue[ capacity ];
+      hashes = new int[ capacity ];
+    }
+
+    // Returns the entry number of 'key' or -1.
+    int find( String key )
+    {
+      if (index == null)
+      {
+        for (int i=0; i<count; ++i)
+        {
+          if (key.equals(keys[i])) return i;
+        }
+        return -1;
+      }
+
+      int hash = key.hashCode();
+      int mask = index.length - 1;
+      for (int slot=mix(hash)&mask; ; slot=(slot+1)&mask)
+      {
+        int entry = index[ slot ] - 1;
+        if (entry < 0) return -1;
+        if (hashes[entry] == hash && key.equals(keys[entry])) return entry;
+      }
+    }
+
+    JValue get( String key )
+    {
+      int entry = find( key );
+      return (entry >= 0) ? values[entry] : null;
+    }
+
+    // Returns the value replaced, or null.
+    JValue put( String key, JValue value )
+    {
+      int entry = find( key );
+      if (entry >= 0)
+      {
+        JValue previous = values[ entry ];
+        values[ entry ] = value;
+        return previous;
+      }
+
+      if (count == keys.length) resize( Math.max(size*2,4) );
+      keys[ count ] = key;
+      values[ count ] = value;
+      hashes[ count ] = key.hashCode();
+      ++size;
+      if (index != null)             addToIndex( count++ );
+      else if (++count > LINEAR_SCAN_LIMIT) buildIndex();
+      return null;
+    }
+
+    // Returns a copy with the same entry numbers.
+    OrderedMap copy()
+    {
+      OrderedMap result = new OrderedMap( 0 );
+      result.keys = keys.clone();
+      result.values = values.clone();
+      result.hashes = hashes.clone();
+      result.count = count;
+      result.size = size;
+      if (index != null) result.index = index.clone();
+      return result;
+    }
+
+    JValue remove( String key )
+    {
+      int entry = find( key );
+      if (entry < 0) return null;
+      JValue result = values[ entry ];
+      removeAt( entry );
+      return result;
+    }
+
+    // The entry's index slot stays occupied so that probing passes over it.
+    void removeAt( int entry )
+    {
+      keys[ entry ] = null;
+      values[ entry ] = null;
+      --size;
+    }
+
+    void addToIndex( int entry )
+    {
+      int mask = index.length - 1;
+      int slot = mix( hashes[entry] ) & mask;
+      while (index[slot] != 0) slot = (slot + 1) & mask;
+      index[ slot ] = entry + 1;
+    }
+
+    void buildIndex()
+    {
+      // At most half full
+      index = new int[ Integer.highestOneBit(keys.length) * 4 ];
+      for (int i=0; i<count; ++i)
+      {
+        if (keys[i] != null) addToIndex( i );
+      }
+    }
+
+    // Moves the live entries, in order, to arrays of the given capacity.
+    void resize( int capacity )
+    {
+      String[] old_keys = keys;
+      JValue[] old_values = values;
+      int[]    old_hashes = hashes;
+      keys = new String[ capacity ];
+      values = new JValue[ capacity ];
+      hashes = new int[ capacity ];
+
+      int n = 0;
+      for (int i=0; i<count; ++i)
+      {
+        if (old_keys[i] == null) continue;
+        keys[ n ] = old_keys[ i ];
+        values[ n ] = old_values[ i ];
+        hashes[ n ] = old_hashes[ i ];
+        ++n;
+      }
+      count = n;
+
+      if (index != null) buildIndex();
+    }
+
+    static int mix( int hash )
+    {
+      return hash ^ (hash >>> 16);
+    }
+  }
+
+  // Containers from a lazy parse. Until first use they hold only the span of
+  // their source text; the first access parses one level, leaving any nested
+  // containers lazy in turn. Spans are checked to be strict JSON when they are
+  // skipped (see JSONReader.skipStrictContainer()), so parsing one later
+  // can't fail and an untouched container writes its source text back out
+  // without re-encoding it, less the whitespace between tokens.
+  static class LazyListValue extends ListValue
+  {
+    JSONReader reader;
+    int start;
+    int end;
+
+    LazyListValue( JSONReader reader, int start, int end )
+    {
+      this.reader = reader;
+      this.start = start;
+      this.end = end;
+    }
+
+    void materialize()
+    {
+      if (reader == null) return;
+      JSONReader reader = this.reader;
+      this.reader = null;
+      reader.position = start;
+      reader.parseList( this );
+    }
+
+    public JValue add( JValue value )
+    {
+      materialize();
+      return super.add( value );
+    }
+
+    public JValue add( double value )
+    {
+      materialize();
+      return super.add( value );
+    }
+
+    public JValue add( long value )
+    {
+      materialize();
+      return super.add( value );
+    }
+
+    public JValue apply( JValue.Processor fn )
+    {
+      materialize();
+      return super.apply( fn );
+    }
+
+    public JValue clear()
+    {
+      reader = null;
+      return super.clear();
+    }
+
+    public JValue cloned()
+    {
+      if (reader != null) return new LazyListValue( reader, start, end );
+      return super.cloned();
+    }
+
+    ListValue cloneSource()
+    {
+      materialize();
+      return super.cloneSource();
+    }
+
+    public double compareTo( JValue other )
+    {
+      materialize();
+      return super.compareTo( other );
+    }
+
+    public boolean contains( String value )
+    {
+      materialize();
+      return super.contains( value );
+    }
+
+    public boolean contains( JValue value )
+    {
+      materialize();
+      return super.contains( value );
+    }
+
+    public int count()
+    {
+      materialize();
+      return super.count();
+    }
+
+    public boolean equals( JValue other )
+    {
+      materialize();
+      return super.equals( other );
+    }
+
+    public JValue freeze()
+    {
+      materialize();
+      return super.freeze();
+    }
+
+    public JValue get( int index )
+    {
+      materialize();
+      return super.get( index );
+    }
+
+    public int hashCode()
+    {
+      materialize();
+      return super.hashCode();
+    }
+
+    public Iterator<JValue> iterator()
+    {
+      materialize();
+      return super.iterator();
+    }
+
+    public JValue remove( JValue value )
+    {
+      materialize();
+      return super.remove( value );
+    }
+
+    public JValue remove( int index )
+    {
+      materialize();
+      return super.remove( index );
+    }
+
+    public ListValue set( int index, JValue value )
+    {
+      materialize();
+      return super.set( index, value );
+    }
+
+    public double[] toDoubleArray()
+    {
+      materialize();
+      return super.toDoubleArray();
+    }
+
+    public long[] toLongArray()
+    {
+      materialize();
+      return super.toLongArray();
+    }
+
+    public void write( JSONWriter writer )
+    {
+      if (reader != null) reader.writeSpan( start, end, writer );
+      else                super.write( writer );
+    }
+
+    void writeCBOR( CBORWriter writer )
+    {
+      materialize();
+      super.writeCBOR( writer );
+    }
+  }
+
+  static class LazyTableValue extends TableValue
+  {
+    JSONReader reader;
+    int start;
+    int end;
+
+    LazyTableValue( JSONReader reader, int start, int end )
+    {
+      this.reader = reader;
+      this.start = start;
+      this.end = end;
+    }
+
+    void materialize()
+    {
+      if (reader == null) return;
+      JSONReader reader = this.reader;
+      this.reader = null;
+      reader.position = start;
+      reader.parseTable( this );
+    }
+
+    public JValue apply( JValue.Processor fn )
+    {
+      materialize();
+      return super.apply( fn );
+    }
+
+    public JValue clear()
+    {
+      reader = null;
+      return super.clear();
+    }
+
+    public JValue cloned()
+    {
+      if (reader != null) return new LazyTableValue( reader, start, end );
+      return super.cloned();
+    }
+
+    TableValue cloneSource()
+    {
+      materialize();
+      return super.cloneSource();
+    }
+
+    public double compareTo( JValue other )
+    {
+      materialize();
+      return super.compareTo( other );
+    }
+
+    public boolean contains( String key )
+    {
+      materialize();
+      return super.contains( key );
+    }
+
+    public int count()
+    {
+      materialize();
+      return super.count();
+    }
+
+    public boolean equals( JValue other )
+    {
+      materialize();
+      return super.equals( other );
+    }
+
+    public JValue freeze()
+    {
+      materialize();
+      return super.freeze();
+    }
+
+    public JValue get( String key )
+    {
+      materialize();
+      return super.get( key );
+    }
+
+    public JValue get( Key key )
+    {
+      materialize();
+      return super.get( key );
+    }
+
+    public int hashCode()
+    {
+      materialize();
+      return super.hashCode();
+    }
+
+    public Iterator<JValue> iterator()
+    {
+      materialize();
+      return super.iterator();
+    }
+
+    public JValue keys()
+    {
+      materialize();
+      return super.keys();
+    }
+
+    public JValue remove( String key )
+    {
+      materialize();
+      return super.remove( key );
+    }
+
+    public TableValue set( String key, JValue value )
+    {
+      materialize();
+      return super.set( key, value );
+    }
+
+    public void write( JSONWriter writer )
+    {
+      if (reader != null) reader.writeSpan( start, end, writer );
+      else                super.write( writer );
+    }
+
+    void writeCBOR( CBORWriter writer )
+    {
+      materialize();
+      super.writeCBOR( writer );
+    }
+  }
+
+  // A copy-on-write copy of a list's clone source; see ListValue.cloned().
+  // The source's storage is copied the first time the clone is used, with
+  // nested lists and tables still shared until they're fetched, when they
+  // become clones in turn. Like lazy values, clones change on first use and
+  // so shouldn't be shared between threads without locking.
+  static class ClonedListValue extends ListValue
+  {
+    ListValue source;
+
+    ClonedListValue( ListValue source )
+    {
+      this.source = source;
+      clone_source = source.clone_source;
+    }
+
+    void materialize()
+    {
+      if (source == null) return;
+      ListValue source = this.source;
+      this.source = null;
+      int n = source.count();
+      if (source.data != null)
+      {
+        data = new ArrayList<JValue>( Math.max(n,10) );
+        data.addAll( source.data );
+        if ( !source.isCloneSource() )
+        {
+          // A private copy; see ListValue.cloneSource()
+          for (JValue element : data) element.attachTo( this );
+        }
+      }
+      if (source.longs != null)   longs = Arrays.copyOf( source.longs, Math.max(n,10) );
+      if (source.doubles != null) doubles = Arrays.copyOf( source.doubles, Math.max(n,10) );
+      packed_count = source.packed_count;
+    }
+
+    ListValue cloneSource()
+    {
+      if (clone_source == null) materialize();
+      return super.cloneSource();
+    }
+
+    public JValue add( JValue value )
+    {
+      materialize();
+      return super.add( value );
+    }
+
+    public JValue add( double value )
+    {
+      materialize();
+      return super.add( value );
+    }
+
+    public JValue add( long value )
+    {
+      materialize();
+      return super.add( value );
+    }
+
+    public JValue apply( JValue.Processor fn )
+    {
+      materialize();
+      return super.apply( fn );
+    }
+
+    public JValue clear()
+    {
+      source = null;
+      return super.clear();
+    }
+
+    public double compareTo( JValue other )
+    {
+      materialize();
+      return super.compareTo( other );
+    }
+
+    public boolean contains( String value )
+    {
+      materialize();
+      return super.contains( value );
+    }
+
+    public boolean contains( JValue value )
+    {
+      materialize();
+      return super.contains( value );
+    }
+
+    public int count()
+    {
+      materialize();
+      return super.count();
+    }
+
+    public boolean equals( JValue other )
+    {
+      materialize();
+      return super.equals( other );
+    }
+
+    public JValue freeze()
+    {
+      materialize();
+      return super.freeze();
+    }
+
+    // Every element handed out, including through iterator(), remove() and
+    // apply(), comes through here.
+    public JValue get( int index )
+    {
+      materialize();
+      JValue element = super.get( index );
+      if ( !element.isCloneSource() ) return element;
+      element = element.cloned();
+      element.attachTo( this );
+      data.set( index, element );
+      return element;
+    }
+
+    public int hashCode()
+    {
+      materialize();
+      return super.hashCode();
+    }
+
+    public Iterator<JValue> iterator()
+    {
+      materialize();
+      return super.iterator();
+    }
+
+    public JValue remove( JValue value )
+    {
+      materialize();
+      return super.remove( value );
+    }
+
+    public JValue remove( int index )
+    {
+      materialize();
+      return super.remove( index );
+    }
+
+    public ListValue set( int index, JValue value )
+    {
+      materialize();
+      return super.set( index, value );
+    }
+
+    public double[] toDoubleArray()
+    {
+      materialize();
+      return super.toDoubleArray();
+    }
+
+    public long[] toLongArray()
+    {
+      materialize();
+      return super.toLongArray();
+    }
+
+    public void write( JSONWriter writer )
+    {
+      if (source != null) source.write( writer );
+      else                super.write( writer );
+    }
+
+    void writeCBOR( CBORWriter writer )
+    {
+      if (source != null) source.writeCBOR( writer );
+      else                super.writeCBOR( writer );
+    }
+  }
+
+  // A copy-on-write copy of a table's clone source; see ClonedListValue.
+  static class ClonedTableValue extends TableValue
+  {
+    TableValue source;
+
+    ClonedTableValue( TableValue source )
+    {
+      this.source = source;
+      clone_source = source.clone_source;
+    }
+
+    void materialize()
+    {
+      if (source == null) return;
+      TableValue source = this.source;
+      this.source = null;
+      shape = source.shape;
+      if (source.values != null) values = source.values.clone();
+      if (source.data != null)   data = source.data.copy();
+      if ( !source.isCloneSource() )
+      {
+        // A private copy; see ListValue.cloneSource()
+        JValue[] copied = valueArray();
+        for (int i=0, n=entryCount(); i<n; ++i)
+        {
+          if (copied[i] != null) copied[i].attachTo( this );
+        }
+      }
+    }
+
+    TableValue cloneSource()
+    {
+      if (clone_source == null) materialize();
+      return super.cloneSource();
+    }
+
+    public JValue apply( JValue.Processor fn )
+    {
+      materialize();
+      return super.apply( fn );
+    }
+
+    public JValue clear()
+    {
+      source = null;
+      return super.clear();
+    }
+
+    public double compareTo( JValue other )
+    {
+      materialize();
+      return super.compareTo( other );
+    }
+
+    public boolean contains( String key )
+    {
+      materialize();
+      return super.contains( key );
+    }
+
+    public int count()
+    {
+      materialize();
+      return super.count();
+    }
+
+    public boolean equals( JValue other )
+    {
+      materialize();
+      return super.equals( other );
+    }
+
+    public JValue freeze()
+    {
+      materialize();
+      return super.freeze();
+    }
+
+    public JValue get( String key )
+    {
+      materialize();
+      return super.get( key );
+    }
+
+    public JValue get( Key key )
+    {
+      materialize();
+      return super.get( key );
+    }
+
+    public int hashCode()
+    {
+      materialize();
+      return super.hashCode();
+    }
+
+    public Iterator<JValue> iterator()
+    {
+      materialize();
+      if (data != null)
+      {
+        // The dictionary iterator hands out values directly
+        for (int i=0, n=entryCount(); i<n; ++i)
+        {
+          if (data.keys[i] != null) valueAt( i );
+        }
+      }
+      return super.iterator();
+    }
+
+    public JValue keys()
+    {
+      materialize();
+      return super.keys();
+    }
+
+    public JValue remove( String key )
+    {
+      materialize();
+      get( key );
+      return super.remove( key );
+    }
+
+    public TableValue set( String key, JValue value )
+    {
+      materialize();
+      return super.set( key, value );
+    }
+
+    public void write( JSONWriter writer )
+    {
+      if (source != null) source.write( writer );
+      else                super.write( writer );
+    }
+
+    void writeCBOR( CBORWriter writer )
+    {
+      if (source != null) source.writeCBOR( writer );
+      else                super.writeCBOR( writer );
+    }
+
+    // See ClonedListValue.get().
+    JValue valueAt( int index )
+    {
+      JValue value = super.valueAt( index );
+      if (value == null || !value.isCloneSource()) return value;
+      value = value.cloned();
+      value.attachTo( this );
+      valueArray()[ index ] = value;
+      return value;
+    }
+  }
+
+  // Persistent (immutable) list. add(), set(), remove() and clear() return a
+  // new version that shares all unchanged structure with this one, so a
+  // version can be read from any number of threads without locking. Elements
+  // are always frozen; see freeze().
+  static class ImmutableListValue extends JValue
+  {
+    static final ImmutableListValue empty = new ImmutableListValue( PersistentVector.empty );
+
+    final PersistentVector elements;
+    int hash;  // 0 until computed
+
+    ImmutableListValue( PersistentVector elements )
+    {
+      this.elements = elements;
+    }
+
+    public JValue add( JValue value )
+    {
+      if (value == null) value = NullValue.singleton;
+      return new ImmutableListValue( elements.add(value.freeze()) );
+    }
+
+    public JValue apply( JValue.Processor fn )
+    {
+      PersistentVector result = PersistentVector.empty;
+      for (int i=0; i<elements.count; ++i)
+      {
+        JValue processed_element = get(i).apply( fn );
+        if (processed_element != null && !processed_element.isUndefined())
+        {
+          result = result.add( processed_element.freeze() );
+        }
+      }
+      JValue processed = fn.process( new ImmutableListValue(result) );
+      if (processed == null) return JValue.nullValue();
+      return processed;
+    }
+
+    public JValue clear()
+    {
+      return empty;
+    }
+
+    public double compareTo( JValue other )
+    {
+      if (this == other) return 0;
+      if ( !other.isList() ) return super.compareTo( other );
+      if (this.count() != other.count()) return other.count() - this.count();
+
+      for (int i=0; i<elements.count; ++i)
+      {
+        double result = this.get(i).compareTo( other.get(i) );
+        if (result != 0) return result;
+      }
+      return 0;
+    }
+
+    public boolean contains( String value )
+    {
+      for (int i=0; i<elements.count; ++i)
+      {
+        JValue v = get( i );
+        if (v.isString() && v.toString().equals(value)) return true;
+      }
+      return false;
+    }
+
+    public boolean contains( JValue value )
+    {
+      return indexOf( value ) >= 0;
+    }
+
+    public int count()
+    {
+      return elements.count;
+    }
+
+    public JValue ensureList( String name )
+    {
+      return JValue.immutableList();
+    }
+
+    public JValue ensureTable( String name )
+    {
+      return JValue.immutableTable();
+    }
+
+    public boolean equals( JValue other )
+    {
+      if (other == this) return true;
+      if (other == null || !other.isList()) return false;
+      if (count() != other.count()) return false;
+
+      for (int i=0; i<elements.count; ++i)
+      {
+        if ( !get(i).equals(other.get(i)) ) return false;
+      }
+      return true;
+    }
+
+    public JValue freeze()
+    {
+      return this;
+    }
+
+    public JValue get( String key )
+    {
+      try
+      {
+        return get( Integer.parseInt(key) );
+      }
+      catch (NumberFormatException ignore)
+      {
+        return UndefinedValue.singleton;
+      }
+    }
+
+    public JValue get( int index )
+    {
+      if (index < 0 || index >= elements.count) return UndefinedValue.singleton;
+      return (JValue) elements.get( index );
+    }
+
+    public int hashCode()
+    {
+      int result = hash;
+      if (result == 0)
+      {
+        result = 1;
+        for (int i=0; i<elements.count; ++i) result = 31*result + get(i).hashCode();
+        hash = result;
+      }
+      return result;
+    }
+
+    public boolean isList()
+    {
+      return true;
+    }
+
+    public Iterator<JValue> iterator()
+    {
+      return new Iterator<JValue>()
+      {
+        int next_index;
+
+        public boolean hasNext()
+        {
+          return next_index < elements.count;
+        }
+
+        public JValue next()
+        {
+          if (next_index >= elements.count) throw new NoSuchElementException();
+          return get( next_index++ );
+        }
+
+        public void remove()
+        {
+          throw new UnsupportedOperationException();
+        }
+      };
+    }
+
+    public JValue keys()
+    {
+      JValue result = JValue.list();
+      for (int i=0; i<elements.count; ++i) result.add( i );
+      return result;
+    }
+
+    public JValue remove( String key )
+    {
+      return remove( JValue.string(key) );
+    }
+
+    public JValue remove( JValue value )
+    {
+      int index = indexOf( value );
+      if (index < 0) return this;
+      return remove( index );
+    }
+
+    public JValue remove( int index )
+    {
+      if (index < 0 || index >= elements.count) return this;
+      return new ImmutableListValue( elements.remove(index) );
+    }
+
+    public JValue set( int index, JValue value )
+    {
+      if (index < 0 || index >= elements.count) return this;
+      if (value == null) value = NullValue.singleton;
+      return new ImmutableListValue( elements.set(index,value.freeze()) );
+    }
+
+    public JValue set( String index, JValue value )
+    {
+      try
+      {
+        return set( Integer.parseInt(index), value );
+      }
+      catch (NumberFormatException ignore)
+      {
+        return this;
+      }
+    }
+
+    public double[] toDoubleArray()
+    {
+      double[] result = new double[ elements.count ];
+      for (int i=0; i<result.length; ++i) result[i] = get(i).toDouble();
+      return result;
+    }
+
+    public long[] toLongArray()
+    {
+      long[] result = new long[ elements.count ];
+      for (int i=0; i<result.length; ++i) result[i] = get(i).toLong();
+      return result;
+    }
+
+    public boolean toLogical()
+    {
+      return true;
+    }
+
+    public void write( JSONWriter writer )
+    {
+      writer.print( '[' );
+      for (int i=0; i<elements.count; ++i)
+      {
+        if (i > 0) writer.print( ',' );
+        get( i ).write( writer );
+      }
+      writer.print( ']' );
+    }
+
+    int indexOf( JValue value )
+    {
+      for (int i=0; i<elements.count; ++i)
+      {
+        if (get(i).equals(value)) return i;
+      }
+      return -1;
+    }
+  }
+
+  // Persistent (immutable) table; see ImmutableListValue. Entries are kept in
+  // insertion order in a PersistentVector, with a HashTrie mapping each key
+  // to its entry's position. A removed key leaves a null entry behind.
+  static class ImmutableTableValue extends JValue
+  {
+    static final ImmutableTableValue empty = new ImmutableTableValue( HashTrie.empty, PersistentVector.empty, 0 );
+
+    final HashTrie         positions;
+    final PersistentVector entries;
+    final int              size;
+    int hash;  // 0 until computed
+
+    ImmutableTableValue( HashTrie positions, PersistentVector entries, int size )
+    {
+      this.positions = positions;
+      this.entries = entries;
+      this.size = size;
+    }
+
+    public JValue apply( JValue.Processor fn )
+    {
+      ImmutableTableValue result = empty;
+      for (int i=0; i<entries.count; ++i)
+      {
+        Entry entry = (Entry) entries.get( i );
+        if (entry == null) continue;
+        JValue new_value = entry.value.apply( fn );
+        if (new_value != null && !new_value.isUndefined()) result = result.set( entry.key, new_value );
+      }
+      JValue processed = fn.process( result );
+      if (processed == null) return JValue.nullValue();
+      return processed;
+    }
+
+    public JValue clear()
+    {
+      return empty;
+    }
+
+    public double compareTo( JValue other )
+    {
+      if (this == other) return 0;
+      if ( !other.isTable() ) return super.compareTo( other );
+      if (this.count() != other.count()) return other.count() - this.count();
+
+      // Compare entries in order; tables that differ only in key order are equal
+      Iterator<JValue> other_keys = other.keys().iterator();
+      for (int i=0; i<entries.count; ++i)
+      {
+        Entry entry = (Entry) entries.get( i );
+        if (entry == null) continue;
+        String other_key = other_keys.next().toString();
+        if ( !entry.key.equals(other_key) )
+        {
+          return equals( other ) ? 0 : entry.key.compareTo( other_key );
+        }
+        double result = entry.value.compareTo( other.get(other_key) );
+        if (result != 0) return result;
+      }
+      return 0;
+    }
+
+    public boolean contains( String key )
+    {
+      return positions.get( key, key.hashCode(), 0 ) != null;
+    }
+
+    public int count()
+    {
+      return size;
+    }
+
+    public JValue ensureList( String name )
+    {
+      JValue result = get( name );
+      if (result.isList()) return result;
+      return JValue.immutableList();
+    }
+
+    public JValue ensureTable( String name )
+    {
+      JValue result = get( name );
+      if (result.isTable()) return result;
+      return JValue.immutableTable();
+    }
+
+    public boolean equals( JValue other )
+    {
+      if (other == this) return true;
+      if (other == null || !other.isTable()) return false;
+      if (count() != other.count()) return false;
+
+      for (int i=0; i<entries.count; ++i)
+      {
+        Entry entry = (Entry) entries.get( i );
+        if (entry == null) continue;
+        if ( !other.contains(entry.key) || !entry.value.equals(other.get(entry.key)) ) return false;
+      }
+      return true;
+    }
+
+    public JValue freeze()
+    {
+      return this;
+    }
+
+    public JValue get( String key )
+    {
+      Integer position = (Integer) positions.get( key, key.hashCode(), 0 );
+      if (position == null) return UndefinedValue.singleton;
+      return ((Entry) entries.get(position)).value;
+    }
+
+    public JValue get( int index )
+    {
+      return get( ""+index );
+    }
+
+    // Independent of key order, like equals().
+    public int hashCode()
+    {
+      int result = hash;
+      if (result == 0)
+      {
+        for (int i=0; i<entries.count; ++i)
+        {
+          Entry entry = (Entry) entries.get( i );
+          if (entry != null) result += entry.key.hashCode() ^ entry.value.hashCode();
+        }
+        hash = result;
+      }
+      return result;
+    }
+
+    public boolean isTable()
+    {
+      return true;
+    }
+
+    public Iterator<JValue> iterator()
+    {
+      return new Iterator<JValue>()
+      {
+        int next_index = skipRemoved( 0 );
+
+        public boolean hasNext()
+        {
+          return next_index < entries.count;
+        }
+
+        public JValue next()
+        {
+          if (next_index >= entries.count) throw new NoSuchElementException();
+          JValue result = ((Entry) entries.get(next_index)).value;
+          next_index = skipRemoved( next_index+1 );
+          return result;
+        }
+
+        public void remove()
+        {
+          throw new UnsupportedOperationException();
+        }
+
+        int skipRemoved( int i )
+        {
+          while (i < entries.count && entries.get(i) == null) ++i;
+          return i;
+        }
+      };
+    }
+
+    public JValue keys()
+    {
+      JValue list = JValue.list();
+      for (int i=0; i<entries.count; ++i)
+      {
+        Entry entry = (Entry) entries.get( i );
+        if (entry != null) list.add( JValue.string(entry.key) );
+      }
+      return list;
+    }
+
+    public JValue remove( String key )
+    {
+      int hash = key.hashCode();
+      Integer position = (Integer) positions.get( key, hash, 0 );
+      if (position == null) return this;
+      if (size == 1) return empty;
+
+      PersistentVector new_entries = entries.set( position, null );
+      if (size*2 < entries.count)
+      {
+        // Mostly removed entries; rebuild compactly
+        ImmutableTableValue result = empty;
+        for (int i=0; i<new_entries.count; ++i)
+        {
+          Entry entry = (Entry) new_entries.get( i );
+          if (entry != null) result = result.set( entry.key, entry.value );
+        }
+        return result;
+      }
+      return new ImmutableTableValue( positions.remove(key,hash,0), new_entries, size-1 );
+    }
+
+    public JValue remove( JValue value )
+    {
+      return remove( value.toString() );
+    }
+
+    public JValue set( int key, JValue value )
+    {
+      return set( ""+key, value );
+    }
+
+    public ImmutableTableValue set( String key, JValue value )
+    {
+      if (value == null) value = NullValue.singleton;
+      value = value.freeze();
+
+      int hash = key.hashCode();
+      Integer position = (Integer) positions.get( key, hash, 0 );
+      if (position != null)
+      {
+        if (((Entry) entries.get(position)).value == value) return this;
+        return new ImmutableTableValue( positions, entries.set(position,new Entry(key,value)), size );
+      }
+      return new ImmutableTableValue(
+          positions.put( key, hash, 0, entries.count ),
+          entries.add( new Entry(key,value) ),
+          size + 1
+      );
+    }
+
+    public boolean toLogical()
+    {
+      return true;
+    }
+
+    public void write( JSONWriter writer )
+    {
+      writer.print( '{' );
+      boolean first = true;
+      for (int i=0; i<entries.count; ++i)
+      {
+        Entry entry = (Entry) entries.get( i );
+        if (entry == null) continue;
+        if (first) first = false;
+        else       writer.print( ',' );
+        StringValue.write( entry.key, writer );
+        writer.print( ':' );
+        entry.value.write( writer );
+      }
+      writer.print( '}' );
+    }
+
+    static class Entry
+    {
+      final String key;
+      final JValue value;
+
+      Entry( String key, JValue value )
+      {
+        this.key = key;
+        this.value = value;
+      }
+    }
+  }
+
+  // Persistent vector: a 32-way trie of Object[] nodes plus a separate tail of
+  // up to 32 elements, as in Clojure. get() and set() are O(log32 n); add()
+  // is amortized O(1). remove() rebuilds the trie and is O(n).
+  static class PersistentVector
+  {
+    static final Object[] EMPTY_NODE = new Object[ 32 ];
+    static final PersistentVector empty = new PersistentVector( 0, 5, EMPTY_NODE, new Object[0] );
+
+    final int      count;
+    final int      shift;
+    final Object[] root;
+    final Object[] tail;
+
+    PersistentVector( int count, int shift, Object[] root, Object[] tail )
+    {
+      this.count = count;
+      this.shift = shift;
+      this.root = root;
+      this.tail = tail;
+    }
+
+    PersistentVector add( Object value )
+    {
+      if (count - tailOffset() < 32)
+      {
+        Object[] new_tail = Arrays.copyOf( tail, tail.length+1 );
+        new_tail[ tail.length ] = value;
+        return new PersistentVector( count+1, shift, root, new_tail );
+      }
+
+      // Push the full tail into the trie
+      Object[] new_root;
+      int new_shift = shift;
+      if ((count >>> 5) > (1 << shift))
+      {
+        new_root = new Object[ 32 ];
+        new_root[ 0 ] = root;
+        new_root[ 1 ] = newPath( shift, tail );
+        new_shift += 5;
+      }
+      else
+      {
+        new_root = pushTail( shift, root, tail );
+      }
+      return new PersistentVector( count+1, new_shift, new_root, new Object[]{ value } );
+    }
+
+    Object get( int index )
+    {
+      if (index >= tailOffset()) return tail[ index & 31 ];
+      Object[] node = root;
+      for (int level=shift; level>0; level-=5) node = (Object[]) node[ (index >>> level) & 31 ];
+      return node[ index & 31 ];
+    }
+
+    PersistentVector remove( int index )
+    {
+      PersistentVector result = empty;
+      for (int i=0; i<count; ++i)
+      {
+        if (i != index) result = result.add( get(i) );
+      }
+      return result;
+    }
+
+    PersistentVector set( int index, Object value )
+    {
+      if (index >= tailOffset())
+      {
+        Object[] new_tail = tail.clone();
+        new_tail[ index & 31 ] = value;
+        return new PersistentVector( count, shift, root, new_tail );
+      }
+      return new PersistentVector( count, shift, set(shift,root,index,value), tail );
+    }
+
+    static Object[] set( int level, Object[] node, int index, Object value )
+    {
+      Object[] result = node.clone();
+      if (level == 0)
+      {
+        result[ index & 31 ] = value;
+      }
+      else
+      {
+        int child = (index >>> level) & 31;
+        result[ child ] = set( level-5, (Object[]) node[child], index, value );
+      }
+      return result;
+    }
+
+    Object[] pushTail( int level, Object[] parent, Object[] tail_node )
+    {
+      int child = ((count - 1) >>> level) & 31;
+      Object[] result = parent.clone();
+      if (level == 5)
+      {
+        result[ child ] = tail_node;
+      }
+      else
+      {
+        Object[] existing = (Object[]) parent[ child ];
+        result[ child ] = (existing != null) ? pushTail( level-5, existing, tail_node ) : newPath( level-5, tail_node );
+      }
+      return result;
+    }
+
+    static Object[] newPath( int level, Object[] node )
+    {
+      if (level == 0) return node;
+      Object[] result = new Object[ 32 ];
+      result[ 0 ] = newPath( level-5, node );
+      return result;
+    }
+
+    int tailOffset()
+    {
+      return (count < 32) ? 0 : ((count - 1) >>> 5) << 5;
+    }
+  }
+
+  // Persistent hash array mapped trie from String keys to values. Each node
+  // holds a bitmap of occupied 5-bit hash digits and a compact array of
+  // key/value pairs, where a null key marks a child node in the value
+  // position. Keys whose hashes agree in all 32 bits share a collision node
+  // (shift >= 32) that is searched linearly.
+  static class HashTrie
+  {
+    static final HashTrie empty = new HashTrie( 0, new Object[0] );
+
+    final int      bitmap;
+    final Object[] array;
+
+    HashTrie( int bitmap, Object[] array )
+    {
+      this.bitmap = bitmap;
+      this.array = array;
+    }
+
+    Object get( String key, int hash, int shift )
+    {
+      HashTrie node = this;
+      for (;;)
+      {
+        Object[] array = node.array;
+        if (shift >= 32)
+        {
+          for (int i=0; i<array.length; i+=2)
+          {
+            if (key.equals(array[i])) return array[i+1];
+          }
+          return null;
+        }
+
+        int bit = 1 << ((hash >>> shift) & 31);
+        if ((node.bitmap & bit) == 0) return null;
+        int i = 2 * Integer.bitCount( node.bitmap & (bit-1) );
+        if (array[i] != null) return key.equals(array[i]) ? array[i+1] : null;
+        node = (HashTrie) array[ i+1 ];
+        shift += 5;
+      }
+    }
+
+    HashTrie put( String key, int hash, int shift, Object value )
+    {
+      if (shift >= 32)
+      {
+        for (int i=0; i<array.length; i+=2)
+        {
+          if (key.equals(array[i])) return new HashTrie( 0, replace(i+1,value) );
+        }
+        Object[] new_array = Arrays.copyOf( array, array.length+2 );
+        new_array[ array.length ] = key;
+        new_array[ array.length+1 ] = value;
+        return new HashTrie( 0, new_array );
+      }
+
+      int bit = 1 << ((hash >>> shift) & 31);
+      int i = 2 * Integer.bitCount( bitmap & (bit-1) );
+      if ((bitmap & bit) == 0)
+      {
+        Object[] new_array = new Object[ array.length+2 ];
+        System.arraycopy( array, 0, new_array, 0, i );
+        new_array[ i ] = key;
+        new_array[ i+1 ] = value;
+        System.arraycopy( array, i, new_array, i+2, array.length-i );
+        return new HashTrie( bitmap | bit, new_array );
+      }
+
+      Object existing_key = array[ i ];
+      if (existing_key == null)
+      {
+        HashTrie child = (HashTrie) array[ i+1 ];
+        return new HashTrie( bitmap, replace(i+1,child.put(key,hash,shift+5,value)) );
+      }
+      if (key.equals(existing_key)) return new HashTrie( bitmap, replace(i+1,value) );
+
+      // Two keys share this digit; push both down into a new child
+      String other = (String) existing_key;
+      HashTrie child = empty.put( other, other.hashCode(), shift+5, array[i+1] ).put( key, hash, shift+5, value );
+      Object[] new_array = replace( i+1, child );
+      new_array[ i ] = null;
+      return new HashTrie( bitmap, new_array );
+    }
+
+    HashTrie remove( String key, int hash, int shift )
+    {
+      if (shift >= 32)
+      {
+        for (int i=0; i<array.length; i+=2)
+        {
+          if (key.equals(array[i])) return new HashTrie( 0, without(i) );
+        }
+        return this;
+      }
+
+      int bit = 1 << ((hash >>> shift) & 31);
+      if ((bitmap & bit) == 0) return this;
+      int i = 2 * Integer.bitCount( bitmap & (bit-1) );
+
+      Object existing_key = array[ i ];
+      if (existing_key == null)
+      {
+        HashTrie child = (HashTrie) array[ i+1 ];
+        HashTrie new_child = child.remove( key, hash, shift+5 );
+        if (new_child == child) return this;
+        if (new_child.array.length == 0) return new HashTrie( bitmap & ~bit, without(i) );
+        if (new_child.array.length == 2 && new_child.array[0] != null)
+        {
+          // Pull a lone remaining pair back up into this node
+          Object[] new_array = replace( i+1, new_child.array[1] );
+          new_array[ i ] = new_child.array[ 0 ];
+          return new HashTrie( bitmap, new_array );
+        }
+        return new HashTrie( bitmap, replace(i+1,new_child) );
+      }
+      if ( !key.equals(existing_key) ) return this;
+      return new HashTrie( bitmap & ~bit, without(i) );
+    }
+
+    Object[] replace( int i, Object value )
+    {
+      Object[] result = array.clone();
+      result[ i ] = value;
+      return result;
+    }
+
+    // Returns the array without the pair starting at 'i'.
+    Object[] without( int i )
+    {
+      Object[] result = new Object[ array.length-2 ];
+      System.arraycopy( array, 0, result, 0, i );
+      System.arraycopy( array, i+2, result, i, array.length-(i+2) );
+      return result;
+    }
+  }
+
+  // Table for state shared between threads; see concurrentTable(). Reads are
+  // lock-free ConcurrentHashMap lookups and each write is a compare-and-set of
+  // one entry's value, so no operation takes a lock. Entries are also queued
+  // in insertion order for iteration and write(), which skip removed entries
+  // and are weakly consistent: they never fail, but may or may not reflect
+  // changes made while they run. A key that is removed and set again moves to
+  // the end. Values are not made thread-safe by being stored here, except
+  // that ensureTable() creates concurrent tables.
+  static class ConcurrentTableValue extends JValue
+  {
+    final ConcurrentHashMap<String,Entry> entries = new ConcurrentHashMap<String,Entry>();
+    final ConcurrentLinkedQueue<Entry>    order   = new ConcurrentLinkedQueue<Entry>();
+    final AtomicInteger removed_count = new AtomicInteger();  // removed entries still queued
+
+    public JValue apply( JValue.Processor fn )
+    {
+      for (Entry entry : order)
+      {
+        JValue value = entry.value;
+        if (value == null) continue;
+        JValue new_value = value.apply( fn );
+        if (new_value == null || new_value.isUndefined()) new_value = null;
+        if (new_value != value) replace( entry.key, value, new_value );
+      }
+      return super.apply( fn );
+    }
+
+    public JValue clear()
+    {
+      for (String key : entries.keySet()) remove( key );
+      return this;
+    }
+
+    // Returns a concurrent table holding cloned() copies of the values.
+    public JValue cloned()
+    {
+      ConcurrentTableValue result = new ConcurrentTableValue();
+      for (Entry entry : order)
+      {
+        JValue value = entry.value;
+        if (value != null) result.set( entry.key, value.cloned() );
+      }
+      return result;
+    }
+
+    public double compareTo( JValue other )
+    {
+      if (this == other) return 0;
+      if ( !other.isTable() ) return super.compareTo( other );
+      if (this.count() != other.count()) return other.count() - this.count();
+
+      // Compare entries in order; tables that differ only in key order are equal
+      Iterator<JValue> other_keys = other.keys().iterator();
+      for (Entry entry : order)
+      {
+        JValue value = entry.value;
+        if (value == null) continue;
+        if ( !other_keys.hasNext() ) return -1;
+        String other_key = other_keys.next().toString();
+        if ( !entry.key.equals(other_key) )
+        {
+          return equals( other ) ? 0 : entry.key.compareTo( other_key );
+        }
+        double result = value.compareTo( other.get(other_key) );
+        if (result != 0) return result;
+      }
+      return 0;
+    }
+
+    public boolean contains( String key )
+    {
+      return find( key ) != null;
+    }
+
+    public int count()
+    {
+      return entries.size();
+    }
+
+    // Atomic: concurrent callers all receive the same list.
+    public JValue ensureList( String name )
+    {
+      for (;;)
+      {
+        JValue current = find( name );
+        if (current != null && current.isList()) return current;
+        JValue result = JValue.list();
+        if (replace(name,current,result)) return result;
+      }
+    }
+
+    // Atomic like ensureList(). A table created here is itself concurrent.
+    public JValue ensureTable( String name )
+    {
+      for (;;)
+      {
+        JValue current = find( name );
+        if (current != null && current.isTable()) return current;
+        JValue result = JValue.concurrentTable();
+        if (replace(name,current,result)) return result;
+      }
+    }
+
+    public boolean equals( JValue other )
+    {
+      if (other == this) return true;
+      if (other == null || !other.isTable()) return false;
+      if (count() != other.count()) return false;
+
+      for (Entry entry : order)
+      {
+        JValue value = entry.value;
+        if (value == null) continue;
+        if ( !other.contains(entry.key) || !value.equals(other.get(entry.key)) ) return false;
+      }
+      return true;
+    }
+
+    public JValue freeze()
+    {
+      ImmutableTableValue result = ImmutableTableValue.empty;
+      for (Entry entry : order)
+      {
+        JValue value = entry.value;
+        if (value != null) result = result.set( entry.key, value );
+      }
+      return result;
+    }
+
+    public JValue get( String key )
+    {
+      JValue result = find( key );
+      if (result != null) return result;
+      else                return UndefinedValue.singleton;
+    }
+
+    public JValue get( int index )
+    {
+      return get( ""+index );
+    }
+
+    // Independent of key order, like equals(). Not cached.
+    public int hashCode()
+    {
+      int result = 0;
+      for (Entry entry : order)
+      {
+        JValue value = entry.value;
+        if (value != null) result += entry.key.hashCode() ^ value.hashCode();
+      }
+      return result;
+    }
+
+    public boolean isTable()
+    {
+      return true;
+    }
+
+    public Iterator<JValue> iterator()
+    {
+      final Iterator<Entry> iterated = order.iterator();
+      return new Iterator<JValue>()
+      {
+        JValue next_value;
+        Entry  next_entry = skipRemoved();
+        Entry  last_entry;
+
+        public boolean hasNext()
+        {
+          return next_entry != null;
+        }
+
+        public JValue next()
+        {
+          if (next_entry == null) throw new NoSuchElementException();
+          last_entry = next_entry;
+          JValue result = next_value;
+          next_entry = skipRemoved();
+          return result;
+        }
+
+        public void remove()
+        {
+          if (last_entry == null) throw new IllegalStateException();
+          ConcurrentTableValue.this.remove( last_entry.key );
+          last_entry = null;
+        }
+
+        Entry skipRemoved()
+        {
+          while (iterated.hasNext())
+          {
+            Entry entry = iterated.next();
+            JValue value = entry.value;
+            if (value != null)
+            {
+              next_value = value;
+              return entry;
+            }
+          }
+          return null;
+        }
+      };
+    }
+
+    public JValue keys()
+    {
+      JValue list = JValue.list();
+      for (Entry entry : order)
+      {
+        if (entry.value != null) list.add( JValue.string(entry.key) );
+      }
+      return list;
+    }
+
+    public JValue remove( String key )
+    {
+      for (;;)
+      {
+        JValue current = find( key );
+        if (current == null) return UndefinedValue.singleton;
+        if (replace(key,current,null)) return current;
+      }
+    }
+
+    public JValue remove( JValue value )
+    {
+      return remove( value.toString() );
+    }
+
+    public JValue set( int key, JValue value )
+    {
+      return set( ""+key, value );
+    }
+
+    public JValue set( String key, JValue value )
+    {
+      if (value == null) value = NullValue.singleton;
+      while ( !replace(key,find(key),value) ) {}
+      return this;
+    }
+
+    public boolean toLogical()
+    {
+      return true;
+    }
+
+    public void write( JSONWriter writer )
+    {
+      writer.print( '{' );
+      boolean first = true;
+      for (Entry entry : order)
+      {
+        JValue value = entry.value;
+        if (value == null) continue;
+        if (first) first = false;
+        else       writer.print( ',' );
+        StringValue.write( entry.key, writer );
+        writer.print( ':' );
+        value.write( writer );
+      }
+      writer.print( '}' );
+    }
+
+    // Returns the value for 'key', or null if there is none.
+    JValue find( String key )
+    {
+      Entry entry = entries.get( key );
+      return (entry != null) ? entry.value : null;
+    }
+
+    boolean hasFixedHash()
+    {
+      return false;
+    }
+
+    // Atomically changes the value for 'key' from 'expected' to 'value', where
+    // null stands for no entry. Returns false if the value was not 'expected'.
+    boolean replace( String key, JValue expected, JValue value )
+    {
+      Entry entry = entries.get( key );
+      JValue current = (entry != null) ? entry.value : null;
+      if (current != expected) return false;
+
+      if (current != null)
+      {
+        if ( !Entry.value_updater.compareAndSet(entry,current,value) ) return false;
+        if (value == null)
+        {
+          entries.remove( key, entry );
+          if (removed_count.incrementAndGet() > entries.size()) purge();
+        }
+      }
+      else if (value != null)
+      {
+        // No entry, or a removed one that is still mapped
+        Entry new_entry = new Entry( key, value );
+        if (entry != null)
+        {
+          if ( !entries.replace(key,entry,new_entry) ) return false;
+        }
+        else if (entries.putIfAbsent(key,new_entry) != null)
+        {
+          return false;
+        }
+        order.add( new_entry );
+      }
+
+      return true;
+    }
+
+    // Drops removed entries from the insertion-order queue.
+    void purge()
+    {
+      removed_count.set( 0 );
+      for (Iterator<Entry> it=order.iterator(); it.hasNext(); )
+      {
+        if (it.next().value == null) it.remove();
+      }
+    }
+
+    static class Entry
+    {
+      static final AtomicReferenceFieldUpdater<Entry,JValue> value_updater =
+          AtomicReferenceFieldUpdater.newUpdater( Entry.class, JValue.class, "value" );
+
+      final String key;
+      volatile JValue value;  // null once removed
+
+      Entry( String key, JValue value )
+      {
+        this.key = key;
+        this.value = value;
+      }
+    }
+  }
+
+  // Read-only views of the lists and tables in a snapshot; see
+  // openSnapshot(). A view holds only the file position of its node and
+  // decodes an element each time it is read. Mutators have no effect. A
+  // snapshot never changes, so views may be read from any number of threads.
+  static class SnapshotListValue extends JValue
+  {
+    final Snapshot snapshot;
+    final long     slots;  // position of the first element's slot
+    final int      count;
+    int hash;  // 0 until computed
+
+    SnapshotListValue( Snapshot snapshot, long offset )
+    {
+      this.snapshot = snapshot;
+      this.count = snapshot.getInt( offset+1 );
+      this.slots = offset + 5;
+    }
+
+    public JValue apply( JValue.Processor fn )
+    {
+      JValue result = JValue.list();
+      for (int i=0; i<count; ++i)
+      {
+        JValue processed_element = get(i).apply( fn );
+        if (processed_element != null && !processed_element.isUndefined())
+        {
+          result.add( processed_element );
+        }
+      }
+      JValue processed = fn.process( result );
+      if (processed == null) return JValue.nullValue();
+      return processed;
+    }
+
+    public double compareTo( JValue other )
+    {
+      if (this == other) return 0;
+      if ( !other.isList() ) return super.compareTo( other );
+      if (this.count() != other.count()) return other.count() - this.count();
+
+      for (int i=0; i<count; ++i)
+      {
+        double result = this.get(i).compareTo( other.get(i) );
+        if (result != 0) return result;
+      }
+      return 0;
+    }
+
+    public boolean contains( String value )
+    {
+      for (int i=0; i<count; ++i)
+      {
+        JValue v = get( i );
+        if (v.isString() && v.toString().equals(value)) return true;
+      }
+      return false;
+    }
+
+    public boolean contains( JValue value )
+    {
+      return indexOf( value ) >= 0;
+    }
+
+    public int count()
+    {
+      return count;
+    }
+
+    public boolean equals( JValue other )
+    {
+      if (other == this) return true;
+      if (other == null || !other.isList()) return false;
+      if (count() != other.count()) return false;
+
+      for (int i=0; i<count; ++i)
+      {
+        if ( !get(i).equals(other.get(i)) ) return false;
+      }
+      return true;
+    }
+
+    public JValue freeze()
+    {
+      return this;
+    }
+
+    public JValue get( String key )
+    {
+      try
+      {
+        return get( Integer.parseInt(key) );
+      }
+      catch (NumberFormatException ignore)
+      {
+        return UndefinedValue.singleton;
+      }
+    }
+
+    public JValue get( int index )
+    {
+      if (index < 0 || index >= count) return UndefinedValue.singleton;
+      return snapshot.value( snapshot.getLong(slots + 8L*index) );
+    }
+
+    public int hashCode()
+    {
+      int result = hash;
+      if (result == 0)
+      {
+        result = 1;
+        for (int i=0; i<count; ++i) result = 31*result + get(i).hashCode();
+        hash = result;
+      }
+      return result;
+    }
+
+    public boolean isList()
+    {
+      return true;
+    }
+
+    public Iterator<JValue> iterator()
+    {
+      return new Iterator<JValue>()
+      {
+        int next_index;
+
+        public boolean hasNext()
+        {
+          return next_index < count;
+        }
+
+        public JValue next()
+        {
+          if (next_index >= count) throw new NoSuchElementException();
+          return get( next_index++ );
+        }
+
+        public void remove()
+        {
+          throw new UnsupportedOperationException();
+        }
+      };
+    }
+
+    public JValue keys()
+    {
+      JValue result = JValue.list();
+      for (int i=0; i<count; ++i) result.add( i );
+      return result;
+    }
+
+    public double[] toDoubleArray()
+    {
+      double[] result = new double[ count ];
+      for (int i=0; i<result.length; ++i) result[i] = get(i).toDouble();
+      return result;
+    }
+
+    public long[] toLongArray()
+    {
+      long[] result = new long[ count ];
+      for (int i=0; i<result.length; ++i) result[i] = get(i).toLong();
+      return result;
+    }
+
+    public boolean toLogical()
+    {
+      return true;
+    }
+
+    public void write( JSONWriter writer )
+    {
+      writer.print( '[' );
+      for (int i=0; i<count; ++i)
+      {
+        if (i > 0) writer.print( ',' );
+        get( i ).write( writer );
+      }
+      writer.print( ']' );
+    }
+
+    int indexOf( JValue value )
+    {
+      for (int i=0; i<count; ++i)
+      {
+        if (get(i).equals(value)) return i;
+      }
+      return -1;
+    }
+  }
+
+  // See SnapshotListValue. get() binary searches the table's key index,
+  // comparing names through the snapshot's cache of decoded keys.
+  static class SnapshotTableValue extends JValue
+  {
+    final Snapshot snapshot;
+    final long     entries;  // position of the first (key number, slot) entry
+    final long     sorted;   // position of the entry numbers in key order
+    final int      count;
+    int hash;  // 0 until computed
+
+    SnapshotTableValue( Snapshot snapshot, long offset )
+    {
+      this.snapshot = snapshot;
+      this.count = snapshot.getInt( offset+1 );
+      this.entries = offset + 5;
+      this.sorted = entries + 12L*count;
+    }
+
+    public JValue apply( JValue.Processor fn )
+    {
+      JValue result = JValue.table();
+      for (int i=0; i<count; ++i)
+      {
+        JValue new_value = valueAt( i ).apply( fn );
+        if (new_value != null && !new_value.isUndefined()) result.set( keyAt(i), new_value );
+      }
+      JValue processed = fn.process( result );
+      if (processed == null) return JValue.nullValue();
+      return processed;
+    }
+
+    public double compareTo( JValue other )
+    {
+      if (this == other) return 0;
+      if ( !other.isTable() ) return super.compareTo( other );
+      if (this.count() != other.count()) return other.count() - this.count();
+
+      // Compare entries in order; tables that differ only in key order are equal
+      Iterator<JValue> other_keys = other.keys().iterator();
+      for (int i=0; i<count; ++i)
+      {
+        String key = keyAt( i );
+        String other_key = other_keys.next().toString();
+        if ( !key.equals(other_key) )
+        {
+          return equals( other ) ? 0 : key.compareTo( other_key );
+        }
+        double result = valueAt( i ).compareTo( other.get(other_key) );
+        if (result != 0) return result;
+      }
+      return 0;
+    }
+
+    public boolean contains( String key )
+    {
+      return indexOf( key ) >= 0;
+    }
+
+    public int count()
+    {
+      return count;
+    }
+
+    public boolean equals( JValue other )
+    {
+      if (other == this) return true;
+      if (other == null || !other.isTable()) return false;
+      if (count() != other.count()) return false;
+
+      for (int i=0; i<count; ++i)
+      {
+        String key = keyAt( i );
+        if ( !other.contains(key) || !valueAt(i).equals(other.get(key)) ) return false;
+      }
+      return true;
+    }
+
+    public JValue freeze()
+    {
+      return this;
+    }
+
+    public JValue get( String key )
+    {
+      int index = indexOf( key );
+      if (index < 0) return UndefinedValue.singleton;
+      return valueAt( index );
+    }
+
+    public JValue get( int index )
+    {
+      return get( ""+index );
+    }
+
+    // Independent of key order, like equals().
+    public int hashCode()
+    {
+      int result = hash;
+      if (result == 0)
+      {
+        for (int i=0; i<count; ++i) result += keyAt(i).hashCode() ^ valueAt(i).hashCode();
+        hash = result;
+      }
+      return result;
+    }
+
+    public boolean isTable()
+    {
+      return true;
+    }
+
+    public Iterator<JValue> iterator()
+    {
+      return new Iterator<JValue>()
+      {
+        int next_index;
+
+        public boolean hasNext()
+        {
+          return next_index < count;
+        }
+
+        public JValue next()
+        {
+          if (next_index >= count) throw new NoSuchElementException();
+          return valueAt( next_index++ );
+        }
+
+        public void remove()
+        {
+          throw new UnsupportedOperationException();
+        }
+      };
+    }
+
+    public JValue keys()
+    {
+      JValue list = JValue.list();
+      for (int i=0; i<count; ++i) list.add( JValue.string(keyAt(i)) );
+      return list;
+    }
+
+    public boolean toLogical()
+    {
+      return true;
+    }
+
+    public void write( JSONWriter writer )
+    {
+      writer.print( '{' );
+      for (int i=0; i<count; ++i)
+      {
+        if (i > 0) writer.print( ',' );
+        StringValue.write( keyAt(i), writer );
+        writer.print( ':' );
+        valueAt( i ).write( writer );
+      }
+      writer.print( '}' );
+    }
+
+    // Returns the entry number of 'key' or -1.
+    int indexOf( String key )
+    {
+      int lo = 0;
+      int hi = count - 1;
+      while (lo <= hi)
+      {
+        int mid = (lo + hi) >>> 1;
+        int index = snapshot.getInt( sorted + 4L*mid );
+        int cmp = keyAt( index ).compareTo( key );
+        if      (cmp < 0) lo = mid + 1;
+        else if (cmp > 0) hi = mid - 1;
+        else              return index;
+      }
+      return -1;
+    }
+
+    String keyAt( int index )
+    {
+      return snapshot.key( snapshot.getInt(entries + 12L*index) );
+    }
+
+    JValue valueAt( int index )
+    {
+      return snapshot.value( snapshot.getLong(entries + 12L*index + 4) );
+    }
+  }
+
+  // Read-only cursors over the lists and tables of a Tape; see parseTape().
+  // A cursor is just the tape and the position of a start word, created on
+  // access and dropped as soon as it is no longer used, so a resident
+  // document holds no per-value objects. Mutators have no effect. A tape
+  // never changes, so cursors may be read from any number of threads.
+  static class TapeListValue extends JValue
+  {
+    final Tape tape;
+    final int  start;
+    final int  count;
+    int hash;  // 0 until computed
+
+    // Index and position of the last element found by get(int), packed
+    // into one word so that threads always see a matching pair.
+    volatile long last_found;
+
+    TapeListValue( Tape tape, int start )
+    {
+      this.tape = tape;
+      this.start = start;
+      this.count = tape.count( start );
+    }
+
+    public JValue apply( JValue.Processor fn )
+    {
+      JValue result = JValue.list();
+      for (JValue element : this)
+      {
+        JValue processed_element = element.apply( fn );
+        if (processed_element != null && !processed_element.isUndefined())
+        {
+          result.add( processed_element );
+        }
+      }
+      JValue processed = fn.process( result );
+      if (processed == null) return JValue.nullValue();
+      return processed;
+    }
+
+    public double compareTo( JValue other )
+    {
+      if (this == other) return 0;
+      if ( !other.isList() ) return super.compareTo( other );
+      if (this.count() != other.count()) return other.count() - this.count();
+
+      int i = 0;
+      for (JValue element : this)
+      {
+        double result = element.compareTo( other.get(i++) );
+        if (result != 0) return result;
+      }
+      return 0;
+    }
+
+    public boolean contains( String value )
+    {
+      for (int p=start+1, end=(int)tape.words[start]-1; p<end; p=tape.skip(p))
+      {
+        long word = tape.words[ p ];
+        if (Tape.type(word) == Tape.STRING && tape.spells((int) word, value)) return true;
+      }
+      return false;
+    }
+
+    public boolean contains( JValue value )
+    {
+      for (JValue element : this)
+      {
+        if (element.equals(value)) return true;
+      }
+      return false;
+    }
+
+    public int count()
+    {
+      return count;
+    }
+
+    public boolean equals( JValue other )
+    {
+      if (other == this) return true;
+      if (other == null || !other.isList()) return false;
+      if (count() != other.count()) return false;
+
+      int i = 0;
+      for (JValue element : this)
+      {
+        if ( !element.equals(other.get(i++)) ) return false;
+      }
+      return true;
+    }
+
+    public JValue freeze()
+    {
+      return this;
+    }
+
+    public JValue get( String key )
+    {
+      try
+      {
+        return get( Integer.parseInt(key) );
+      }
+      catch (NumberFormatException ignore)
+      {
+        return UndefinedValue.singleton;
+      }
+    }
+
+    // Elements are found by stepping from the last element found, or from
+    // the start, so a loop over get(i) is linear overall.
+    public JValue get( int index )
+    {
+      if (index < 0 || index >= count) return UndefinedValue.singleton;
+
+      long last = last_found;
+      int i = (int) (last >>> 32);
+      int p = (int) last;
+      if (p == 0 || i > index)
+      {
+        i = 0;
+        p = start + 1;
+      }
+      for (; i<index; ++i) p = tape.skip( p );
+      last_found = ((long) index << 32) | p;
+      return tape.value( p );
+    }
+
+    public int hashCode()
+    {
+      int result = hash;
+      if (result == 0)
+      {
+        result = 1;
+        for (JValue element : this) result = 31*result + element.hashCode();
+        hash = result;
+      }
+      return result;
+    }
+
+    public boolean isList()
+    {
+      return true;
+    }
+
+    public Iterator<JValue> iterator()
+    {
+      return new Iterator<JValue>()
+      {
+        int next_position = start + 1;
+        int end = (int) tape.words[ start ] - 1;
+
+        public boolean hasNext()
+        {
+          return next_position < end;
+        }
+
+        public JValue next()
+        {
+          if (next_position >= end) throw new NoSuchElementException();
+          JValue result = tape.value( next_position );
+          next_position = tape.skip( next_position );
+          return result;
+        }
+
+        public void remove()
+        {
+          throw new UnsupportedOperationException();
+        }
+      };
+    }
+
+    public JValue keys()
+    {
+      JValue result = JValue.list();
+      for (int i=0; i<count; ++i) result.add( i );
+      return result;
+    }
+
+    public double[] toDoubleArray()
+    {
+      double[] result = new double[ count ];
+      int i = 0;
+      for (JValue element : this) result[i++] = element.toDouble();
+      return result;
+    }
+
+    public long[] toLongArray()
+    {
+      long[] result = new long[ count ];
+      int i = 0;
+      for (JValue element : this) result[i++] = element.toLong();
+      return result;
+    }
+
+    public boolean toLogical()
+    {
+      return true;
+    }
+
+    public void write( JSONWriter writer )
+    {
+      writer.print( '[' );
+      boolean first = true;
+      for (JValue element : this)
+      {
+        if (first) first = false;
+        else       writer.print( ',' );
+        element.write( writer );
+      }
+      writer.print( ']' );
+    }
+  }
+
+  // See TapeListValue. get() compares each key with the one sought in place,
+  // without decoding it.
+  static class TapeTableValue extends JValue
+  {
+    final Tape tape;
+    final int  start;
+    final int  count;
+    int hash;  // 0 until computed
+
+    TapeTableValue( Tape tape, int start )
+    {
+      this.tape = tape;
+      this.start = start;
+      this.count = tape.count( start );
+    }
+
+    public JValue apply( JValue.Processor fn )
+    {
+      JValue result = JValue.table();
+      for (int p=start+1, end=end(); p<end; p=tape.skip(p+1))
+      {
+        JValue new_value = tape.value( p+1 ).apply( fn );
+        if (new_value != null && !new_value.isUndefined()) result.set( keyAt(p), new_value );
+      }
+      JValue processed = fn.process( result );
+      if (processed == null) return JValue.nullValue();
+      return processed;
+    }
+
+    public double compareTo( JValue other )
+    {
+      if (this == other) return 0;
+      if ( !other.isTable() ) return super.compareTo( other );
+      if (this.count() != other.count()) return other.count() - this.count();
+
+      // Compare entries in order; tables that differ only in key order are equal
+      Iterator<JValue> other_keys = other.keys().iterator();
+      for (int p=start+1, end=end(); p<end; p=tape.skip(p+1))
+      {
+        String key = keyAt( p );
+        String other_key = other_keys.next().toString();
+        if ( !key.equals(other_key) )
+        {
+          return equals( other ) ? 0 : key.compareTo( other_key );
+        }
+        double result = tape.value( p+1 ).compareTo( other.get(other_key) );
+        if (result != 0) return result;
+      }
+      return 0;
+    }
+
+    public boolean contains( String key )
+    {
+      return find( key ) >= 0;
+    }
+
+    public int count()
+    {
+      return count;
+    }
+
+    public boolean equals( JValue other )
+    {
+      if (other == this) return true;
+      if (other == null || !other.isTable()) return false;
+      if (count() != other.count()) return false;
+
+      for (int p=start+1, end=end(); p<end; p=tape.skip(p+1))
+      {
+        String key = keyAt( p );
+        if ( !other.contains(key) || !tape.value(p+1).equals(other.get(key)) ) return false;
+      }
+      return true;
+    }
+
+    public JValue freeze()
+    {
+      return this;
+    }
+
+    // A key that appears more than once in the source finds its last value,
+    // as with TableValue.set(); see Tape.resolveDuplicateKeys().
+    public JValue get( String key )
+    {
+      int p = find( key );
+      if (p < 0) return UndefinedValue.singleton;
+      return tape.value( p+1 );
+    }
+
+    public JValue get( int index )
+    {
+      return get( ""+index );
+    }
+
+    // Independent of key order, like equals().
+    public int hashCode()
+    {
+      int result = hash;
+      if (result == 0)
+      {
+        for (int p=start+1, end=end(); p<end; p=tape.skip(p+1))
+        {
+          result += keyAt(p).hashCode() ^ tape.value(p+1).hashCode();
+        }
+        hash = result;
+      }
+      return result;
+    }
+
+    public boolean isTable()
+    {
+      return true;
+    }
+
+    public Iterator<JValue> iterator()
+    {
+      return new Iterator<JValue>()
+      {
+        int next_position = start + 1;
+        int end = end();
+
+        public boolean hasNext()
+        {
+          return next_position < end;
+        }
+
+        public JValue next()
+        {
+          if (next_position >= end) throw new NoSuchElementException();
+          JValue result = tape.value( next_position+1 );
+          next_position = tape.skip( next_position+1 );
+          return result;
+        }
+
+        public void remove()
+        {
+          throw new UnsupportedOperationException();
+        }
+      };
+    }
+
+    public JValue keys()
+    {
+      JValue list = JValue.list();
+      for (int p=start+1, end=end(); p<end; p=tape.skip(p+1)) list.add( JValue.string(keyAt(p)) );
+      return list;
+    }
+
+    public boolean toLogical()
+    {
+      return true;
+    }
+
+    public void write( JSONWriter writer )
+    {
+      writer.print( '{' );
+      for (int p=start+1, end=end(); p<end; p=tape.skip(p+1))
+      {
+        if (p > start+1) writer.print( ',' );
+        StringValue.write( keyAt(p), writer );
+        writer.print( ':' );
+        tape.value( p+1 ).write( writer );
+      }
+      writer.print( '}' );
+    }
+
+    // Position of the end word.
+    int end()
+    {
+      return (int) tape.words[ start ] - 1;
+    }
+
+    // Returns the position of the entry whose key is 'key', or -1.
+    int find( String key )
+    {
+      long[] words = tape.words;
+      for (int p=start+1, end=end(); p<end; p=tape.skip(p+1))
+      {
+        if (tape.spells((int) words[p], key)) return p;
+      }
+      return -1;
+    }
+
+    String keyAt( int p )
+    {
+      return tape.string( (int) tape.words[p] );
+    }
+  }
+
+  // A table key for call sites that read the same key from many tables. It
+  // remembers the slot the key had in the last table shape it was looked up
+  // in, so tables of that shape are read without a key search.
+  //
+  //   static final JValue.Key NAME = new JValue.Key( "name" );
+  //   ...
+  //   for (JValue record : records) names.add( record.get(NAME) );
+  static public class Key
+  {
+    final String name;
+    volatile Slot cached;
+
+    public Key( String name )
+    {
+      this.name = name;
+    }
+
+    public String toString()
+    {
+      return name;
+    }
+
+    static class Slot
+    {
+      final Shape shape;
+      final int   index;
+
+      Slot( Shape shape, int index )
+      {
+        this.shape = shape;
+        this.index = index;
+      }
+    }
+  }
+
+  // A compiled query; see at(). An expression is either a JSON Pointer
+  // (RFC 6901: "" or "/a/items/3/price") or a subset of JSONPath:
+  //
+  //   $              the root (may be omitted: "a.items[3]")
+  //   .name ['name'] member
+  //   [3] [-1]       list element, counting back from the end if negative
+  //   [1:3]          list slice
+  //   .* [*]         every element or member value
+  //   ..             the value and all nested lists and tables, then the
+  //                  next step on each: "$..price", "$..*"
+  //   [?(filter)]    elements or member values matching a filter such as
+  //                  "@.price < 10 && @.tags" - a relative single-value
+  //                  path compared with ==, !=, <, <=, > or >= to a number,
+  //                  'string', true, false or null, or alone to test that
+  //                  it exists, combined with && and ||
+  //
+  // Paths of names and indices alone select at most one value and are
+  // evaluated by get() without allocating. Other paths are evaluated lazily
+  // by iterator(). An expression that doesn't compile selects nothing.
+  static public class Path
+  {
+    static final int CACHE_SIZE = 256;
+    static final ConcurrentHashMap<String,Path> cache = new ConcurrentHashMap<String,Path>();
+
+    final String expression;
+    final Step[] steps;     // null if the expression is invalid
+    final boolean single;
+
+    // Returns the compiled form of 'expression' from a bounded cache.
+    static public Path compile( String expression )
+    {
+      Path result = cache.get( expression );
+      if (result != null) return result;
+
+      result = new Path( expression );
+      if (cache.size() >= CACHE_SIZE) cache.clear();
+      cache.put( expression, result );
+      return result;
+    }
+
+    public Path( String expression )
+    {
+      this( expression, PathParser.parse(expression) );
+    }
+
+    Path( String expression, Step[] steps )
+    {
+      this.expression = expression;
+      this.steps = steps;
+
+      boolean single = (steps != null);
+      if (single)
+      {
+        for (Step step : steps) single &= (step instanceof MemberStep || step instanceof IndexStep);
+      }
+      this.single = single;
+    }
+
+    // Returns the value selected by a single-value path, or the first value
+    // selected by any other path, or undefined if there is none.
+    public JValue get( JValue root )
+    {
+      if ( !single )
+      {
+        Iterator<JValue> matches = iterator( root );
+        return matches.hasNext() ? matches.next() : UndefinedValue.singleton;
+      }
+
+      JValue cur = root;
+      for (Step step : steps)
+      {
+        cur = step.get( cur );
+        if (cur.isUndefined()) break;
+      }
+      return cur;
+    }
+
+    public boolean isSingle()
+    {
+      return single;
+    }
+
+    public boolean isValid()
+    {
+      return steps != null;
+    }
+
+    // Lazily walks the values selected from 'root', in document order.
+    public Iterator<JValue> iterator( JValue root )
+    {
+      if (steps == null) return Collections.<JValue>emptyIterator();
+      if (steps.length == 0) return Collections.singletonList( root ).iterator();
+      return new Matches( steps, root );
+    }
+
+    public String toString()
+    {
+      return expression;
+    }
+
+    static boolean isContainer( JValue value )
+    {
+      return value.isList() || value.isTable();
+    }
+
+    // Walks the tree of candidates depth-first, one iterator per step.
+    static class Matches implements Iterator<JValue>
+    {
+      final Step[] steps;
+      final ArrayList<Iterator<JValue>> levels;
+      JValue next;
+
+      Matches( Step[] steps, JValue root )
+      {
+        this.steps = steps;
+        levels = new ArrayList<Iterator<JValue>>( steps.length );
+        levels.add( steps[0].select(root) );
+        advance();
+      }
+
+      public boolean hasNext()
+      {
+        return next != null;
+      }
+
+      public JValue next()
+      {
+        if (next == null) throw new NoSuchElementException();
+        JValue result = next;
+        advance();
+        return result;
+      }
+
+      public void remove()
+      {
+        throw new UnsupportedOperationException();
+      }
+
+      void advance()
+      {
+        while (levels.size() > 0)
+        {
+          int depth = levels.size() - 1;
+          Iterator<JValue> candidates = levels.get( depth );
+          if ( !candidates.hasNext() )
+          {
+            levels.remove( depth );
+            continue;
+          }
+          JValue value = candidates.next();
+          if (depth == steps.length-1)
+          {
+            next = value;
+            return;
+          }
+          levels.add( steps[depth+1].select(value) );
+        }
+        next = null;
+      }
+    }
+
+    abstract static class Step
+    {
+      // Single-value steps only.
+      JValue get( JValue value )
+      {
+        return UndefinedValue.singleton;
+      }
+
+      abstract Iterator<JValue> select( JValue value );
+    }
+
+    static class MemberStep extends Step
+    {
+      final Key key;
+
+      MemberStep( String name )
+      {
+        key = new Key( name );
+      }
+
+      JValue get( JValue value )
+      {
+        if ( !value.isTable() ) return UndefinedValue.singleton;
+        return value.get( key );
+      }
+
+      Iterator<JValue> select( JValue value )
+      {
+        JValue result = get( value );
+        if (result.isUndefined()) return Collections.<JValue>emptyIterator();
+        return Collections.singletonList( result ).iterator();
+      }
+    }
+
+    // Selects a list element or, from a table, the member with the same name
+    // (as JSON Pointer requires).
+    static class IndexStep extends MemberStep
+    {
+      final int index;
+
+      IndexStep( int index )
+      {
+        super( ""+index );
+        this.index = index;
+      }
+
+      JValue get( JValue value )
+      {
+        if (value.isList())
+        {
+          int i = (index >= 0) ? index : value.count() + index;
+          return value.get( i );
+        }
+        return super.get( value );
+      }
+    }
+
+    static class SliceStep extends Step
+    {
+      final int start;
+      final int end;  // exclusive; Integer.MAX_VALUE for the end of the list
+
+      SliceStep( int start, int end )
+      {
+        this.start = start;
+        this.end = end;
+      }
+
+      Iterator<JValue> select( final JValue value )
+      {
+        if ( !value.isList() ) return Collections.<JValue>emptyIterator();
+        final int n = value.count();
+        final int last = Math.min( (end < 0) ? n + end : end, n );
+        return new Iterator<JValue>()
+        {
+          int next_index = Math.max( (start < 0) ? n + start : start, 0 );
+
+          public boolean hasNext()
+          {
+            return next_index < last;
+          }
+
+          public JValue next()
+          {
+            if (next_index >= last) throw new NoSuchElementException();
+            return value.get( next_index++ );
+          }
+
+          public void remove()
+          {
+            throw new UnsupportedOperationException();
+          }
+        };
+      }
+    }
+
+    static class WildcardStep extends Step
+    {
+      Iterator<JValue> select( JValue value )
+      {
+        return value.iterator();
+      }
+    }
+
+    // Selects the value and every list and table nested in it, in preorder.
+    static class DescendantStep extends Step
+    {
+      Iterator<JValue> select( final JValue value )
+      {
+        if ( !isContainer(value) ) return Collections.<JValue>emptyIterator();
+        return new Iterator<JValue>()
+        {
+          ArrayList<Iterator<JValue>> stack = new ArrayList<Iterator<JValue>>();
+          JValue next = value;
+
+          public boolean hasNext()
+          {
+            return next != null;
+          }
+
+          public JValue next()
+          {
+            if (next == null) throw new NoSuchElementException();
+            JValue result = next;
+            next = null;
+            stack.add( result.iterator() );
+            while (next == null && stack.size() > 0)
+            {
+              Iterator<JValue> top = stack.get( stack.size()-1 );
+              if ( !top.hasNext() )
+              {
+                stack.remove( stack.size()-1 );
+                continue;
+              }
+              JValue candidate = top.next();
+              if (isContainer(candidate)) next = candidate;
+            }
+            return result;
+          }
+
+          public void remove()
+          {
+            throw new UnsupportedOperationException();
+          }
+        };
+      }
+    }
+
+    static class FilterStep extends Step
+    {
+      final Filter filter;
+
+      FilterStep( Filter filter )
+      {
+        this.filter = filter;
+      }
+
+      Iterator<JValue> select( JValue value )
+      {
+        final Iterator<JValue> candidates = value.iterator();
+        return new Iterator<JValue>()
+        {
+          JValue next = find();
+
+          public boolean hasNext()
+          {
+            return next != null;
+          }
+
+          public JValue next()
+          {
+            if (next == null) throw new NoSuchElementException();
+            JValue result = next;
+            next = find();
+            return result;
+          }
+
+          public void remove()
+          {
+            throw new UnsupportedOperationException();
+          }
+
+          JValue find()
+          {
+            while (candidates.hasNext())
+            {
+              JValue candidate = candidates.next();
+              if (filter.test(candidate)) return candidate;
+            }
+            return null;
+          }
+        };
+      }
+    }
+
+    // A filter is a list of alternatives (||), each a list of terms (&&).
+    static class Filter
+    {
+      final Term[][] alternatives;
+
+      Filter( Term[][] alternatives )
+      {
+        this.alternatives = alternatives;
+      }
+
+      boolean test( JValue candidate )
+      {
+        for (Term[] terms : alternatives)
+        {
+          boolean matched = true;
+          for (Term term : terms)
+          {
+            if ( !term.test(candidate) )
+            {
+              matched = false;
+              break;
+            }
+          }
+          if (matched) return true;
+        }
+        return false;
+      }
+    }
+
+    static class Term
+    {
+      static final int EXISTS = 0;
+      static final int EQ     = 1;
+      static final int NE     = 2;
+      static final int LT     = 3;
+      static final int LE     = 4;
+      static final int GT     = 5;
+      static final int GE     = 6;
+
+      final Path   operand;
+      final int    op;
+      final JValue literal;
+
+      Term( Path operand, int op, JValue literal )
+      {
+        this.operand = operand;
+        this.op = op;
+        this.literal = literal;
+      }
+
+      boolean test( JValue candidate )
+      {
+        JValue value = operand.get( candidate );
+        if (value.isUndefined()) return false;
+        if (op == EXISTS) return true;
+        if (op == EQ) return value.equals( literal );
+        if (op == NE) return !value.equals( literal );
+
+        int order;
+        if (value.isNumber() && literal.isNumber())
+        {
+          order = Double.compare( value.toDouble(), literal.toDouble() );
+        }
+        else if (value.isString() && literal.isString())
+        {
+          order = value.toString().compareTo( literal.toString() );
+        }
+        else
+        {
+          return false;
+        }
+
+        switch (op)
+        {
+          case LT: return order < 0;
+          case LE: return order <= 0;
+          case GT: return order > 0;
+          default: return order >= 0;
+        }
+      }
+    }
+
+    static class PathParser
+    {
+      final String expression;
+      int position;
+
+      PathParser( String expression )
+      {
+        this.expression = expression;
+      }
+
+      // Returns null if 'expression' is invalid.
+      static Step[] parse( String expression )
+      {
+        try
+        {
+          return new PathParser( expression ).parse();
+        }
+        catch (JSONParseError err)
+        {
+          return null;
+        }
+      }
+
+      Step[] parse()
+      {
+        ArrayList<Step> steps = new ArrayList<Step>();
+        if (expression.length() == 0 || expression.charAt(0) == '/') parsePointer( steps );
+        else                                                           parseSteps( steps, false );
+        if (position < expression.length()) throw error();
+        return steps.toArray( new Step[steps.size()] );
+      }
+
+      void parsePointer( ArrayList<Step> steps )
+      {
+        while (position < expression.length())
+        {
+          ++position;  // '/'
+          int end = expression.indexOf( '/', position );
+          if (end < 0) end = expression.length();
+          String token = expression.substring( position, end ).replace( "~1", "/" ).replace( "~0", "~" );
+          position = end;
+
+          if (token.matches("0|[1-9][0-9]{0,8}")) steps.add( new IndexStep(Integer.parseInt(token)) );
+          else                                    steps.add( new MemberStep(token) );
+        }
+      }
+
+      // In a filter ('relative') the steps follow '@' and end at an operator.
+      void parseSteps( ArrayList<Step> steps, boolean relative )
+      {
+        if (relative)
+        {
+          if ( !consume('@') ) throw error();
+        }
+        else if ( !consume('$') && position < expression.length() && ".[".indexOf(expression.charAt(position)) < 0 )
+        {
+          steps.add( new MemberStep(parseName()) );
+        }
+
+        while (position < expression.length())
+        {
+          char ch = expression.charAt( position );
+          if (ch == '.')
+          {
+            ++position;
+            if (consume('.'))
+            {
+              steps.add( new DescendantStep() );
+              if (position < expression.length() && expression.charAt(position) == '[') continue;
+            }
+            if (consume('*')) steps.add( new WildcardStep() );
+            else              steps.add( new MemberStep(parseName()) );
+          }
+          else if (ch == '[')
+          {
+            ++position;
+            skipSpaces();
+            steps.add( parseBracket() );
+            skipSpaces();
+            if ( !consume(']') ) throw error();
+          }
+          else if (relative)
+          {
+            return;
+          }
+          else
+          {
+            throw error();
+          }
+        }
+      }
+
+      Step parseBracket()
+      {
+        if (position >= expression.length()) throw error();
+        char ch = expression.charAt( position );
+        if (ch == '*')
+        {
+          ++position;
+          return new WildcardStep();
+        }
+        if (ch == '\'' || ch == '"') return new MemberStep( parseQuoted() );
+        if (ch == '?')
+        {
+          ++position;
+          if ( !consume('(') ) throw error();
+          Filter filter = parseFilter();
+          if ( !consume(')') ) throw error();
+          return new FilterStep( filter );
+        }
+
+        int start = 0;
+        if ( !consume(':') )
+        {
+          start = parseInteger();
+          skipSpaces();
+          if ( !consume(':') ) return new IndexStep( start );
+        }
+        skipSpaces();
+        int end = (position < expression.length() && expression.charAt(position) == ']')
+            ? Integer.MAX_VALUE : parseInteger();
+        return new SliceStep( start, end );
+      }
+
+      Filter parseFilter()
+      {
+        ArrayList<Term[]> alternatives = new ArrayList<Term[]>();
+        ArrayList<Term> terms = new ArrayList<Term>();
+        for (;;)
+        {
+          skipSpaces();
+          terms.add( parseTerm() );
+          skipSpaces();
+          if (consume("&&")) continue;
+          alternatives.add( terms.toArray(new Term[terms.size()]) );
+          terms.clear();
+          if ( !consume("||") ) break;
+        }
+        return new Filter( alternatives.toArray(new Term[alternatives.size()][]) );
+      }
+
+      Term parseTerm()
+      {
+        int start = position;
+        ArrayList<Step> steps = new ArrayList<Step>();
+        parseSteps( steps, true );
+        Path operand = new Path( expression.substring(start,position), steps.toArray(new Step[steps.size()]) );
+        if ( !operand.single ) throw error();
+
+        skipSpaces();
+        int op;
+        if      (consume("==")) op = Term.EQ;
+        else if (consume("!=")) op = Term.NE;
+        else if (consume("<=")) op = Term.LE;
+        else if (consume(">=")) op = Term.GE;
+        else if (consume("<"))  op = Term.LT;
+        else if (consume(">"))  op = Term.GT;
+        else return new Term( operand, Term.EXISTS, null );
+
+        skipSpaces();
+        return new Term( operand, op, parseLiteral() );
+      }
+
+      JValue parseLiteral()
+      {
+        if (position >= expression.length()) throw error();
+        char ch = expression.charAt( position );
+        if (ch == '\'' || ch == '"') return JValue.string( parseQuoted() );
+        if (consume("true"))  return JValue.logical( true );
+        if (consume("false")) return JValue.logical( false );
+        if (consume("null"))  return JValue.nullValue();
+
+        int start = position;
+        while (position < expression.length() && "+-.0123456789eE".indexOf(expression.charAt(position)) >= 0)
+        {
+          ++position;
+        }
+        JValue result = JValue.parse( expression.substring(start,position) );
+        if ( !result.isNumber() ) throw error();
+        return result;
+      }
+
+      String parseName()
+      {
+        int start = position;
+        while (position < expression.length() && ".[ =!<>&|)".indexOf(expression.charAt(position)) < 0)
+        {
+          ++position;
+        }
+        if (position == start) throw error();
+        return expression.substring( start, position );
+      }
+
+      String parseQuoted()
+      {
+        char quote = expression.charAt( position++ );
+        StringBuilder result = new StringBuilder();
+        while (position < expression.length())
+        {
+          char ch = expression.charAt( position++ );
+          if (ch == quote) return result.toString();
+          if (ch == '\\' && position < expression.length()) ch = expression.charAt( position++ );
+          result.append( ch );
+        }
+        throw error();
+      }
+
+      int parseInteger()
+      {
+        int start = position;
+        if (position < expression.length() && expression.charAt(position) == '-') ++position;
+        while (position < expression.length() && Character.isDigit(expression.charAt(position))) ++position;
+        try
+        {
+          return Integer.parseInt( expression.substring(start,position) );
+        }
+        catch (NumberFormatException err)
+        {
+          throw error();
+        }
+      }
+
+      boolean consume( char ch )
+      {
+        if (position >= expression.length() || expression.charAt(position) != ch) return false;
+        ++position;
+        return true;
+      }
+
+      boolean consume( String text )
+      {
+        if ( !expression.startsWith(text,position) ) return false;
+        position += text.length();
+        return true;
+      }
+
+      void skipSpaces()
+      {
+        while (position < expression.length() && expression.charAt(position) == ' ') ++position;
+      }
+
+      JSONParseError error()
+      {
+        return new JSONParseError( "Invalid path at position " + position + ": " + expression );
+      }
+    }
+  }
+
+  // The parts of a document to keep when parsing with parse(..., Projection),
+  // given as paths (see Path) such as "/id", "$.user.name" or
+  // "$.items[*].price". Names, indices and wildcards narrow the selection;
+  // a path keeps everything below its last step, or below its first step of
+  // any other kind. Lists keep the positions of their selected elements,
+  // with null in place of skipped elements before them.
+  //
+  //   static final JValue.Projection SUMMARY = JValue.Projection.of( "id", "items[*].price" );
+  //   ...
+  //   JValue summary = JValue.parse( response, SUMMARY );
+  static public class Projection
+  {
+    final String name;   // the member name this node selects, if named
+    int          index;  // the list index it also selects, or -1
+    boolean               all;
+    ArrayList<Projection> children;
+    Projection            wildcard;
+
+    static public Projection of( String... paths )
+    {
+      Projection result = new Projection( null, -1 );
+      for (String path : paths) result.add( Path.compile(path) );
+      result.spreadWildcards();
+      return result;
+    }
+
+    Projection( String name, int index )
+    {
+      this.name = name;
+      this.index = index;
+    }
+
+    void add( Path path )
+    {
+      if ( !path.isValid() ) return;
+
+      Projection node = this;
+      for (Path.Step step : path.steps)
+      {
+        if (node.all) return;
+        if (step instanceof Path.IndexStep)
+        {
+          int index = ((Path.IndexStep) step).index;
+          if (index < 0) break;
+          node = node.child( ""+index, index );
+        }
+        else if (step instanceof Path.MemberStep)
+        {
+          node = node.child( ((Path.MemberStep) step).key.name, -1 );
+        }
+        else if (step instanceof Path.WildcardStep)
+        {
+          if (node.wildcard == null) node.wildcard = new Projection( null, -1 );
+          node = node.wildcard;
+        }
+        else
+        {
+          break;
+        }
+      }
+      node.all = true;
+    }
+
+    Projection child( String name, int index )
+    {
+      if (children == null) children = new ArrayList<Projection>();
+      for (int i=0; i<children.size(); ++i)
+      {
+        Projection child = children.get( i );
+        if (child.name.equals(name))
+        {
+          if (index >= 0) child.index = index;
+          return child;
+        }
+      }
+      Projection child = new Projection( name, index );
+      children.add( child );
+      return child;
+    }
+
+    // Returns the projection of list element 'i', or null if it isn't selected.
+    Projection element( int i )
+    {
+      if (children != null)
+      {
+        for (int c=0; c<children.size(); ++c)
+        {
+          Projection child = children.get( c );
+          if (child.index == i) return child;
+        }
+      }
+      return wildcard;
+    }
+
+    void include( Projection other )
+    {
+      if (other.all) all = true;
+      if (other.children != null)
+      {
+        for (Projection child : other.children) child( child.name, child.index ).include( child );
+      }
+      if (other.wildcard != null)
+      {
+        if (wildcard == null) wildcard = new Projection( null, -1 );
+        wildcard.include( other.wildcard );
+      }
+    }
+
+    // Returns the named child whose name is the text in [start,end) of the
+    // reader's source, or null. Compares in place; the text must be ASCII.
+    Projection member( JSONReader reader, int start, int end )
+    {
+      if (children == null) return null;
+      int length = end - start;
+      for (int c=0; c<children.size(); ++c)
+      {
+        Projection child = children.get( c );
+        String name = child.name;
+        if (name.length() != length) continue;
+        int i = 0;
+        while (i < length && reader.charAt(start+i) == name.charAt(i)) ++i;
+        if (i == length) return child;
+      }
+      return null;
+    }
+
+    Projection member( String key )
+    {
+      if (children != null)
+      {
+        for (int c=0; c<children.size(); ++c)
+        {
+          Projection child = children.get( c );
+          if (child.name.equals(key)) return child;
+        }
+      }
+      return null;
+    }
+
+    // Named members also take whatever a wildcard beside them selects.
+    void spreadWildcards()
+    {
+      if (wildcard != null)
+      {
+        wildcard.spreadWildcards();
+        if (children != null)
+        {
+          for (Projection child : children) child.include( wildcard );
+        }
+      }
+      if (children != null)
+      {
+        for (Projection child : children) child.spreadWildcards();
+      }
+    }
+  }
 
   // UTILITY
-  static class JSONWriter
+  // Array-backed JSON encoder. Collects output in memory (see toString()) or
+  // writes through to an attached sink, encoding UTF-8 itself for byte sinks.
+  // Instances may be reused; JValue.toString() and write() borrow a per-thread
+  // instance through obtain() / release().
+  static public class JSONWriter
+  {
+    static final int DEFAULT_CAPACITY   = 1024;
+    static final int SINK_CAPACITY      = 32 * 1024;
+    static final int MAX_RETAINED_CAPACITY = 64 * 1024;
+
+    static final ThreadLocal<JSONWriter> pool = new ThreadLocal<JSONWriter>()
+    {
+      protected JSONWriter initialValue()
+      {
+        return new JSONWriter();
+      }
+    };
+
+    char[] buffer = new char[ DEFAULT_CAPACITY ];
+    int    count;
+    boolean in_use;
+
+    Writer              writer_sink;
+    OutputStream        stream_sink;
+    WritableByteChannel channel_sink;
+    byte[]              encode_buffer;
+    IOException         error;
+    DoubleFormatter     double_formatter;
+
+    public JSONWriter()
+    {
+    }
+
+    public JSONWriter( Writer sink )
+    {
+      attach( sink );
+    }
+
+    public JSONWriter( OutputStream sink )
+    {
+      attach( sink );
+    }
+
+    public JSONWriter( WritableByteChannel sink )
+    {
+      attach( sink );
+    }
+
+    // Returns this thread's pooled writer, or a new writer if the pooled one
+    // is already in use further up the call stack.
+    static JSONWriter obtain()
+    {
+      JSONWriter writer = pool.get();
+      if (writer.in_use) return new JSONWriter();
+      writer.in_use = true;
+      return writer;
+    }
+
+    JSONWriter attach( Writer sink )
+    {
+      reset();
+      writer_sink = sink;
+      ensureCapacity( SINK_CAPACITY );
+      return this;
+    }
+
+    JSONWriter attach( OutputStream sink )
+    {
+      reset();
+      stream_sink = sink;
+      ensureCapacity( SINK_CAPACITY );
+      return this;
+    }
+
+    JSONWriter attach( WritableByteChannel sink )
+    {
+      reset();
+      channel_sink = sink;
+      ensureCapacity( SINK_CAPACITY );
+      return this;
+    }
+
+    // Writes any buffered output to the sink. Returns false if any write failed.
+    public boolean flush()
+    {
+      if (hasSink())
+      {
+        flushBuffer( true );
+        try
+        {
+          if (error == null)
+          {
+            if (writer_sink != null) writer_sink.flush();
+            if (stream_sink != null) stream_sink.flush();
+          }
+        }
+        catch (IOException err)
+        {
+          error = err;
+        }
+      }
+      return (error == null);
+    }
+
+    public int length()
+    {
+      return count;
+    }
+
+    public JSONWriter print( char ch )
+    {
+      if (count == buffer.length) makeRoom( 1 );
+      buffer[ count++ ] = ch;
+      return this;
+    }
+
+    public JSONWriter print( int value )
+    {
+      return print( (long) value );
+    }
+
+    public JSONWriter print( long value )
+    {
+      if (count + 20 > buffer.length) makeRoom( 20 );
+      if (value < 0)
+      {
+        if (value == Long.MIN_VALUE) return print( "-9223372036854775808" );
+        buffer[ count++ ] = '-';
+        value = -value;
+      }
+
+      int digits = 1;
+      for (long limit=10; digits<19 && value>=limit; limit*=10) ++digits;
+
+      char[] buffer = this.buffer;
+      int i = count + digits;
+      count = i;
+      do
+      {
+        buffer[ --i ] = (char) ('0' + (int)(value % 10));
+        value /= 10;
+      }
+      while (value != 0);
+      return this;
+    }
+
+    // Writes the shortest decimal that reads back as the same double. JSON has
+    // no NaN or Infinity, so those are written as null.
+    public JSONWriter print( double value )
+    {
+      if (value >= -9.223372036854775808E18 && value < 9.223372036854775808E18)
+      {
+        // Integral values print exactly
+        long n = (long) value;
+        if (n == value) return print( n );
+      }
+      else if (Double.isNaN(value) || Double.isInfinite(value))
+      {
+        return print( "null" );
+      }
+
+      if (double_formatter == null) double_formatter = new DoubleFormatter();
+      double_formatter.write( value, this );
+      return this;
+    }
+
+    public JSONWriter print( String st )
+    {
+      return print( st, 0, st.length() );
+    }
+
+    public JSONWriter print( String st, int start, int end )
+    {
+      while (start < end)
+      {
+        int n = end - start;
+        if (count + n > buffer.length)
+        {
+          makeRoom( n );
+          n = Math.min( n, buffer.length - count );
+        }
+        st.getChars( start, start+n, buffer, count );
+        count += n;
+        start += n;
+      }
+      return this;
+    }
+
+    public JSONWriter print( char[] chars, int start, int end )
+    {
+      while (start < end)
+      {
+        int n = end - start;
+        if (count + n > buffer.length)
+        {
+          makeRoom( n );
+          n = Math.min( n, buffer.length - count );
+        }
+        System.arraycopy( chars, start, buffer, count, n );
+        count += n;
+        start += n;
+      }
+      return this;
+    }
+
+    // Returns this writer to its pool after detaching any sink.
+    void release()
+    {
+      reset();
+      if (buffer.length > MAX_RETAINED_CAPACITY) buffer = new char[ DEFAULT_CAPACITY ];
+      if (encode_buffer != null && encode_buffer.length > MAX_RETAINED_CAPACITY*3) encode_buffer = null;
+      in_use = false;
+    }
+
+    public void reset()
+    {
+      count = 0;
+      writer_sink = null;
+      stream_sink = null;
+      channel_sink = null;
+      error = null;
+    }
+
+    // Returns the collected output and clears the writer.
+    public String toString()
+    {
+      String result = new String( buffer, 0, count );
+      count = 0;
+      return result;
+    }
+
+    void ensureCapacity( int capacity )
+    {
+      if (buffer.length < capacity) buffer = Arrays.copyOf( buffer, capacity );
+    }
+
+    boolean hasSink()
+    {
+      return (writer_sink != null || stream_sink != null || channel_sink != null);
+    }
+
+    // Makes room for at least 'needed' more characters: flushes to the sink
+    // when there is one, otherwise grows the buffer. With a sink the space
+    // available afterwards may still be less than 'needed' for large strings.
+    void makeRoom( int needed )
+    {
+      if (hasSink())
+      {
+        flushBuffer( false );
+        if (buffer.length - count >= Math.min(needed,32)) return;
+      }
+      buffer = Arrays.copyOf( buffer, Math.max(buffer.length*2, count+needed) );
+    }
+
+    void flushBuffer( boolean all )
+    {
+      int n = count;
+
+      // Hold back a trailing high surrogate until its partner arrives
+      boolean hold = (!all && n > 0 && Character.isHighSurrogate(buffer[n-1]));
+      if (hold) --n;
+
+      if (error == null && n > 0)
+      {
+        try
+        {
+          if (writer_sink != null)
+          {
+            writer_sink.write( buffer, 0, n );
+          }
+          else
+          {
+            int byte_count = encodeUTF8( n );
+            if (stream_sink != null)
+            {
+              stream_sink.write( encode_buffer, 0, byte_count );
+            }
+            else
+            {
+              ByteBuffer bytes = ByteBuffer.wrap( encode_buffer, 0, byte_count );
+              while (bytes.hasRemaining()) channel_sink.write( bytes );
+            }
+          }
+        }
+        catch (IOException err)
+        {
+          error = err;
+        }
+      }
+
+      if (hold)
+      {
+        buffer[0] = buffer[n];
+        count = 1;
+      }
+      else
+      {
+        count = 0;
+      }
+    }
+
+    int encodeUTF8( int n )
+    {
+      if (encode_buffer == null || encode_buffer.length < n*3) encode_buffer = new byte[ Math.max(n*3,DEFAULT_CAPACITY) ];
+
+      char[] buffer = this.buffer;
+      byte[] bytes = encode_buffer;
+      int b = 0;
+      int i = 0;
+      while (i < n)
+      {
+        char ch = buffer[ i++ ];
+        if (ch < 0x80)
+        {
+          bytes[ b++ ] = (byte) ch;
+        }
+        else if (ch < 0x800)
+        {
+          bytes[ b++ ] = (byte) (0xC0 | (ch >> 6));
+          bytes[ b++ ] = (byte) (0x80 | (ch & 0x3F));
+        }
+        else if (Character.isHighSurrogate(ch) && i < n && Character.isLowSurrogate(buffer[i]))
+        {
+          int code = Character.toCodePoint( ch, buffer[i++] );
+          bytes[ b++ ] = (byte) (0xF0 | (code >> 18));
+          bytes[ b++ ] = (byte) (0x80 | ((code >> 12) & 0x3F));
+          bytes[ b++ ] = (byte) (0x80 | ((code >> 6) & 0x3F));
+          bytes[ b++ ] = (byte) (0x80 | (code & 0x3F));
+        }
+        else
+        {
+          if (Character.isSurrogate(ch)) ch = '?';
+          bytes[ b++ ] = (byte) (0xE0 | (ch >> 12));
+          bytes[ b++ ] = (byte) (0x80 | ((ch >> 6) & 0x3F));
+          bytes[ b++ ] = (byte) (0x80 | (ch & 0x3F));
+        }
+      }
+      return b;
+    }
+  }
+
+  // Array-backed CBOR (RFC 8949) encoder; see JValue.toCBOR(). Collects
+  // output in memory or writes through to an attached stream.
+  static class CBORWriter
+  {
+    static final int DEFAULT_CAPACITY = 1024;
+    static final int SINK_CAPACITY    = 32 * 1024;
+
+    byte[]       buffer;
+    int          count;
+    OutputStream sink;
+    IOException  error;
+
+    CBORWriter()
+    {
+      buffer = new byte[ DEFAULT_CAPACITY ];
+    }
+
+    CBORWriter( OutputStream sink )
+    {
+      this.sink = sink;
+      buffer = new byte[ SINK_CAPACITY ];
+    }
+
+    // Writes any buffered output to the sink. Returns false if any write failed.
+    boolean flush()
+    {
+      flushBuffer();
+      try
+      {
+        if (error == null) sink.flush();
+      }
+      catch (IOException err)
+      {
+        error = err;
+      }
+      return (error == null);
+    }
+
+    void flushBuffer()
+    {
+      if (error == null)
+      {
+        try
+        {
+          sink.write( buffer, 0, count );
+        }
+        catch (IOException err)
+        {
+          error = err;
+        }
+      }
+      count = 0;
+    }
+
+    void makeRoom( int n )
+    {
+      if (sink != null)
+      {
+        flushBuffer();
+        if (n <= buffer.length) return;
+      }
+      buffer = Arrays.copyOf( buffer, Math.max(buffer.length*2, count+n) );
+    }
+
+    byte[] toByteArray()
+    {
+      return Arrays.copyOf( buffer, count );
+    }
+
+    void writeByte( int b )
+    {
+      if (count == buffer.length) makeRoom( 1 );
+      buffer[ count++ ] = (byte) b;
+    }
+
+    // Writes the initial byte for 'major' type with 'argument' in its
+    // shortest form.
+    void writeHead( int major, long argument )
+    {
+      if (count + 9 > buffer.length) makeRoom( 9 );
+      byte[] buffer = this.buffer;
+      major <<= 5;
+      if (argument >= 0 && argument < 24)
+      {
+        buffer[ count++ ] = (byte) (major | (int) argument);
+      }
+      else if (argument >= 0 && argument < 0x100)
+      {
+        buffer[ count++ ] = (byte) (major | 24);
+        buffer[ count++ ] = (byte) argument;
+      }
+      else if (argument >= 0 && argument < 0x10000)
+      {
+        buffer[ count++ ] = (byte) (major | 25);
+        buffer[ count++ ] = (byte) (argument >> 8);
+        buffer[ count++ ] = (byte) argument;
+      }
+      else if (argument >= 0 && argument < 0x100000000L)
+      {
+        buffer[ count++ ] = (byte) (major | 26);
+        writeBits( argument, 4 );
+      }
+      else
+      {
+        // Unsigned 64-bit if negative
+        buffer[ count++ ] = (byte) (major | 27);
+        writeBits( argument, 8 );
+      }
+    }
+
+    void writeBits( long bits, int size )
+    {
+      byte[] buffer = this.buffer;
+      for (int shift=(size-1)*8; shift>=0; shift-=8) buffer[ count++ ] = (byte) (bits >> shift);
+    }
+
+    void writeDouble( double value )
+    {
+      if (count + 9 > buffer.length) makeRoom( 9 );
+      float f = (float) value;
+      if (f == value || Double.isNaN(value))
+      {
+        buffer[ count++ ] = (byte) 0xFA;
+        writeBits( Float.floatToIntBits(f), 4 );
+      }
+      else
+      {
+        buffer[ count++ ] = (byte) 0xFB;
+        writeBits( Double.doubleToLongBits(value), 8 );
+      }
+    }
+
+    void writeLong( long value )
+    {
+      if (value >= 0) writeHead( 0, value );
+      else            writeHead( 1, ~value );  // -1 - value
+    }
+
+    // Writes a text string, encoding UTF-8 directly into the buffer. Unpaired
+    // surrogates are written as '?' as by String.getBytes().
+    void writeString( String value )
+    {
+      int n = value.length();
+      int utf8_length = n;
+      for (int i=0; i<n; ++i)
+      {
+        char ch = value.charAt( i );
+        if (ch < 0x80) continue;
+        if (ch < 0x800)
+        {
+          ++utf8_length;
+        }
+        else if (Character.isSurrogate(ch))
+        {
+          if (Character.isHighSurrogate(ch) && i+1 < n && Character.isLowSurrogate(value.charAt(i+1)))
+          {
+            // 4 bytes for the pair
+            utf8_length += 2;
+            ++i;
+          }
+        }
+        else
+        {
+          utf8_length += 2;
+        }
+      }
+
+      writeHead( 3, utf8_length );
+      if (count + utf8_length > buffer.length) makeRoom( utf8_length );
+      if (utf8_length > buffer.length - count)
+      {
+        // Longer than the sink's buffer
+        byte[] bytes = value.getBytes( StandardCharsets.UTF_8 );
+        flushBuffer();
+        try
+        {
+          if (error == null) sink.write( bytes );
+        }
+        catch (IOException err)
+        {
+          error = err;
+        }
+        return;
+      }
+
+      byte[] buffer = this.buffer;
+      int pos = count;
+      for (int i=0; i<n; ++i)
+      {
+        char ch = value.charAt( i );
+        if (ch < 0x80)
+        {
+          buffer[ pos++ ] = (byte) ch;
+        }
+        else if (ch < 0x800)
+        {
+          buffer[ pos++ ] = (byte) (0xC0 | (ch >> 6));
+          buffer[ pos++ ] = (byte) (0x80 | (ch & 0x3F));
+        }
+        else if (Character.isSurrogate(ch))
+        {
+          if (Character.isHighSurrogate(ch) && i+1 < n && Character.isLowSurrogate(value.charAt(i+1)))
+          {
+            int code = Character.toCodePoint( ch, value.charAt(++i) );
+            buffer[ pos++ ] = (byte) (0xF0 | (code >> 18));
+            buffer[ pos++ ] = (byte) (0x80 | ((code >> 12) & 0x3F));
+            buffer[ pos++ ] = (byte) (0x80 | ((code >> 6) & 0x3F));
+            buffer[ pos++ ] = (byte) (0x80 | (code & 0x3F));
+          }
+          else
+          {
+            buffer[ pos++ ] = (byte) '?';
+          }
+        }
+        else
+        {
+          buffer[ pos++ ] = (byte) (0xE0 | (ch >> 12));
+          buffer[ pos++ ] = (byte) (0x80 | ((ch >> 6) & 0x3F));
+          buffer[ pos++ ] = (byte) (0x80 | (ch & 0x3F));
+        }
+      }
+      count = pos;
+    }
+  }
+
+  // CBOR decoder; see JValue.fromCBOR(). Reading from a stream takes exactly
+  // the bytes of one value, so a stream may hold a sequence of values. Table
+  // keys are interned through the shared KeyPool or, without one, a pool
+  // local to the reader. Byte strings decode as text and tags are ignored.
+  static class CBORReader
+  {
+    static final int LOCAL_KEY_POOL_CAPACITY = 1024;
+
+    byte[]      buffer;
+    int         position;
+    int         limit;
+    InputStream in;
+    KeyPool     keys;
+
+    CBORReader( byte[] bytes, int offset, int length )
+    {
+      buffer = bytes;
+      position = offset;
+      limit = offset + length;
+    }
+
+    CBORReader( InputStream in )
+    {
+      this.in = in;
+      buffer = new byte[ 4096 ];
+    }
+
+    KeyPool keyPool()
+    {
+      KeyPool pool = KeyPool.shared;
+      if (pool != null) return pool;
+      if (keys == null) keys = new KeyPool( LOCAL_KEY_POOL_CAPACITY );
+      return keys;
+    }
+
+    // Ensures that the next 'n' bytes are in the buffer. Stream reads never
+    // require more than the buffer holds; see readInto().
+    void require( int n )
+    {
+      if (limit - position >= n) return;
+      if (in == null) throw new JSONParseError( "Unexpected end of CBOR data." );
+
+      int available = limit - position;
+      System.arraycopy( buffer, position, buffer, 0, available );
+      position = 0;
+      limit = available;
+      try
+      {
+        while (limit < n)
+        {
+          int read = in.read( buffer, limit, n-limit );
+          if (read < 0) throw new JSONParseError( "Unexpected end of CBOR data." );
+          limit += read;
+        }
+      }
+      catch (IOException err)
+      {
+        throw new JSONParseError( err.toString() );
+      }
+    }
+
+    int readByte()
+    {
+      require( 1 );
+      return buffer[ position++ ] & 255;
+    }
+
+    // Appends the next 'n' bytes to 'out' a buffer at a time, so that a
+    // corrupt length only allocates as much as the stream actually holds.
+    void readInto( ByteArrayOutputStream out, int n )
+    {
+      while (n > 0)
+      {
+        int count = Math.min( n, buffer.length );
+        require( count );
+        out.write( buffer, position, count );
+        position += count;
+        n -= count;
+      }
+    }
+
+    long readBits( int size )
+    {
+      require( size );
+      byte[] buffer = this.buffer;
+      long result = 0;
+      for (int i=0; i<size; ++i) result = (result << 8) | (buffer[position++] & 255);
+      return result;
+    }
+
+    // Returns the argument encoded by 'info', or -1 for an indefinite length.
+    long readArgument( int info )
+    {
+      if (info < 24)  return info;
+      if (info == 24) return readBits( 1 );
+      if (info == 25) return readBits( 2 );
+      if (info == 26) return readBits( 4 );
+      if (info == 27) return readBits( 8 );
+      if (info == 31) return -1;
+      throw new JSONParseError( "Invalid CBOR argument." );
+    }
+
+    int readLength( int info )
+    {
+      long length = readArgument( info );
+      if (length > Integer.MAX_VALUE || length < -1) throw new JSONParseError( "CBOR item too large." );
+      return (int) length;
+    }
+
+    JValue readValue()
+    {
+      int initial = readByte();
+      int major = initial >> 5;
+      int info = initial & 31;
+      if (info == 31 && (major < 2 || major == 6)) throw new JSONParseError( "Invalid CBOR argument." );
+      switch (major)
+      {
+        case 0:
+        {
+          long n = readArgument( info );
+          if (n < 0) return JValue.number( unsigned(n) );
+          return JValue.number( n );
+        }
+
+        case 1:
+        {
+          long n = readArgument( info );
+          if (n < 0) return JValue.number( -1.0 - unsigned(n) );
+          return JValue.number( ~n );  // -1 - n
+        }
+
+        case 2:
+        case 3:
+        {
+          String value = readString( major, info );
+          if (value.length() == 0) return StringValue.empty_singleton;
+          return new StringValue( value );
+        }
+
+        case 4:
+        {
+          int n = readLength( info );
+          ListValue list = new ListValue();
+          if (n < 0)
+          {
+            while ( !consumeBreak() ) list.add( readValue() );
+            return list;
+          }
+          for (int i=0; i<n; ++i) list.add( readValue() );
+          return list;
+        }
+
+        case 5:
+        {
+          int n = readLength( info );
+          TableValue table = new TableValue();
+          if (n < 0)
+          {
+            while ( !consumeBreak() ) table.set( readKey(), readValue() );
+            return table;
+          }
+          for (int i=0; i<n; ++i) table.set( readKey(), readValue() );
+          return table;
+        }
+
+        case 6:
+          readArgument( info );
+          return readValue();
+
+        default:
+          switch (info)
+          {
+            case 20: return LogicalValue.false_singleton;
+            case 21: return LogicalValue.true_singleton;
+            case 22: return NullValue.singleton;
+            case 25: return JValue.number( halfToDouble((int) readBits(2)) );
+            case 26: return JValue.number( Float.intBitsToFloat((int) readBits(4)) );
+            case 27: return JValue.number( Double.longBitsToDouble(readBits(8)) );
+            case 24: readBits( 1 ); return UndefinedValue.singleton;
+            case 31: throw new JSONParseError( "Unexpected CBOR break." );
+            default: return UndefinedValue.singleton;
+          }
+      }
+    }
+
+    boolean consumeBreak()
+    {
+      require( 1 );
+      if ((buffer[position] & 255) != 0xFF) return false;
+      ++position;
+      return true;
+    }
+
+    String readKey()
+    {
+      require( 1 );
+      int initial = buffer[ position ] & 255;
+      if ((initial >> 5) != 3 || (initial & 31) == 31) return readValue().toString();
+
+      ++position;
+      int n = readLength( initial & 31 );
+      if (in != null && n > buffer.length) return keyPool().get( readText(n) );
+      require( n );
+      byte[] buffer = this.buffer;
+      int start = position;
+      int end = start + n;
+      position = end;
+      for (int i=start; i<end; ++i)
+      {
+        if (buffer[i] < 0) return keyPool().get( new String(buffer,start,n,StandardCharsets.UTF_8) );
+      }
+      return keyPool().get( buffer, start, end );
+    }
+
+    String readString( int major, int info )
+    {
+      int n = readLength( info );
+      if (n >= 0) return readText( n );
+
+      // Indefinite length: definite-length chunks of the same type until a break
+      ByteArrayOutputStream chunks = new ByteArrayOutputStream();
+      while ( !consumeBreak() )
+      {
+        int initial = readByte();
+        if ((initial >> 5) != major) throw new JSONParseError( "Invalid CBOR string chunk." );
+        n = readLength( initial & 31 );
+        if (n < 0) throw new JSONParseError( "Invalid CBOR string chunk." );
+        readInto( chunks, n );
+      }
+      return new String( chunks.toByteArray(), StandardCharsets.UTF_8 );
+    }
+
+    String readText( int n )
+    {
+      if (in == null || n <= buffer.length)
+      {
+        require( n );
+        String result = new String( buffer, position, n, StandardCharsets.UTF_8 );
+        position += n;
+        return result;
+      }
+
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      readInto( bytes, n );
+      return new String( bytes.toByteArray(), StandardCharsets.UTF_8 );
+    }
+
+    static double unsigned( long n )
+    {
+      return (double)(n >>> 1) * 2.0 + (n & 1);
+    }
+
+    static double halfToDouble( int bits )
+    {
+      int exponent = (bits >> 10) & 0x1F;
+      int mantissa = bits & 0x3FF;
+      double value;
+      if (exponent == 0)       value = mantissa * Math.pow( 2, -24 );
+      else if (exponent == 31) value = (mantissa == 0) ? Double.POSITIVE_INFINITY : Double.NaN;
+      else                     value = (mantissa + 1024) * Math.pow( 2, exponent-25 );
+      return ((bits & 0x8000) != 0) ? -value : value;
+    }
+  }
+
+  // Memory-mapped snapshot file; see JValue.openSnapshot() and saveSnapshot().
+  // All numbers are big-endian and all positions are file offsets:
+  //
+  //   header      "JVSNAP" 0 1, root slot, dictionary position, file length
+  //   dictionary  key count, then the position of each key's string node;
+  //               keys are numbered in String order
+  //   string      TAG_STRING, UTF-8 byte count, bytes
+  //   long        TAG_LONG, value
+  //   double      TAG_DOUBLE, value
+  //   list        TAG_LIST, count, then one slot per element
+  //   table       TAG_TABLE, count, then (key number, slot) per entry in
+  //               insertion order, then the entry numbers in key order
+  //
+  // A slot is a long holding either the position of a node or, when
+  // negative, an immediate value: null, false, true or a 56-bit integer.
+  // Children are written before their parents. A file is mapped in segments
+  // of 1 GB, each extended a few bytes into the next so that a number read
+  // at any position lies entirely within one segment.
+  static class Snapshot
+  {
+    static final byte[] MAGIC = { 'J', 'V', 'S', 'N', 'A', 'P', 0, 1 };
+    static final int    HEADER_SIZE = 32;
+
+    static final int TAG_LONG   = 1;
+    static final int TAG_DOUBLE = 2;
+    static final int TAG_STRING = 3;
+    static final int TAG_LIST   = 4;
+    static final int TAG_TABLE  = 5;
+
+    static final int IMMEDIATE_UNDEFINED = 0;
+    static final int IMMEDIATE_NULL      = 1;
+    static final int IMMEDIATE_FALSE     = 2;
+    static final int IMMEDIATE_TRUE      = 3;
+    static final int IMMEDIATE_INTEGER   = 4;
+
+    static final int  SEGMENT_SHIFT   = 30;
+    static final long SEGMENT_MASK    = (1L << SEGMENT_SHIFT) - 1;
+    static final int  SEGMENT_OVERLAP = 8;
+
+    final ByteBuffer[] segments;
+    final long         length;
+    final long         dictionary;
+    final String[]     keys;  // decoded on first use
+
+    Snapshot( FileChannel channel ) throws IOException
+    {
+      length = channel.size();
+      if (length < HEADER_SIZE) throw new IOException( "Not a snapshot" );
+
+      segments = new ByteBuffer[ (int) ((length - 1) >>> SEGMENT_SHIFT) + 1 ];
+      for (int i=0; i<segments.length; ++i)
+      {
+        long start = (long) i << SEGMENT_SHIFT;
+        long size = Math.min( length - start, SEGMENT_MASK + 1 + SEGMENT_OVERLAP );
+        segments[i] = channel.map( FileChannel.MapMode.READ_ONLY, start, size );
+      }
+
+      for (int i=0; i<MAGIC.length; ++i)
+      {
+        if (getByte(i) != MAGIC[i]) throw new IOException( "Not a snapshot" );
+      }
+      dictionary = getLong( 16 );
+      if (getLong(24) != length || dictionary < HEADER_SIZE || dictionary > length - 4)
+      {
+        throw new IOException( "Truncated snapshot" );
+      }
+      keys = new String[ getInt(dictionary) ];
+    }
+
+    static JValue open( File file )
+    {
+      try
+      {
+        FileInputStream in = new FileInputStream( file );
+        try
+        {
+          // The mappings stay valid after the channel is closed.
+          Snapshot snapshot = new Snapshot( in.getChannel() );
+          return snapshot.value( snapshot.getLong(8) );
+        }
+        finally
+        {
+          in.close();
+        }
+      }
+      catch (IOException ignore)
+      {
+        return UndefinedValue.singleton;
+      }
+    }
+
+    static long immediate( int kind, long payload )
+    {
+      return Long.MIN_VALUE | ((long) kind << 56) | (payload & 0x00FFFFFFFFFFFFFFL);
+    }
+
+    byte getByte( long position )
+    {
+      return segments[ (int) (position >>> SEGMENT_SHIFT) ].get( (int) (position & SEGMENT_MASK) );
+    }
+
+    void getBytes( long position, byte[] bytes )
+    {
+      int i = 0;
+      while (i < bytes.length)
+      {
+        ByteBuffer segment = segments[ (int) (position >>> SEGMENT_SHIFT) ].duplicate();
+        segment.position( (int) (position & SEGMENT_MASK) );
+        int n = Math.min( bytes.length - i, segment.remaining() );
+        segment.get( bytes, i, n );
+        i += n;
+        position += n;
+      }
+    }
+
+    int getInt( long position )
+    {
+      return segments[ (int) (position >>> SEGMENT_SHIFT) ].getInt( (int) (position & SEGMENT_MASK) );
+    }
+
+    long getLong( long position )
+    {
+      return segments[ (int) (position >>> SEGMENT_SHIFT) ].getLong( (int) (position & SEGMENT_MASK) );
+    }
+
+    String getString( long position )
+    {
+      byte[] bytes = new byte[ getInt(position+1) ];
+      getBytes( position+5, bytes );
+      return new String( bytes, StandardCharsets.UTF_8 );
+    }
+
+    String key( int id )
+    {
+      // Racing threads may both decode a key; either result is correct
+      String result = keys[ id ];
+      if (result == null)
+      {
+        result = getString( getLong(dictionary + 4 + 8L*id) );
+        keys[ id ] = result;
+      }
+      return result;
+    }
+
+    JValue value( long slot )
+    {
+      if (slot < 0)
+      {
+        switch ((int) (slot >>> 56) & 0x7F)
+        {
+          case IMMEDIATE_NULL:    return NullValue.singleton;
+          case IMMEDIATE_FALSE:   return LogicalValue.false_singleton;
+          case IMMEDIATE_TRUE:    return LogicalValue.true_singleton;
+          case IMMEDIATE_INTEGER: return JValue.number( (slot << 8) >> 8 );
+          default:                return UndefinedValue.singleton;
+        }
+      }
+
+      switch (getByte(slot))
+      {
+        case TAG_LONG:   return JValue.number( getLong(slot+1) );
+        case TAG_DOUBLE: return JValue.number( Double.longBitsToDouble(getLong(slot+1)) );
+        case TAG_STRING: return JValue.string( getString(slot) );
+        case TAG_LIST:   return new SnapshotListValue( this, slot );
+        case TAG_TABLE:  return new SnapshotTableValue( this, slot );
+        default:         return UndefinedValue.singleton;
+      }
+    }
+  }
+
+  // Writes the snapshot format described at Snapshot. A first pass collects
+  // and numbers the keys; a second writes each node after its children and
+  // the dictionary last, then fills in the header.
+  static class SnapshotWriter
+  {
+    FileChannel              channel;
+    ByteBuffer               buffer = ByteBuffer.allocate( 64 * 1024 );
+    long                     position;
+    HashMap<String,Integer>  key_ids = new HashMap<String,Integer>();
+
+    SnapshotWriter( FileChannel channel )
+    {
+      this.channel = channel;
+    }
+
+    void write( JValue root ) throws IOException
+    {
+      collectKeys( root );
+      String[] keys = key_ids.keySet().toArray( new String[key_ids.size()] );
+      Arrays.sort( keys );
+      for (int i=0; i<keys.length; ++i) key_ids.put( keys[i], i );
+
+      writeBytes( new byte[Snapshot.HEADER_SIZE] );
+      long root_slot = writeValue( root );
+
+      long[] key_positions = new long[ keys.length ];
+      for (int i=0; i<keys.length; ++i) key_positions[i] = writeString( keys[i] );
+      long dictionary = position;
+      writeInt( keys.length );
+      for (long key_position : key_positions) writeLong( key_position );
+      flush();
+
+      ByteBuffer header = ByteBuffer.allocate( Snapshot.HEADER_SIZE );
+      header.put( Snapshot.MAGIC ).putLong( root_slot ).putLong( dictionary ).putLong( position );
+      header.flip();
+      while (header.hasRemaining()) channel.write( header, header.position() );
+    }
+
+    void collectKeys( JValue value )
+    {
+      if (value.isTable())
+      {
+        for (JValue key : value.keys()) key_ids.put( key.toString(), 0 );
+      }
+      else if ( !value.isList() )
+      {
+        return;
+      }
+      for (JValue element : value) collectKeys( element );
+    }
+
+    void flush() throws IOException
+    {
+      buffer.flip();
+      while (buffer.hasRemaining()) channel.write( buffer );
+      buffer.clear();
+    }
+
+    void writeByte( int value ) throws IOException
+    {
+      if (buffer.remaining() < 1) flush();
+      buffer.put( (byte) value );
+      ++position;
+    }
+
+    void writeBytes( byte[] bytes ) throws IOException
+    {
+      if (buffer.remaining() < bytes.length)
+      {
+        flush();
+        if (bytes.length > buffer.capacity())
+        {
+          ByteBuffer wrapped = ByteBuffer.wrap( bytes );
+          while (wrapped.hasRemaining()) channel.write( wrapped );
+          position += bytes.length;
+          return;
+        }
+      }
+      buffer.put( bytes );
+      position += bytes.length;
+    }
+
+    void writeInt( int value ) throws IOException
+    {
+      if (buffer.remaining() < 4) flush();
+      buffer.putInt( value );
+      position += 4;
+    }
+
+    void writeLong( long value ) throws IOException
+    {
+      if (buffer.remaining() < 8) flush();
+      buffer.putLong( value );
+      position += 8;
+    }
+
+    long writeString( String value ) throws IOException
+    {
+      long result = position;
+      byte[] utf8 = value.getBytes( StandardCharsets.UTF_8 );
+      writeByte( Snapshot.TAG_STRING );
+      writeInt( utf8.length );
+      writeBytes( utf8 );
+      return result;
+    }
+
+    // Returns the slot for 'value'.
+    long writeValue( JValue value ) throws IOException
+    {
+      if (value.isTable())
+      {
+        JValue keys = value.keys();
+        int n = keys.count();
+        int[] ids = new int[ n ];
+        long[] slots = new long[ n ];
+        for (int i=0; i<n; ++i)
+        {
+          String key = keys.get( i ).toString();
+          ids[i] = key_ids.get( key );
+          slots[i] = writeValue( value.get(key) );
+        }
+
+        // Entry numbers ordered by key number, which is key order
+        long[] sorted = new long[ n ];
+        for (int i=0; i<n; ++i) sorted[i] = ((long) ids[i] << 32) | i;
+        Arrays.sort( sorted );
+
+        long result = position;
+        writeByte( Snapshot.TAG_TABLE );
+        writeInt( n );
+        for (int i=0; i<n; ++i)
+        {
+          writeInt( ids[i] );
+          writeLong( slots[i] );
+        }
+        for (int i=0; i<n; ++i) writeInt( (int) sorted[i] );
+        return result;
+      }
+
+      if (value.isList())
+      {
+        int n = value.count();
+        long[] slots = new long[ n ];
+        for (int i=0; i<n; ++i) slots[i] = writeValue( value.get(i) );
+
+        long result = position;
+        writeByte( Snapshot.TAG_LIST );
+        writeInt( n );
+        for (int i=0; i<n; ++i) writeLong( slots[i] );
+        return result;
+      }
+
+      if (value.isString()) return writeString( value.toString() );
+
+      if (value instanceof IntegerValue)
+      {
+        long n = ((IntegerValue) value).value;
+        if (((n << 8) >> 8) == n) return Snapshot.immediate( Snapshot.IMMEDIATE_INTEGER, n );
+        long result = position;
+        writeByte( Snapshot.TAG_LONG );
+        writeLong( n );
+        return result;
+      }
+
+      if (value.isNumber())
+      {
+        long result = position;
+        writeByte( Snapshot.TAG_DOUBLE );
+        writeLong( Double.doubleToLongBits(value.toDouble()) );
+        return result;
+      }
+
+      if (value.isNull())    return Snapshot.immediate( Snapshot.IMMEDIATE_NULL, 0 );
+      if (value.isLogical()) return Snapshot.immediate( value.toLogical() ? Snapshot.IMMEDIATE_TRUE : Snapshot.IMMEDIATE_FALSE, 0 );
+      return Snapshot.immediate( Snapshot.IMMEDIATE_UNDEFINED, 0 );
+    }
+  }
+
+  // Flat form of a parsed document in the style of simdjson; see
+  // parseTape(). Values are laid out in document order as 64-bit words,
+  // each with a type in its top byte and a payload below:
+  //
+  //   'n' 't' 'f' 'u'  null, true, false, undefined
+  //   'l' 'd'          integer or real; the next word holds the value or
+  //                    the real's bits
+  //   '"'              string; the payload is the position in 'strings' of
+  //                    a 4-byte length followed by the UTF-8 bytes
+  //   '[' '{'          start of a list or table; the payload holds the
+  //                    position after the matching end word in bits 0-31
+  //                    and the count in bits 32-55, or COUNT_UNKNOWN if the
+  //                    count doesn't fit
+  //   ']' '}'          end of a list or table; the payload is the position
+  //                    of the start word
+  //
+  // A table's contents alternate key and value. Skipping any value takes a
+  // single step, and a document of any size is just the two arrays.
+  static class Tape
+  {
+    static final int NULL      = 'n';
+    static final int TRUE      = 't';
+    static final int FALSE     = 'f';
+    static final int UNDEFINED = 'u';
+    static final int INTEGER   = 'l';
+    static final int REAL      = 'd';
+    static final int STRING    = '"';
+    static final int LIST      = '[';
+    static final int LIST_END  = ']';
+    static final int TABLE     = '{';
+    static final int TABLE_END = '}';
+
+    static final int COUNT_UNKNOWN = 0xFFFFFF;
+
+    long[] words;
+    int    word_count;
+    byte[] strings;
+    int    string_count;
+    int[]  key_entries = new int[ 16 ];  // see resolveDuplicateKeys()
+    int[]  key_slots = new int[ 64 ];
+
+    // 'source_length' is the length of the JSON text, used to size the arrays.
+    Tape( int source_length )
+    {
+      words = new long[ Math.min(Math.max(source_length/8,16), 1<<20) ];
+      strings = new byte[ Math.min(Math.max(source_length/2,64), 1<<22) ];
+    }
+
+    // GLOBAL METHODS
+    static int type( long word )
+    {
+      return (int) (word >>> 56);
+    }
+
+    // METHODS
+    void add( int type )
+    {
+      add( (long) type << 56 );
+    }
+
+    void add( long word )
+    {
+      if (word_count == words.length) words = Arrays.copyOf( words, words.length*2 );
+      words[ word_count++ ] = word;
+    }
+
+    void addInteger( long value )
+    {
+      add( INTEGER );
+      add( value );
+    }
+
+    void addReal( double value )
+    {
+      add( REAL );
+      add( Double.doubleToLongBits(value) );
+    }
+
+    int addString( String value )
+    {
+      byte[] utf8 = value.getBytes( StandardCharsets.UTF_8 );
+      reserveString( utf8.length );
+      System.arraycopy( utf8, 0, strings, string_count+4, utf8.length );
+      return endString( utf8.length );
+    }
+
+    // Adds [start,end) of the reader's source.
+    int addString( JSONReader reader, int start, int end )
+    {
+      reserveString( (end - start) * 3 );
+      return endString( reader.copyUTF8(start, end, strings, string_count+4) );
+    }
+
+    void reserveString( int length )
+    {
+      long needed = (long) string_count + 4 + length;
+      if (needed > strings.length)
+      {
+        if (needed > Integer.MAX_VALUE - 8) throw new JSONParseError( "Document too large." );
+        strings = Arrays.copyOf( strings, (int) Math.min(Math.max(needed, strings.length*2L), Integer.MAX_VALUE - 8) );
+      }
+    }
+
+    int endString( int length )
+    {
+      byte[] strings = this.strings;
+      int pos = string_count;
+      strings[ pos ]   = (byte) (length >> 24);
+      strings[ pos+1 ] = (byte) (length >> 16);
+      strings[ pos+2 ] = (byte) (length >> 8);
+      strings[ pos+3 ] = (byte) length;
+      add( ((long) STRING << 56) | pos );
+      string_count = pos + 4 + length;
+      return length;
+    }
+
+    // Starts a list or table and returns the position of its start word.
+    int open( int type )
+    {
+      add( type );
+      return word_count - 1;
+    }
+
+    void close( int start, int end_type, int count )
+    {
+      add( ((long) end_type << 56) | start );
+      words[ start ] |= ((long) Math.min(count,COUNT_UNKNOWN) << 32) | word_count;
+    }
+
+    // Makes the table starting at 'start', whose contents run to the end of
+    // the tape, hold each key once with the value it was given last, in the
+    // position where it first appeared, as TableValue.set() does. Returns the
+    // number of entries left.
+    int resolveDuplicateKeys( int start )
+    {
+      // Gather the entries and find duplicates through a hash table of entry
+      // indices
+      int n = 0;
+      int[] entries = key_entries;
+      for (int p=start+1; p<word_count; p=skip(p+1))
+      {
+        if (n == entries.length) key_entries = entries = Arrays.copyOf( entries, n*2 );
+        entries[ n++ ] = p;
+      }
+
+      int capacity = Integer.highestOneBit( n*2-1 ) << 1;
+      if (key_slots.length < capacity) key_slots = new int[ capacity ];
+      int[] slots = key_slots;
+      Arrays.fill( slots, 0, capacity, -1 );
+
+      int[] winners = null;  // for each entry, the entry whose value it takes, or -1 if shadowed
+      for (int i=0; i<n; ++i)
+      {
+        int pos = (int) words[ entries[i] ];
+        int slot = keyHash( pos ) & (capacity - 1);
+        while (slots[slot] >= 0 && !sameString(pos, (int) words[entries[slots[slot]]]))
+        {
+          slot = (slot + 1) & (capacity - 1);
+        }
+        if (slots[slot] < 0)
+        {
+          slots[ slot ] = i;
+          if (winners != null) winners[ i ] = i;
+          continue;
+        }
+        if (winners == null)
+        {
+          winners = new int[ n ];
+          for (int j=0; j<i; ++j) winners[ j ] = j;
+        }
+        winners[ slots[slot] ] = i;
+        winners[ i ] = -1;
+      }
+      if (winners == null) return n;
+
+      // Rewrite the entries in place, moving each winning value after its key
+      int end = word_count;
+      long[] contents = Arrays.copyOfRange( words, start+1, end );
+      int dest = start + 1;
+      int unique = 0;
+      for (int i=0; i<n; ++i)
+      {
+        if (winners[i] < 0) continue;
+        words[ dest++ ] = contents[ entries[i] - start - 1 ];
+        int from = entries[ winners[i] ] + 1;
+        int to = (winners[i] + 1 < n) ? entries[ winners[i]+1 ] : end;
+        dest = move( contents, from - start - 1, to - from, dest, dest - from );
+        ++unique;
+      }
+      word_count = dest;
+      return unique;
+    }
+
+    // Copies 'n' words of values from 'source' to 'dest' in the tape,
+    // adjusting the positions held by lists and tables by 'delta'. Returns
+    // the position after the last word copied.
+    int move( long[] source, int offset, int n, int dest, int delta )
+    {
+      long[] words = this.words;
+      for (int i=offset, end=offset+n; i<end; ++i)
+      {
+        long word = source[ i ];
+        switch (type(word))
+        {
+          case LIST:
+          case TABLE:
+          case LIST_END:
+          case TABLE_END:
+            word += delta;
+            break;
+          case INTEGER:
+          case REAL:
+            words[ dest++ ] = word;
+            word = source[ ++i ];
+            break;
+        }
+        words[ dest++ ] = word;
+      }
+      return dest;
+    }
+
+    int keyHash( int pos )
+    {
+      byte[] strings = this.strings;
+      int hash = 0;
+      for (int i=pos+4, end=i+stringLength(pos); i<end; ++i) hash = hash * 31 + strings[i];
+      return hash ^ (hash >>> 16);
+    }
+
+    boolean sameString( int a, int b )
+    {
+      byte[] strings = this.strings;
+      int length = stringLength( a );
+      if (stringLength(b) != length) return false;
+      for (int i=4; i<length+4; ++i)
+      {
+        if (strings[a+i] != strings[b+i]) return false;
+      }
+      return true;
+    }
+
+    // Turns the string just added into a logical or null if it spells one,
+    // as JSONReader.parseValue() does.
+    void resolveLiteral()
+    {
+      int pos = (int) words[ word_count-1 ];
+      int length = string_count - pos - 4;
+      if (length != 4 && length != 5) return;
+
+      int type;
+      if      (spells(pos, "true"))  type = TRUE;
+      else if (spells(pos, "false")) type = FALSE;
+      else if (spells(pos, "null"))  type = NULL;
+      else return;
+
+      truncate( word_count-1, pos );
+      add( type );
+    }
+
+    // Trims both arrays to size once parsing is done.
+    Tape trim()
+    {
+      key_entries = key_slots = null;
+      words = Arrays.copyOf( words, word_count );
+      strings = Arrays.copyOf( strings, string_count );
+      return this;
+    }
+
+    void truncate( int word_count, int string_count )
+    {
+      this.word_count = word_count;
+      this.string_count = string_count;
+    }
+
+    // Returns the number of elements, or of entries, of the list or table
+    // starting at 'start'.
+    int count( int start )
+    {
+      int result = (int) (words[start] >>> 32) & COUNT_UNKNOWN;
+      if (result < COUNT_UNKNOWN) return result;
+
+      result = 0;
+      int end = (int) words[ start ] - 1;
+      int step = (type(words[start]) == TABLE) ? 2 : 1;
+      for (int p=start+1; p<end; p=skip(p)) ++result;
+      return result / step;
+    }
+
+    // Returns the position after the value at 'p'.
+    int skip( int p )
+    {
+      switch (type(words[p]))
+      {
+        case LIST:
+        case TABLE:
+          return (int) words[ p ];
+        case INTEGER:
+        case REAL:
+          return p + 2;
+        default:
+          return p + 1;
+      }
+    }
+
+    // Returns true if the string at 'pos' in 'strings' has the characters of
+    // 'value'. ASCII values are compared in place.
+    boolean spells( int pos, String value )
+    {
+      byte[] strings = this.strings;
+      int length = stringLength( pos );
+      int n = value.length();
+      if (length < n) return false;
+      pos += 4;
+      for (int i=0; i<n; ++i)
+      {
+        char ch = value.charAt( i );
+        if (ch >= 0x80) return string( pos-4 ).equals( value );
+        if (strings[pos+i] != ch) return false;
+      }
+      return (length == n);
+    }
+
+    String string( int pos )
+    {
+      return new String( strings, pos+4, stringLength(pos), StandardCharsets.UTF_8 );
+    }
+
+    int stringLength( int pos )
+    {
+      byte[] strings = this.strings;
+      return ((strings[pos] & 255) << 24) | ((strings[pos+1] & 255) << 16)
+          | ((strings[pos+2] & 255) << 8) | (strings[pos+3] & 255);
+    }
+
+    JValue value( int p )
+    {
+      long word = words[ p ];
+      switch (type(word))
+      {
+        case NULL:    return NullValue.singleton;
+        case TRUE:    return LogicalValue.true_singleton;
+        case FALSE:   return LogicalValue.false_singleton;
+        case INTEGER: return JValue.number( words[p+1] );
+        case REAL:    return JValue.number( Double.longBitsToDouble(words[p+1]) );
+        case STRING:  return JValue.string( string((int) word) );
+        case LIST:    return new TapeListValue( this, p );
+        case TABLE:   return new TapeTableValue( this, p );
+        default:      return UndefinedValue.singleton;
+      }
+    }
+  }
+
+  // Shortest round-trip double-to-decimal conversion using the Schubfach
+  // algorithm (R. Giulietti, "The Schubfach way to render doubles", 2020),
+  // laid out the way JavaScript's Number.toString() does.
+  static class DoubleFormatter
+  {
+    static final int  P      = 53;
+    static final int  Q_MIN  = -1074;
+    static final long C_MIN  = 1L << (P - 1);
+    static final long C_TINY = 3;
+    static final int  K_MIN  = -324;
+    static final int  K_MAX  = 292;
+    static final long MASK_63 = 0x7FFFFFFFFFFFFFFFL;
+
+    // g(k) = floor(10^-k * 2^-r) + 1 with 2^125 <= 10^-k * 2^-r < 2^126, split
+    // into the high and low 63 bits.
+    static final long[] g = new long[ (K_MAX - K_MIN + 1) * 2 ];
+
+    static
+    {
+      java.math.BigInteger ten = java.math.BigInteger.TEN;
+      for (int k=K_MIN; k<=K_MAX; ++k)
+      {
+        int shift = 125 - flog2pow10( -k );
+        java.math.BigInteger value;
+        if (k <= 0)
+        {
+          value = ten.pow( -k );
+          value = (shift >= 0) ? value.shiftLeft( shift ) : value.shiftRight( -shift );
+        }
+        else
+        {
+          value = java.math.BigInteger.ONE.shiftLeft( shift ).divide( ten.pow(k) );
+        }
+        value = value.add( java.math.BigInteger.ONE );
+        g[ (k - K_MIN) << 1 ]       = value.shiftRight( 63 ).longValue();
+        g[ ((k - K_MIN) << 1) + 1 ] = value.longValue() & MASK_63;
+      }
+    }
+
+    long   f;  // decimal significand
+    int    e;  // decimal exponent: |value| = f * 10^e
+    char[] digits = new char[ 20 ];
+
+    void write( double value, JSONWriter writer )
+    {
+      if (value < 0 || (value == 0 && 1/value < 0))
+      {
+        writer.print( '-' );
+        value = -value;
+      }
+      toDecimal( value );
+
+      // Strip trailing zeros
+      while (f >= 10 && f % 10 == 0)
+      {
+        f /= 10;
+        ++e;
+      }
+
+      int n = 0;
+      for (long remaining=f; remaining!=0 || n==0; remaining/=10)
+      {
+        digits[ n++ ] = (char) ('0' + (int)(remaining % 10));
+      }
+      for (int i=0, j=n-1; i<j; ++i, --j)
+      {
+        char ch = digits[ i ];
+        digits[ i ] = digits[ j ];
+        digits[ j ] = ch;
+      }
+
+      // Position of the decimal point relative to the first digit
+      int point = e + n;
+      if (n <= point && point <= 21)
+      {
+        writer.print( digits, 0, n );
+        for (int i=point-n; i>0; --i) writer.print( '0' );
+      }
+      else if (0 < point && point <= 21)
+      {
+        writer.print( digits, 0, point );
+        writer.print( '.' );
+        writer.print( digits, point, n );
+      }
+      else if (-6 < point && point <= 0)
+      {
+        writer.print( '0' );
+        writer.print( '.' );
+        for (int i=-point; i>0; --i) writer.print( '0' );
+        writer.print( digits, 0, n );
+      }
+      else
+      {
+        writer.print( digits[0] );
+        if (n > 1)
+        {
+          writer.print( '.' );
+          writer.print( digits, 1, n );
+        }
+        writer.print( 'e' );
+        writer.print( (point > 0) ? '+' : '-' );
+        writer.print( Math.abs(point-1) );
+      }
+    }
+
+    // Sets f and e for a finite, positive, non-integral-fast-path value.
+    void toDecimal( double value )
+    {
+      long bits = Double.doubleToRawLongBits( value );
+      long t = bits & ((1L << (P-1)) - 1);
+      int bq = (int) (bits >>> (P-1)) & 0x7FF;
+      if (bq != 0)
+      {
+        // Normal value
+        toDecimal( bq - 1075, C_MIN | t, 0 );
+      }
+      else if (t < C_TINY)
+      {
+        // The two smallest subnormals have too few bits for the algorithm;
+        // their shortest forms are 5e-324 and 1e-323
+        if      (t == 1) { f = 5; e = -324; }
+        else if (t == 2) { f = 1; e = -323; }
+        else             { f = 0; e = 0; }
+      }
+      else
+      {
+        toDecimal( Q_MIN, t, 0 );
+      }
+    }
+
+    void toDecimal( int q, long c, int dk )
+    {
+      int out = (int) c & 1;
+      long cb = c << 2;
+      long cbr = cb + 2;
+      long cbl;
+      int k;
+      if (c != C_MIN | q == Q_MIN)
+      {
+        cbl = cb - 2;
+        k = flog10pow2( q );
+      }
+      else
+      {
+        cbl = cb - 1;
+        k = flog10threeQuartersPow2( q );
+      }
+      int h = q + flog2pow10( -k ) + 2;
+
+      long g1 = g[ (k - K_MIN) << 1 ];
+      long g0 = g[ ((k - K_MIN) << 1) + 1 ];
+
+      long vb  = rop( g1, g0, cb << h );
+      long vbl = rop( g1, g0, cbl << h );
+      long vbr = rop( g1, g0, cbr << h );
+
+      long s = vb >> 2;
+      if (s >= 100)
+      {
+        // Try for one digit fewer
+        long sp10 = 10 * multiplyHigh( s, 115292150460684698L << 4 );
+        long tp10 = sp10 + 10;
+        boolean upin = (vbl + out <= sp10 << 2);
+        boolean wpin = ((tp10 << 2) + out <= vbr);
+        if (upin != wpin)
+        {
+          f = upin ? sp10 : tp10;
+          e = k;
+          return;
+        }
+      }
+
+      long t = s + 1;
+      boolean uin = (vbl + out <= s << 2);
+      boolean win = ((t << 2) + out <= vbr);
+      e = k + dk;
+      if (uin != win)
+      {
+        f = uin ? s : t;
+        return;
+      }
+      long cmp = vb - ((s + t) << 1);
+      f = (cmp < 0 || (cmp == 0 && (s & 1) == 0)) ? s : t;
+    }
+
+    static int flog10pow2( int q )
+    {
+      return (int) ((q * 661971961083L) >> 41);
+    }
+
+    static int flog10threeQuartersPow2( int q )
+    {
+      return (int) ((q * 661971961083L - 274743187321L) >> 41);
+    }
+
+    static int flog2pow10( int q )
+    {
+      return (int) ((q * 913124641741L) >> 38);
+    }
+
+    static long multiplyHigh( long x, long y )
+    {
+      long x1 = x >> 32;
+      long x2 = x & 0xFFFFFFFFL;
+      long y1 = y >> 32;
+      long y2 = y & 0xFFFFFFFFL;
+      long z2 = x2 * y2;
+      long t = x1 * y2 + (z2 >>> 32);
+      long z1 = t & 0xFFFFFFFFL;
+      long z0 = t >> 32;
+      z1 += x2 * y1;
+      return x1 * y1 + z0 + (z1 >> 32);
+    }
+
+    static long rop( long g1, long g0, long cp )
+    {
+      long x1 = multiplyHigh( g0, cp );
+      long y0 = g1 * cp;
+      long y1 = multiplyHigh( g1, cp );
+      long z = (y0 >>> 1) + x1;
+      long vbp = y1 + (z >>> 63);
+      return vbp | (((z & MASK_63) + MASK_63) >>> 63);
+    }
+  }
+
+  // Decimal-to-double conversion. toDouble() handles the common cases exactly
+  // with Clinger's fast path and the Eisel-Lemire algorithm (D. Lemire,
+  // "Number Parsing at a Gigabyte per Second", 2021) and returns NaN when the
+  // caller must fall back to an exact conversion.
+  static class DoubleParser
+  {
+    static final int MIN_EXPONENT = -348;
+    static final int MAX_EXPONENT = 347;
+
+    static final double[] powers_of_ten =
+    {
+      1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+      1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+    // The 128 most significant bits of 10^q (truncated), high word first.
+    static final long[] mantissas_128 = new long[ (MAX_EXPONENT - MIN_EXPONENT + 1) * 2 ];
+
+    static
+    {
+      java.math.BigInteger ten = java.math.BigInteger.TEN;
+      for (int q=MIN_EXPONENT; q<=MAX_EXPONENT; ++q)
+      {
+        java.math.BigInteger value;
+        if (q >= 0)
+        {
+          value = ten.pow( q );
+          int shift = value.bitLength() - 128;
+          value = (shift >= 0) ? value.shiftRight( shift ) : value.shiftLeft( -shift );
+        }
+        else
+        {
+          java.math.BigInteger divisor = ten.pow( -q );
+          value = java.math.BigInteger.ONE.shiftLeft( 127 + divisor.bitLength() ).divide( divisor );
+          int shift = value.bitLength() - 128;
+          if (shift > 0) value = value.shiftRight( shift );
+        }
+        mantissas_128[ (q - MIN_EXPONENT) << 1 ]       = value.shiftRight( 64 ).longValue();
+        mantissas_128[ ((q - MIN_EXPONENT) << 1) + 1 ] = value.longValue();
+      }
+    }
+
+    // Returns w * 10^q (w unsigned) negated if requested, or NaN if the result
+    // can't be determined cheaply.
+    static double toDouble( long w, int q, boolean negative )
+    {
+      if (w == 0) return negative ? -0.0 : 0.0;
+
+      if (w >= 0 && w <= (1L << 53) && q >= -22 && q <= 22)
+      {
+        // Clinger's fast path: both w and 10^|q| are exact doubles
+        double n = (double) w;
+        n = (q < 0) ? n / powers_of_ten[-q] : n * powers_of_ten[q];
+        return negative ? -n : n;
+      }
+
+      if (q < MIN_EXPONENT || q > MAX_EXPONENT) return Double.NaN;
+
+      int lz = Long.numberOfLeadingZeros( w );
+      w <<= lz;
+      long exponent = (((217706L * q) >> 16) + 64 + 1023) - lz;
+
+      int index = (q - MIN_EXPONENT) << 1;
+      long hi_power = mantissas_128[ index ];
+      long lo_power = mantissas_128[ index + 1 ];
+
+      long x_hi = unsignedMultiplyHigh( w, hi_power );
+      long x_lo = w * hi_power;
+
+      if ((x_hi & 0x1FF) == 0x1FF && Long.compareUnsigned(x_lo + w, w) < 0)
+      {
+        // Widen the approximation with the low 64 bits of the power
+        long y_hi = unsignedMultiplyHigh( w, lo_power );
+        long y_lo = w * lo_power;
+        long merged_hi = x_hi;
+        long merged_lo = x_lo + y_hi;
+        if (Long.compareUnsigned(merged_lo, x_lo) < 0) ++merged_hi;
+        if ((merged_hi & 0x1FF) == 0x1FF && merged_lo + 1 == 0 && Long.compareUnsigned(y_lo + w, w) < 0)
+        {
+          return Double.NaN;
+        }
+        x_hi = merged_hi;
+        x_lo = merged_lo;
+      }
+
+      long msb = x_hi >>> 63;
+      long mantissa = x_hi >>> (msb + 9);
+      exponent -= 1 ^ msb;
+
+      // Exactly halfway between two doubles
+      if (x_lo == 0 && (x_hi & 0x1FF) == 0 && (mantissa & 3) == 1) return Double.NaN;
+
+      mantissa += mantissa & 1;
+      mantissa >>>= 1;
+      if ((mantissa >>> 53) > 0)
+      {
+        mantissa >>>= 1;
+        ++exponent;
+      }
+
+      // Subnormal, overflow
+      if (exponent <= 0 || exponent >= 0x7FF) return Double.NaN;
+
+      long bits = (exponent << 52) | (mantissa & 0x000FFFFFFFFFFFFFL);
+      if (negative) bits |= 0x8000000000000000L;
+      return Double.longBitsToDouble( bits );
+    }
+
+    // Exact conversion for the cases toDouble() declines.
+    static double parse( String text )
+    {
+      try
+      {
+        return Double.parseDouble( text );
+      }
+      catch (NumberFormatException ignore)
+      {
+        return 0.0;
+      }
+    }
+
+    // Parses a number token such as JSONTokenizer collects. Leading '-' and
+    // spaces after it are allowed.
+    static double parse( char[] text, int start, int end )
+    {
+      int i = start;
+      boolean negative = false;
+      if (i < end && text[i] == '-')
+      {
+        negative = true;
+        ++i;
+      }
+      int digits_start = i;
+
+      long w = 0;
+      int  q = 0;
+      int  digits = 0;
+      boolean truncated = false;
+      boolean fraction = false;
+      for (; i<end; ++i)
+      {
+        char ch = text[ i ];
+        if (ch == '.' && !fraction)
+        {
+          fraction = true;
+        }
+        else if (ch >= '0' && ch <= '9')
+        {
+          if (digits < 19)
+          {
+            w = w * 10 + (ch - '0');
+            if (fraction) --q;
+            if (w != 0) ++digits;
+          }
+          else if (ch != '0')
+          {
+            truncated = true;
+            if ( !fraction) ++q;
+          }
+          else if ( !fraction)
+          {
+            ++q;
+          }
+        }
+        else
+        {
+          break;
+        }
+      }
+
+      if (i < end && (text[i] == 'e' || text[i] == 'E'))
+      {
+        ++i;
+        boolean negexp = false;
+        if (i < end && (text[i] == '+' || text[i] == '-')) negexp = (text[i++] == '-');
+        int power = 0;
+        for (; i<end && text[i]>='0' && text[i]<='9'; ++i)
+        {
+          if (power < 100000) power = power * 10 + (text[i] - '0');
+        }
+        q += negexp ? -power : power;
+      }
+
+      double n = truncated ? Double.NaN : toDouble( w, q, negative );
+      if (Double.isNaN(n))
+      {
+        n = parse( new String(text,digits_start,end-digits_start) );
+        if (negative) n = -n;
+      }
+      return n;
+    }
+
+    static long unsignedMultiplyHigh( long x, long y )
+    {
+      return DoubleFormatter.multiplyHigh( x, y ) + ((x >> 63) & y) + ((y >> 63) & x);
+    }
+  }
+
+  static class JSONReader
+  {
+    StringBuilder parse_buffer = new StringBuilder();
+    HashMap<String,String> consolidation_table = new HashMap<String,String>();
+
+    String data;
+    int count;
+    int position;
+    boolean scanned_ascii = true;
+    boolean lazy;
+    byte[]  strict_stack = new byte[ 16 ];  // see skipStrictContainer()
+    String  projected_key;  // see parseProjectedKey()
+    long    scanned_integer;  // see scanNumber()
+    double  scanned_real;
+
+    JSONReader( String source )
+    {
+      data = source;
+      count = source.length();
+      if (count >= 1 && source.charAt(0) == 0xFEFF)
+      {
+        // Discard Byte Order Mark (BOM)
+        position = 1;
+      }
+      else if (count >= 3 && source.charAt(0) == 0xEF && source.charAt(1) == 0xBB && source.charAt(2) == 0xBF)
+      {
+        // Discard Byte Order Mark (BOM)
+        position = 3;
+      }
+    }
+
+    JSONReader()
+    {
+    }
+
+    // Returns a reader over the UTF-8 contents of the given file. Larger files
+    // are memory-mapped and parsed in place.
+    static JSONReader open( File file )
+    {
+      try
+      {
+        return UTF8Reader.map( file );
+      }
+      catch (Exception err)
+      {
+        return new JSONReader( "" );
+      }
+    }
+
+    char charAt( int index )
+    {
+      return data.charAt( index );
+    }
+
+    String consolidate( String st )
+    {
+      String consolidated = consolidation_table.get( st );
+      if (consolidated != null) return consolidated;
+      consolidation_table.put( st, st );
+      return st;
+    }
+
+    boolean consume( char ch )
+    {
+      if (position == count) return false;
+      if (ch != charAt(position)) return false;
+      ++position;
+      return true;
+    }
+
+    void consumeSpacesAndEOLs()
+    {
+      while (position < count)
+      {
+        char ch = charAt( position );
+        if (ch != ' ' && ch != '\t' && ch != '\n' && ch != '\r') return;
+        ++position;
+      }
+    }
+
+    boolean hasAnother()
+    {
+      return position < count;
+    }
+
+    JValue parseValue()
+    {
+      consumeSpacesAndEOLs();
+
+      if ( !hasAnother() ) return UndefinedValue.singleton;
+
+      char ch = peek();
+      if (ch == '{' || ch == '[')
+      {
+        if ( !lazy ) return (ch == '{') ? parseTable() : parseList();
+
+        // Record the span only; see LazyTableValue / LazyListValue. Relaxed
+        // syntax is parsed now so that errors surface as they do in parse().
+        int start = position;
+        if ( !skipStrictContainer() ) return (ch == '{') ? parseTable() : parseList();
+        if (ch == '{') return new LazyTableValue( this, start, position );
+        else           return new LazyListValue( this, start, position );
+      }
+
+      if (ch == '-')              return parseNumber();
+      if (ch >= '0' && ch <= '9') return parseNumber();
+
+      if (ch == '"' || ch == '\'')
+      {
+        String result = parseString();
+        if (result.length() == 0) return StringValue.empty_singleton;
+
+        char first_ch = result.charAt( 0 );
+        if (first_ch == 't' && result.equals("true"))  return LogicalValue.true_singleton;
+        if (first_ch == 'f' && result.equals("false")) return LogicalValue.false_singleton;
+        if (first_ch == 'n' && result.equals("null"))  return NullValue.singleton;
+
+        return new StringValue( result );
+      }
+      else if (nextIsIdentifier())
+      {
+        String result = parseIdentifier();
+        if (result.length() == 0) return StringValue.empty_singleton;
+
+        char first_ch = result.charAt( 0 );
+        if (first_ch == 't' && result.equals("true"))  return LogicalValue.true_singleton;
+        if (first_ch == 'f' && result.equals("false")) return LogicalValue.false_singleton;
+        if (first_ch == 'n' && result.equals("null"))  return NullValue.singleton;
+
+        return new StringValue( result );
+      }
+      else
+      {
+        return UndefinedValue.singleton;
+      }
+    }
+
+    JValue parseTable()
+    {
+      return parseTable( new TableValue() );
+    }
+
+    JValue parseTable( JValue table )
+    {
+      consumeSpacesAndEOLs();
+
+      if ( !consume('{')) return UndefinedValue.singleton;
+
+      consumeSpacesAndEOLs();
+
+      if (consume('}')) return table;
+
+      int prev_pos = position;
+      boolean first = true;
+      while (first || consume(',') || (hasAnother() && peek()!='}' && position>prev_pos))
+      {
+        first = false;
+        prev_pos = position;
+
+        consumeSpacesAndEOLs();
+
+        if (nextIsIdentifier())
+        {
+          String key = parseKey();
+          consumeSpacesAndEOLs();
+
+          if (key.length() > 0)
+          {
+            if (consume(':'))
+            {
+              consumeSpacesAndEOLs();
+              JValue value = parseValue();
+              table.set( key, value );
+            }
+            else
+            {
+              table.set( key, JValue.logical(true) );
+            }
+            consumeSpacesAndEOLs();
+          }
+        }
+      }
+
+      if ( !consume('}')) throw new JSONParseError( "'}' expected." );
+
+      return table;
+    }
+
+    JValue parseList()
+    {
+      return parseList( new ListValue() );
+    }
+
+    JValue parseList( JValue list )
+    {
+      consumeSpacesAndEOLs();
+
+      if ( !consume('[')) return UndefinedValue.singleton;
+
+      consumeSpacesAndEOLs();
+
+      if (consume(']')) return list;
+
+      int prev_pos = position;
+      boolean first = true;
+      while (first || consume(',') || (hasAnother() && peek()!=']' && position>prev_pos))
+      {
+        first = false;
+        prev_pos = position;
+        consumeSpacesAndEOLs();
+        if (peek() == ']') break;
+        list.add( parseValue() );
+        consumeSpacesAndEOLs();
+      }
+
+      if ( !consume(']')) throw new JSONParseError( "']' expected." );
+
+      return list;
+    }
+
+    // Like parseValue() but builds only what 'projection' selects, or
+    // undefined if it selects nothing here. Other values are stepped over.
+    JValue parseValue( Projection projection )
+    {
+      if (projection.all) return parseValue();
+
+      consumeSpacesAndEOLs();
+      char ch = peek();
+      if (ch == '{') return parseTable( new TableValue(), projection );
+      if (ch == '[') return parseList( new ListValue(), projection );
+      skipValue();
+      return UndefinedValue.singleton;
+    }
+
+    JValue parseTable( JValue table, Projection projection )
+    {
+      consumeSpacesAndEOLs();
+
+      if ( !consume('{')) return UndefinedValue.singleton;
+
+      consumeSpacesAndEOLs();
+
+      if (consume('}')) return table;
+
+      int prev_pos = position;
+      boolean first = true;
+      while (first || consume(',') || (hasAnother() && peek()!='}' && position>prev_pos))
+      {
+        first = false;
+        prev_pos = position;
+
+        consumeSpacesAndEOLs();
+
+        if (nextIsIdentifier())
+        {
+          Projection selected = parseProjectedKey( projection );
+          String key = projected_key;
+          consumeSpacesAndEOLs();
+
+          if (consume(':'))
+          {
+            consumeSpacesAndEOLs();
+            if (selected == null)
+            {
+              skipValue();
+            }
+            else
+            {
+              JValue value = parseValue( selected );
+              if ( !value.isUndefined() ) table.set( key, value );
+            }
+          }
+          else if (selected != null && selected.all)
+          {
+            table.set( key, JValue.logical(true) );
+          }
+          consumeSpacesAndEOLs();
+        }
+      }
+
+      if ( !consume('}')) throw new JSONParseError( "'}' expected." );
+
+      return table;
+    }
+
+    JValue parseList( JValue list, Projection projection )
+    {
+      consumeSpacesAndEOLs();
+
+      if ( !consume('[')) return UndefinedValue.singleton;
+
+      consumeSpacesAndEOLs();
+
+      if (consume(']')) return list;
+
+      int prev_pos = position;
+      int index = 0;
+      boolean first = true;
+      while (first || consume(',') || (hasAnother() && peek()!=']' && position>prev_pos))
+      {
+        first = false;
+        prev_pos = position;
+        consumeSpacesAndEOLs();
+        if (peek() == ']') break;
+
+        Projection selected = projection.element( index++ );
+        if (selected == null)
+        {
+          skipValue();
+        }
+        else
+        {
+          JValue value = parseValue( selected );
+          if ( !value.isUndefined() )
+          {
+            while (list.count() < index-1) list.add( NullValue.singleton );
+            list.add( value );
+          }
+        }
+        consumeSpacesAndEOLs();
+      }
+
+      if ( !consume(']')) throw new JSONParseError( "']' expected." );
+
+      return list;
+    }
+
+    // Reads a table key and returns the projection of its value, or null if
+    // the value isn't selected. The key of a selected value is left in
+    // 'projected_key'; other keys are compared in place without building a
+    // String.
+    Projection parseProjectedKey( Projection projection )
+    {
+      consumeSpacesAndEOLs();
+
+      int start = position;
+      int end;
+      char ch = peek();
+      if (ch == '"' || ch == '\'')
+      {
+        ++position;
+        end = scanString( ch );
+        if (end < 0 || !scanned_ascii)
+        {
+          position = start;
+          String key = parseString();
+          Projection selected = projection.member( key );
+          if (selected == null) selected = projection.wildcard;
+          projected_key = key;
+          return selected;
+        }
+        ++start;
+        position = end + 1;
+      }
+      else
+      {
+        while (hasAnother() && isIdentifierStart(charAt(position))) ++position;
+        if (position == start) throw new JSONParseError( "Identifier expected." );
+        end = position;
+      }
+
+      Projection selected = projection.member( this, start, end );
+      if (selected != null)
+      {
+        projected_key = selected.name;
+        return selected;
+      }
+      if (projection.wildcard == null) return null;
+
+      KeyPool pool = KeyPool.shared;
+      projected_key = (pool != null) ? lookupKey( pool, start, end ) : consolidate( substring(start,end,true) );
+      return projection.wildcard;
+    }
+
+    // Like parseValue() but appends the value to 'tape' instead of building it.
+    void parseValue( Tape tape )
+    {
+      consumeSpacesAndEOLs();
+
+      char ch = peek();
+      if ( !hasAnother() )
+      {
+        tape.add( Tape.UNDEFINED );
+      }
+      else if (ch == '{')
+      {
+        parseTable( tape );
+      }
+      else if (ch == '[')
+      {
+        parseList( tape );
+      }
+      else if (ch == '-' || (ch >= '0' && ch <= '9'))
+      {
+        if (scanNumber()) tape.addInteger( scanned_integer );
+        else              tape.addReal( scanned_real );
+      }
+      else if (ch == '"' || ch == '\'' || nextIsIdentifier())
+      {
+        parseString( tape );
+        tape.resolveLiteral();
+      }
+      else
+      {
+        tape.add( Tape.UNDEFINED );
+      }
+    }
+
+    void parseTable( Tape tape )
+    {
+      consume( '{' );
+      int start = tape.open( Tape.TABLE );
+      int n = 0;
+
+      consumeSpacesAndEOLs();
+      if ( !consume('}') )
+      {
+        int prev_pos = position;
+        boolean first = true;
+        while (first || consume(',') || (hasAnother() && peek()!='}' && position>prev_pos))
+        {
+          first = false;
+          prev_pos = position;
+
+          consumeSpacesAndEOLs();
+
+          if (nextIsIdentifier())
+          {
+            int word_mark = tape.word_count;
+            int string_mark = tape.string_count;
+            if (parseString(tape) > 0)
+            {
+              consumeSpacesAndEOLs();
+              if (consume(':'))
+              {
+                consumeSpacesAndEOLs();
+                parseValue( tape );
+              }
+              else
+              {
+                tape.add( Tape.TRUE );
+              }
+              consumeSpacesAndEOLs();
+              ++n;
+            }
+            else
+            {
+              tape.truncate( word_mark, string_mark );
+            }
+          }
+        }
+
+        if ( !consume('}')) throw new JSONParseError( "'}' expected." );
+      }
+
+      if (n > 1) n = tape.resolveDuplicateKeys( start );
+      tape.close( start, Tape.TABLE_END, n );
+    }
+
+    void parseList( Tape tape )
+    {
+      consume( '[' );
+      int start = tape.open( Tape.LIST );
+      int n = 0;
+
+      consumeSpacesAndEOLs();
+      if ( !consume(']') )
+      {
+        int prev_pos = position;
+        boolean first = true;
+        while (first || consume(',') || (hasAnother() && peek()!=']' && position>prev_pos))
+        {
+          first = false;
+          prev_pos = position;
+          consumeSpacesAndEOLs();
+          if (peek() == ']') break;
+          parseValue( tape );
+          ++n;
+          consumeSpacesAndEOLs();
+        }
+
+        if ( !consume(']')) throw new JSONParseError( "']' expected." );
+      }
+
+      tape.close( start, Tape.LIST_END, n );
+    }
+
+    // Appends the string or identifier at the current position to 'tape' and
+    // returns its length in bytes. Strings without escapes are copied
+    // straight from the source.
+    int parseString( Tape tape )
+    {
+      consumeSpacesAndEOLs();
+
+      int start = position;
+      char ch = peek();
+      if (ch == '"' || ch == '\'')
+      {
+        ++position;
+        int end = scanString( ch );
+        if (end < 0)
+        {
+          position = start;
+          return tape.addString( parseString() );
+        }
+        position = end + 1;
+        return tape.addString( this, start+1, end );
+      }
+
+      while (hasAnother() && isIdentifierStart(charAt(position))) ++position;
+      if (position == start) throw new JSONParseError( "Identifier expected." );
+      return tape.addString( this, start, position );
+    }
+
+    // Parses comma-separated values up to the end of input into 'list'.
+    void parseElements( JValue list )
+    {
+      consumeSpacesAndEOLs();
+      while (hasAnother())
+      {
+        int prev_pos = position;
+        list.add( parseValue() );
+        consumeSpacesAndEOLs();
+        consume( ',' );
+        consumeSpacesAndEOLs();
+        if (position == prev_pos) throw new JSONParseError( "']' expected." );
+      }
+    }
+
+    // Returns a reader over [start,end) of the same source.
+    JSONReader span( int start, int end )
+    {
+      JSONReader reader = new JSONReader();
+      reader.data = data;
+      reader.position = start;
+      reader.count = end;
+      return reader;
+    }
+
+    // Steps over the list that starts at the current position and returns
+    // the positions that divide its elements into runs of at least
+    // 'chunk_size' characters: the first just past '[', then one past every
+    // chosen top-level comma, and last the closing ']'.
+    int[] splitList( int chunk_size )
+    {
+      if ( !consume('[')) throw new JSONParseError( "'[' expected." );
+
+      int[] cuts = new int[ 16 ];
+      int n = 0;
+      cuts[ n++ ] = position;
+      int next_cut = position + chunk_size;
+
+      while (position < count)
+      {
+        char ch = charAt( position );
+        switch (ch)
+        {
+          case '{':
+          case '[':
+            skipContainer();
+            break;
+          case '"':
+          case '\'':
+            ++position;
+            skipString( ch );
+            break;
+          case ']':
+            if (n == cuts.length) cuts = Arrays.copyOf( cuts, n+1 );
+            cuts[ n++ ] = position++;
+            return Arrays.copyOf( cuts, n );
+          case '}':
+            throw new JSONParseError( "']' expected." );
+          case ',':
+            ++position;
+            if (position >= next_cut)
+            {
+              if (n == cuts.length) cuts = Arrays.copyOf( cuts, n*2 );
+              cuts[ n++ ] = position;
+              next_cut = position + chunk_size;
+            }
+            break;
+          default:
+            ++position;
+        }
+      }
+      throw new JSONParseError( "']' expected." );
+    }
+
+    String parseString()
+    {
+      consumeSpacesAndEOLs();
+
+      char terminator = '"';
+      if      (consume( '"' ))  terminator = '"';
+      else if (consume( '\'' )) terminator = '\'';
+
+      if ( !hasAnother()) return "";
+
+      int end = scanString( terminator );
+      if (end >= 0)
+      {
+        // No escapes - build the string straight from the input range
+        int start = position;
+        position = end + 1;
+        return consolidate( substring(start,end,scanned_ascii) );
+      }
+
+      StringBuilder buffer = parse_buffer;
+      buffer.setLength( 0 );
+      char ch = read();
+      while (hasAnother() && ch != terminator)
+      {
+        if (ch == '\\')
+        {
+          ch = read();
+          if (ch == 'b')     buffer.append( '\b' );
+          else if (ch == 'f') buffer.append( '\f' );
+          else if (ch == 'n') buffer.append( '\n' );
+          else if (ch == 'r') buffer.append( '\r' );
+          else if (ch == 't') buffer.append( '\t' );
+          else if (ch == 'u') buffer.append( parseHexQuad() );
+          else               buffer.append( ch );
+        }
+        else if (ch < 0x80)
+        {
+          buffer.append( ch );
+        }
+        else
+        {
+          readNonASCII( ch, buffer );
+        }
+        ch = read();
+      }
+
+      return consolidate( buffer.toString() );
+    }
+
+    int hexCharacterToValue( char ch )
+    {
+      if (ch >= '0' && ch <= '9') return (ch - '0');
+      if (ch >= 'A' && ch <= 'Z') return (ch - 'A') + 10;
+      if (ch >= 'a' && ch <= 'z') return (ch - 'a') + 10;
+      return 0;
+    }
+
+    char parseHexQuad()
+    {
+      int code = 0;
+      for (int i=1; i<=4; ++i)
+      {
+        if (hasAnother())
+        {
+          code = (code << 4) | hexCharacterToValue( read() );
+        }
+      }
+      return (char) code;
+    }
+
+    boolean isIdentifierStart( char ch )
+    {
+      return (ch >= 'A' && ch <= 'Z') || (ch >= 'a' && ch <= 'z') || ch == '_';
+    }
+
+    boolean isIdentifierContinuation( char ch )
+    {
+      return (ch >= 'A' && ch <= 'Z') || (ch >= 'a' && ch <= 'z') || (ch >= '0' && ch <= '9') || ch == '_';
+    }
+
+    String parseIdentifier()
+    {
+      consumeSpacesAndEOLs();
+
+      char ch = peek();
+      if (ch == '"' || ch == '\'')
+      {
+        return parseString();
+      }
+      else
+      {
+        int start = position;
+        while (hasAnother() && isIdentifierStart(charAt(position))) ++position;
+
+        if (position == start) throw new JSONParseError( "Identifier expected." );
+        return consolidate( substring(start,position,true) );
+      }
+    }
+
+    // Like parseIdentifier() but resolves the key through the shared KeyPool,
+    // if there is one, without building a String for keys already pooled.
+    String parseKey()
+    {
+      KeyPool pool = KeyPool.shared;
+      if (pool == null) return parseIdentifier();
+
+      consumeSpacesAndEOLs();
+
+      int start = position;
+      char ch = peek();
+      if (ch == '"' || ch == '\'')
+      {
+        ++position;
+        int end = scanString( ch );
+        if (end < 0 || !scanned_ascii)
+        {
+          position = start;
+          return pool.get( parseString() );
+        }
+        position = end + 1;
+        return lookupKey( pool, start+1, end );
+      }
+
+      while (hasAnother() && isIdentifierStart(charAt(position))) ++position;
+      if (position == start) throw new JSONParseError( "Identifier expected." );
+      return lookupKey( pool, start, position );
+    }
+
+    String lookupKey( KeyPool pool, int start, int end )
+    {
+      return pool.get( data, start, end );
+    }
+
+    boolean nextIsIdentifier()
+    {
+      char ch = peek();
+      if (isIdentifierContinuation(ch)) return true;
+      return (ch == '"' || ch == '\'');
+    }
+
+    JValue parseNumber()
+    {
+      if (scanNumber()) return JValue.number( scanned_integer );
+      return JValue.number( scanned_real );
+    }
+
+    // Reads a number without building a value. Returns true with the number
+    // in 'scanned_integer' if it is an exact integer that fits in a long, or
+    // false with it in 'scanned_real'.
+    boolean scanNumber()
+    {
+      consumeSpacesAndEOLs();
+
+      boolean negative = false;
+      if (consume( '-' ))
+      {
+        negative = true;
+        consumeSpacesAndEOLs();
+      }
+
+      // Accumulate up to 19 significant digits as an unsigned long 'w' with a
+      // decimal exponent 'q' so that the value is w * 10^q.
+      int  start = position;
+      long w = 0;
+      int  q = 0;
+      int  digits = 0;
+      boolean truncated = false;
+      boolean is_integer = true;
+
+      char ch = peek();
+      while (hasAnother() && ch >= '0' && ch <= '9')
+      {
+        read();
+        if (digits < 19)
+        {
+          w = w * 10 + (ch - '0');
+          if (w != 0) ++digits;
+        }
+        else
+        {
+          ++q;
+          if (ch != '0') truncated = true;
+        }
+        ch = peek();
+      }
+
+      if (consume( '.' ))
+      {
+        is_integer = false;
+        ch = peek();
+        while (hasAnother() && ch >= '0' && ch <= '9')
+        {
+          read();
+          if (digits < 19)
+          {
+            w = w * 10 + (ch - '0');
+            --q;
+            if (w != 0) ++digits;
+          }
+          else if (ch != '0')
+          {
+            truncated = true;
+          }
+          ch = peek();
+        }
+      }
+
+      if (consume( 'e' ) || consume( 'E' ))
+      {
+        is_integer = false;
+        boolean negexp = false;
+        if ( !consume('+') && consume('-')) negexp = true;
+
+        int power = 0;
+        ch = peek();
+        while (hasAnother() && ch >= '0' && ch <= '9')
+        {
+          read();
+          if (power < 100000) power = power * 10 + (ch - '0');
+          ch = peek();
+        }
+        q += negexp ? -power : power;
+      }
+
+      if (is_integer && q == 0 && !truncated)
+      {
+        // Exact integer if it fits in a long
+        if (w > 0 || (w == 0 && !negative) || (w == Long.MIN_VALUE && negative))
+        {
+          scanned_integer = negative ? -w : w;
+          return true;
+        }
+      }
+
+      double n = truncated ? Double.NaN : DoubleParser.toDouble( w, q, negative );
+      if (Double.isNaN(n))
+      {
+        // Rare: too many digits or too close to a rounding boundary
+        n = DoubleParser.parse( substring(start,position,true) );
+        if (negative) n = -n;
+      }
+
+      scanned_real = n;
+      return false;
+    }
+
+    char peek()
+    {
+      if (position == count) return (char) 0;
+      return charAt( position );
+    }
+
+    char read()
+    {
+      return charAt( position++ );
+    }
+
+    void readNonASCII( char ch, StringBuilder buffer )
+    {
+      buffer.append( ch );
+    }
+
+    // Advances past the table or list that starts at the current position,
+    // matching brackets and stepping over strings without building anything.
+    void skipContainer()
+    {
+      int depth = 0;
+      while (position < count)
+      {
+        char ch = charAt( position++ );
+        switch (ch)
+        {
+          case '{':
+          case '[':
+            ++depth;
+            break;
+          case '}':
+          case ']':
+            if (--depth == 0) return;
+            break;
+          case '"':
+          case '\'':
+            skipString( ch );
+            break;
+        }
+      }
+      throw new JSONParseError( "Unterminated " + ((depth > 0) ? "container." : "input.") );
+    }
+
+    // Advances past the table or list that starts at the current position and
+    // returns true if it is strict JSON that reads back as written: no relaxed
+    // syntax, no empty keys and no "true", "false" or "null" string values,
+    // which parse as literals. Otherwise returns false with the position
+    // unchanged.
+    boolean skipStrictContainer()
+    {
+      final int VALUE = 0, KEY = 1, AFTER_VALUE = 2;
+      int start = position;
+      byte[] stack = strict_stack;  // true for tables
+      int depth = 0;
+      int state = VALUE;
+      for (;;)
+      {
+        consumeSpacesAndEOLs();
+        if (position == count) break;
+        char ch = charAt( position++ );
+        if (state == VALUE)
+        {
+          if (ch == '{' || ch == '[')
+          {
+            if (depth == stack.length) strict_stack = stack = Arrays.copyOf( stack, depth*2 );
+            stack[ depth++ ] = (byte) ch;
+            consumeSpacesAndEOLs();
+            if (position < count && charAt(position) == ((ch == '{') ? '}' : ']'))
+            {
+              ++position;
+              --depth;
+              state = AFTER_VALUE;
+            }
+            else
+            {
+              state = (ch == '{') ? KEY : VALUE;
+            }
+          }
+          else if (ch == '"')
+          {
+            int string_start = position;
+            if ( !skipStrictString() ) break;
+            int n = position - string_start - 1;
+            if (n == 4 || n == 5)
+            {
+              char first = charAt( string_start );
+              if (first == 't' || first == 'f' || first == 'n')
+              {
+                String content = substring( string_start, position-1, true );
+                if (content.equals("true") || content.equals("false") || content.equals("null")) break;
+              }
+            }
+            state = AFTER_VALUE;
+          }
+          else if (ch == '-' || (ch >= '0' && ch <= '9'))
+          {
+            --position;
+            if ( !skipStrictNumber() ) break;
+            state = AFTER_VALUE;
+          }
+          else if (ch == 't' || ch == 'f' || ch == 'n')
+          {
+            String literal = (ch == 't') ? "true" : ((ch == 'f') ? "false" : "null");
+            int i = 1;
+            while (i < literal.length() && position < count && charAt(position) == literal.charAt(i)) { ++position; ++i; }
+            if (i < literal.length()) break;
+            if (position < count && isIdentifierContinuation(charAt(position))) break;
+            state = AFTER_VALUE;
+          }
+          else
+          {
+            break;
+          }
+        }
+        else if (state == KEY)
+        {
+          if (ch != '"' || (position < count && charAt(position) == '"')) break;
+          if ( !skipStrictString() ) break;
+          consumeSpacesAndEOLs();
+          if ( !consume(':') ) break;
+          state = VALUE;
+        }
+        else
+        {
+          byte container = stack[ depth-1 ];
+          if (ch == ',')
+          {
+            state = (container == '{') ? KEY : VALUE;
+          }
+          else if ((ch == '}' && container == '{') || (ch == ']' && container == '['))
+          {
+            --depth;
+          }
+          else
+          {
+            break;
+          }
+        }
+        if (state == AFTER_VALUE && depth == 0) return true;
+      }
+      position = start;
+      return false;
+    }
+
+    // Advances past the rest of a string whose opening quote has been read,
+    // returning false if it is unterminated or not valid strict JSON.
+    boolean skipStrictString()
+    {
+      while (position < count)
+      {
+        char ch = charAt( position++ );
+        if (ch == '"') return true;
+        if (ch < 0x20) return false;
+        if (ch == '\\')
+        {
+          if (position == count) return false;
+          ch = charAt( position++ );
+          if (ch == 'u')
+          {
+            for (int i=0; i<4; ++i)
+            {
+              if (position == count) return false;
+              ch = charAt( position++ );
+              if ( !((ch >= '0' && ch <= '9') || (ch >= 'a' && ch <= 'f') || (ch >= 'A' && ch <= 'F')) ) return false;
+            }
+          }
+          else if ("\"\\/bfnrt".indexOf(ch) < 0)
+          {
+            return false;
+          }
+        }
+      }
+      return false;
+    }
+
+    // Advances past a number, returning false if it is not valid strict JSON.
+    boolean skipStrictNumber()
+    {
+      consume( '-' );
+      if (consume('0'))
+      {
+        if (skipDigits() > 0) return false;
+      }
+      else if (skipDigits() == 0)
+      {
+        return false;
+      }
+      if (consume('.') && skipDigits() == 0) return false;
+      if (consume('e') || consume('E'))
+      {
+        if ( !consume('+') ) consume( '-' );
+        if (skipDigits() == 0) return false;
+      }
+      return position == count || !isIdentifierContinuation( charAt(position) );
+    }
+
+    int skipDigits()
+    {
+      int start = position;
+      while (position < count)
+      {
+        char ch = charAt( position );
+        if (ch < '0' || ch > '9') break;
+        ++position;
+      }
+      return position - start;
+    }
+
+    // Advances past the value at the current position without building it.
+    void skipValue()
+    {
+      consumeSpacesAndEOLs();
+      char ch = peek();
+      if (ch == '{' || ch == '[')
+      {
+        skipContainer();
+      }
+      else if (ch == '"' || ch == '\'')
+      {
+        ++position;
+        skipString( ch );
+      }
+      else
+      {
+        while (position < count)
+        {
+          ch = charAt( position );
+          if (ch == ',' || ch == '}' || ch == ']' || ch == ' ' || ch == '\t' || ch == '\n' || ch == '\r') return;
+          ++position;
+        }
+      }
+    }
+
+    void skipString( char terminator )
+    {
+      while (position < count)
+      {
+        char ch = charAt( position++ );
+        if (ch == terminator) return;
+        if (ch == '\\') ++position;
+      }
+    }
+
+    // Writes [start,end) of the source, a span of strict JSON (see
+    // skipStrictContainer()), leaving out the whitespace between tokens so
+    // that the output is as compact as write() makes it.
+    void writeSpan( int start, int end, JSONWriter writer )
+    {
+      String data = this.data;
+      int run_start = start;
+      boolean in_string = false;
+      for (int i=start; i<end; ++i)
+      {
+        char ch = data.charAt( i );
+        if (in_string)
+        {
+          if (ch == '\\')    ++i;
+          else if (ch == '"') in_string = false;
+        }
+        else if (ch == '"')
+        {
+          in_string = true;
+        }
+        else if (ch == ' ' || ch == '\t' || ch == '\n' || ch == '\r')
+        {
+          if (i > run_start) writer.print( data, run_start, i );
+          run_start = i + 1;
+        }
+      }
+      if (end > run_start) writer.print( data, run_start, end );
+    }
+
+    // Returns the index of the terminator that ends the string starting at the
+    // current position, or -1 if the string contains escapes or is unterminated.
+    int scanString( char terminator )
+    {
+      String data = this.data;
+      for (int i=position; i<count; ++i)
+      {
+        char ch = data.charAt( i );
+        if (ch == terminator) return i;
+        if (ch == '\\') return -1;
+      }
+      return -1;
+    }
+
+    String substring( int start, int end, boolean ascii )
+    {
+      return data.substring( start, end );
+    }
+
+    // Copies [start,end) of the source into 'dest' at 'offset' as UTF-8 and
+    // returns the number of bytes written, at most three per character.
+    int copyUTF8( int start, int end, byte[] dest, int offset )
+    {
+      String data = this.data;
+      int pos = offset;
+      for (int i=start; i<end; ++i)
+      {
+        char ch = data.charAt( i );
+        if (ch < 0x80)
+        {
+          dest[ pos++ ] = (byte) ch;
+        }
+        else if (ch < 0x800)
+        {
+          dest[ pos++ ] = (byte) (0xC0 | (ch >> 6));
+          dest[ pos++ ] = (byte) (0x80 | (ch & 0x3F));
+        }
+        else if (Character.isSurrogate(ch))
+        {
+          if (Character.isHighSurrogate(ch) && i+1 < end && Character.isLowSurrogate(data.charAt(i+1)))
+          {
+            int code = Character.toCodePoint( ch, data.charAt(++i) );
+            dest[ pos++ ] = (byte) (0xF0 | (code >> 18));
+            dest[ pos++ ] = (byte) (0x80 | ((code >> 12) & 0x3F));
+            dest[ pos++ ] = (byte) (0x80 | ((code >> 6) & 0x3F));
+            dest[ pos++ ] = (byte) (0x80 | (code & 0x3F));
+          }
+          else
+          {
+            dest[ pos++ ] = (byte) '?';
+          }
+        }
+        else
+        {
+          dest[ pos++ ] = (byte) (0xE0 | (ch >> 12));
+          dest[ pos++ ] = (byte) (0x80 | ((ch >> 6) & 0x3F));
+          dest[ pos++ ] = (byte) (0x80 | (ch & 0x3F));
+        }
+      }
+      return pos - offset;
+    }
+  }
+
+  // Parses the runs of list elements between successive cut points returned
+  // by JSONReader.splitList(), each with its own reader over the shared source.
+  static class ParallelListParser extends RecursiveAction
+  {
+    private static final long serialVersionUID = 1L;
+
+    static final int MIN_CHUNK_SIZE = 256 * 1024;
+
+    JSONReader   reader;
+    int[]        cuts;
+    ListValue[]  results;
+    int          first;
+    int          last;
+
+    ParallelListParser( JSONReader reader, int[] cuts )
+    {
+      this( reader, cuts, new ListValue[cuts.length-1], 0, cuts.length-1 );
+    }
+
+    ParallelListParser( JSONReader reader, int[] cuts, ListValue[] results, int first, int last )
+    {
+      this.reader = reader;
+      this.cuts = cuts;
+      this.results = results;
+      this.first = first;
+      this.last = last;
+    }
+
+    protected void compute()
+    {
+      if (last - first == 1)
+      {
+        ListValue list = new ListValue();
+        reader.span( cuts[first], cuts[last] ).parseElements( list );
+        results[ first ] = list;
+        return;
+      }
+
+      int mid = (first + last) >>> 1;
+      invokeAll(
+          new ParallelListParser( reader, cuts, results, first, mid ),
+          new ParallelListParser( reader, cuts, results, mid, last )
+      );
+    }
+
+    ListValue joinResults()
+    {
+      ListValue result = new ListValue();
+      for (int i=0; i<results.length; ++i)
+      {
+        ListValue chunk = results[ i ];
+        if (result.data != null && chunk.data != null)
+        {
+          result.data.addAll( chunk.data );
+        }
+        else
+        {
+          for (int j=0, n=chunk.count(); j<n; ++j) result.add( chunk.get(j) );
+        }
+      }
+      return result;
+    }
+  }
+
+  // JSONReader over UTF-8 bytes. Structural characters are all ASCII, so bytes
+  // are read as chars directly and multi-byte sequences are decoded only inside
+  // strings.
+  static class UTF8Reader extends JSONReader
+  {
+    static final int MAP_THRESHOLD = 64 * 1024;
+
+    ByteBuffer bytes;
+    ByteBuffer view;
+    byte[]     array;
+    int        array_offset;
+    byte[]     scratch;
+
+    UTF8Reader( ByteBuffer bytes )
+    {
+      this.bytes = bytes;
+      position = bytes.position();
+      count = bytes.limit();
+      if (bytes.hasArray())
+      {
+        array = bytes.array();
+        array_offset = bytes.arrayOffset();
+      }
+      else
+      {
+        view = bytes.duplicate();
+      }
+      if (count - position >= 3 && (bytes.get(position)&255) == 0xEF
+          && (bytes.get(position+1)&255) == 0xBB && (bytes.get(position+2)&255) == 0xBF)
+      {
+        // Discard Byte Order Mark (BOM)
+        position += 3;
+      }
+    }
+
+    JSONReader span( int start, int end )
+    {
+      ByteBuffer span = bytes.duplicate();
+      span.limit( end );
+      span.position( start );
+      return new UTF8Reader( span );
+    }
+
+    static UTF8Reader map( File file ) throws IOException
+    {
+      FileInputStream in = new FileInputStream( file );
+      try
+      {
+        FileChannel channel = in.getChannel();
+        long size = channel.size();
+        if (size > Integer.MAX_VALUE) throw new IOException( "File too large to parse: " + file );
+
+        ByteBuffer buffer;
+        if (size >= MAP_THRESHOLD)
+        {
+          // The mapping stays valid after the channel is closed.
+          buffer = channel.map( FileChannel.MapMode.READ_ONLY, 0, size );
+        }
+        else
+        {
+          buffer = ByteBuffer.allocate( (int) size );
+          while (buffer.hasRemaining() && channel.read(buffer) >= 0) {}
+          buffer.flip();
+        }
+        return new UTF8Reader( buffer );
+      }
+      finally
+      {
+        in.close();
+      }
+    }
+
+    char charAt( int index )
+    {
+      return (char) (bytes.get(index) & 255);
+    }
+
+    void readNonASCII( char ch, StringBuilder buffer )
+    {
+      int extra;
+      int code;
+      if      ((ch & 0xE0) == 0xC0) { extra = 1; code = ch & 0x1F; }
+      else if ((ch & 0xF0) == 0xE0) { extra = 2; code = ch & 0x0F; }
+      else if ((ch & 0xF8) == 0xF0) { extra = 3; code = ch & 0x07; }
+      else
+      {
+        buffer.append( (char) 0xFFFD );
+        return;
+      }
+
+      while (extra-- > 0)
+      {
+        if (position == count || (charAt(position) & 0xC0) != 0x80)
+        {
+          buffer.append( (char) 0xFFFD );
+          return;
+        }
+        code = (code << 6) | (read() & 0x3F);
+      }
+      buffer.appendCodePoint( code );
+    }
+
+    int scanString( char terminator )
+    {
+      int bits = 0;
+      if (array != null)
+      {
+        byte[] array = this.array;
+        int offset = array_offset;
+        for (int i=position; i<count; ++i)
+        {
+          int b = array[ offset + i ];
+          if (b == terminator) { scanned_ascii = (bits & 0x80) == 0; return i; }
+          if (b == '\\') return -1;
+          bits |= b;
+        }
+      }
+      else
+      {
+        ByteBuffer bytes = this.bytes;
+        for (int i=position; i<count; ++i)
+        {
+          int b = bytes.get( i );
+          if (b == terminator) { scanned_ascii = (bits & 0x80) == 0; return i; }
+          if (b == '\\') return -1;
+          bits |= b;
+        }
+      }
+      return -1;
+    }
+
+    // Decodes [start,end) of the source, leaving out whitespace between
+    // tokens as JSONReader.writeSpan() does.
+    void writeSpan( int start, int end, JSONWriter writer )
+    {
+      boolean in_string = false;
+      int i = start;
+      while (i < end)
+      {
+        int b = charAt( i++ );
+        if (b < 0x80)
+        {
+          if (in_string)
+          {
+            if (b == '\\')
+            {
+              // Escapes are ASCII in strict JSON
+              writer.print( '\\' );
+              b = charAt( i++ );
+            }
+            else if (b == '"')
+            {
+              in_string = false;
+            }
+          }
+          else if (b == '"')
+          {
+            in_string = true;
+          }
+          else if (b == ' ' || b == '\t' || b == '\n' || b == '\r')
+          {
+            continue;
+          }
+          writer.print( (char) b );
+          continue;
+        }
+
+        int extra;
+        int code;
+        if      ((b & 0xE0) == 0xC0) { extra = 1; code = b & 0x1F; }
+        else if ((b & 0xF0) == 0xE0) { extra = 2; code = b & 0x0F; }
+        else if ((b & 0xF8) == 0xF0) { extra = 3; code = b & 0x07; }
+        else                         { extra = 0; code = 0xFFFD; }
+
+        for (; extra>0; --extra)
+        {
+          if (i == end || (charAt(i) & 0xC0) != 0x80)
+          {
+            code = 0xFFFD;
+            break;
+          }
+          code = (code << 6) | (charAt(i++) & 0x3F);
+        }
+
+        if (code < 0x10000)
+        {
+          writer.print( (char) code );
+        }
+        else
+        {
+          writer.print( Character.highSurrogate(code) );
+          writer.print( Character.lowSurrogate(code) );
+        }
+      }
+    }
+
+    // Only called for ASCII keys.
+    String lookupKey( KeyPool pool, int start, int end )
+    {
+      if (array != null) return pool.get( array, array_offset+start, array_offset+end );
+      return pool.get( bytes, start, end );
+    }
+
+    String substring( int start, int end, boolean ascii )
+    {
+      // ISO-8859-1 decoding of pure ASCII is a straight copy
+      Charset charset = ascii ? StandardCharsets.ISO_8859_1 : StandardCharsets.UTF_8;
+      int length = end - start;
+      if (array != null) return new String( array, array_offset+start, length, charset );
+
+      if (scratch == null || scratch.length < length) scratch = new byte[ Math.max(length,256) ];
+      view.position( start );
+      view.get( scratch, 0, length );
+      return new String( scratch, 0, length, charset );
+    }
+
+    // The source is already UTF-8.
+    int copyUTF8( int start, int end, byte[] dest, int offset )
+    {
+      int length = end - start;
+      if (array != null)
+      {
+        System.arraycopy( array, array_offset+start, dest, offset, length );
+      }
+      else
+      {
+        view.position( start );
+        view.get( dest, offset, length );
+      }
+      return length;
+    }
+  }
+
+  // Bounded, set-associative pool of key strings shared by all readers; see
+  // setKeyPoolCapacity(). Keys are hashed in place in the source so that a
+  // pooled key is found without allocating. A new key goes to the front of
+  // its set, evicting the oldest of the set's entries, so rarely seen keys
+  // only ever displace each other or briefly displace a common key.
+  //
+  // Slots are read and written without locking: a race can only lose an
+  // insertion, and String's immutability makes unsynchronized reads safe.
+  static class KeyPool
   {
-    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
-    BufferedWriter writer;
+    static final int WAYS = 4;
+    static final int MAX_KEY_LENGTH = 64;
+
+    static volatile KeyPool shared;
+
+    String[] slots;
+    int      set_mask;
+
+    KeyPool( int capacity )
+    {
+      int sets = Integer.highestOneBit( Math.max(capacity/WAYS,1) );
+      slots = new String[ sets * WAYS ];
+      set_mask = sets - 1;
+    }
+
+    String get( String key )
+    {
+      if (key.length() > MAX_KEY_LENGTH) return key;
+      int hash = key.hashCode();
+      int set = setIndex( hash );
+      for (int i=set; i<set+WAYS; ++i)
+      {
+        String pooled = slots[ i ];
+        if (pooled != null && pooled.hashCode() == hash && pooled.equals(key)) return pooled;
+      }
+      return insert( set, key );
+    }
+
+    String get( String data, int start, int end )
+    {
+      int length = end - start;
+      if (length > MAX_KEY_LENGTH) return data.substring( start, end );
 
-    JSONWriter print( char ch )
+      int hash = 0;
+      for (int i=start; i<end; ++i) hash = 31*hash + data.charAt(i);
+
+      int set = setIndex( hash );
+      for (int i=set; i<set+WAYS; ++i)
+      {
+        String pooled = slots[ i ];
+        if (pooled != null && pooled.hashCode() == hash && pooled.length() == length
+            && pooled.regionMatches(0,data,start,length))
+        {
+          return pooled;
+        }
+      }
+      return insert( set, data.substring(start,end) );
+    }
+
+    String get( char[] text, int start, int end )
     {
-      if (writer == null) writer = new BufferedWriter( new OutputStreamWriter( bytes ), 1024 );
-      try
+      int length = end - start;
+      if (length > MAX_KEY_LENGTH) return new String( text, start, length );
+
+      int hash = 0;
+      for (int i=start; i<end; ++i) hash = 31*hash + text[i];
+
+      int set = setIndex( hash );
+      for (int i=set; i<set+WAYS; ++i)
       {
-        writer.write( ch );
+        String pooled = slots[ i ];
+        if (pooled != null && pooled.hashCode() == hash && matches(pooled,text,start,length)) return pooled;
       }
-      catch (IOException ignore)
+      return insert( set, new String(text,start,length) );
+    }
+
+    // 'bytes' must be ASCII.
+    String get( byte[] bytes, int start, int end )
+    {
+      int length = end - start;
+      if (length > MAX_KEY_LENGTH) return new String( bytes, start, length, StandardCharsets.ISO_8859_1 );
+
+      int hash = 0;
+      for (int i=start; i<end; ++i) hash = 31*hash + bytes[i];
+
+      int set = setIndex( hash );
+      for (int i=set; i<set+WAYS; ++i)
       {
+        String pooled = slots[ i ];
+        if (pooled != null && pooled.hashCode() == hash && pooled.length() == length)
+        {
+          int j = 0;
+          while (j < length && pooled.charAt(j) == bytes[start+j]) ++j;
+          if (j == length) return pooled;
+        }
       }
-      return this;
+      return insert( set, new String(bytes,start,length,StandardCharsets.ISO_8859_1) );
+    }
+
+    // 'bytes' must be ASCII in [start,end).
+    String get( ByteBuffer bytes, int start, int end )
+    {
+      int length = end - start;
+      if (length > MAX_KEY_LENGTH) return toString( bytes, start, end );
+
+      int hash = 0;
+      for (int i=start; i<end; ++i) hash = 31*hash + bytes.get(i);
+
+      int set = setIndex( hash );
+      for (int i=set; i<set+WAYS; ++i)
+      {
+        String pooled = slots[ i ];
+        if (pooled != null && pooled.hashCode() == hash && pooled.length() == length)
+        {
+          int j = 0;
+          while (j < length && pooled.charAt(j) == bytes.get(start+j)) ++j;
+          if (j == length) return pooled;
+        }
+      }
+      return insert( set, toString(bytes,start,end) );
     }
 
-    JSONWriter print( int value )
+    String insert( int set, String key )
     {
-      return print( ""+value );
+      for (int i=set+WAYS-1; i>set; --i) slots[i] = slots[i-1];
+      slots[ set ] = key;
+      return key;
     }
 
-    JSONWriter print( String st )
+    static boolean matches( String pooled, char[] text, int start, int length )
     {
-      if (writer == null) writer = new BufferedWriter( new OutputStreamWriter( bytes ), 1024 );
-      try
+      if (pooled.length() != length) return false;
+      for (int i=0; i<length; ++i)
+      {
+        if (pooled.charAt(i) != text[start+i]) return false;
+      }
+      return true;
+    }
+
+    int setIndex( int hash )
+    {
+      return ((hash ^ (hash >>> 16)) & set_mask) * WAYS;
+    }
+
+    static String toString( ByteBuffer bytes, int start, int end )
+    {
+      char[] text = new char[ end-start ];
+      for (int i=start; i<end; ++i) text[i-start] = (char) bytes.get( i );
+      return new String( text );
+    }
+  }
+
+  // First pass over UTF-8 input that records the position of every
+  // structural character ({}[]:,), both quotes of every string and the start
+  // of every other token, reading the input a 64-bit word at a time (SWAR).
+  // Words with no quotes or backslashes are classified with bit arithmetic,
+  // and whole words inside strings are skipped; only words containing quote
+  // or backslash bytes fall back to a byte-at-a-time state machine.
+  static class StructuralIndex
+  {
+    static final long LOW_7  = 0x7F7F7F7F7F7F7F7FL;
+    static final long HIGH   = 0x8080808080808080L;
+    static final long ONES   = 0x0101010101010101L;
+
+    int[]  positions;
+    int    count;
+    long[] escaped;    // bit k: the string opened by entry k contains escapes
+    long[] non_ascii;  // bit k: the string opened by entry k contains non-ASCII
+
+    // Scanner state
+    int     terminator;  // quote character while inside a string, else 0
+    boolean escape;      // previous string byte was a backslash
+    boolean separated;   // previous byte was whitespace or structural
+    int     string_entry;
+
+    StructuralIndex( ByteBuffer bytes, int start, int end )
+    {
+      int capacity = Math.max( 64, (end - start) >> 3 );
+      positions = new int[ capacity ];
+      escaped   = new long[ (capacity >> 6) + 1 ];
+      non_ascii = new long[ (capacity >> 6) + 1 ];
+      separated = true;
+
+      ByteBuffer words = bytes.duplicate().order( ByteOrder.LITTLE_ENDIAN );
+      int i = start;
+      for (; i+8<=end; i+=8)
       {
-        for (int i=0; i<st.length(); ++i)
+        long word = words.getLong( i );
+        long specials = matches( word, '"' ) | matches( word, '\'' ) | matches( word, '\\' );
+
+        if (terminator != 0)
+        {
+          if (specials == 0 && !escape)
+          {
+            // Entirely inside a string
+            if ((word & HIGH) != 0) non_ascii[ string_entry >>> 6 ] |= 1L << string_entry;
+            continue;
+          }
+        }
+        else if (specials == 0)
         {
-          writer.write( st.charAt(i) );
+          long structural = matches( word, '{' ) | matches( word, '}' ) | matches( word, '[' )
+              | matches( word, ']' ) | matches( word, ':' ) | matches( word, ',' );
+          long separators = structural | matches( word, ' ' ) | matches( word, '\n' )
+              | matches( word, '\t' ) | matches( word, '\r' );
+
+          // Token starts: non-separators whose preceding byte is a separator
+          long starts = ~separators & HIGH & ((separators << 8) | (separated ? 0x80L : 0L));
+          for (long emit=structural|starts; emit!=0; emit&=emit-1)
+          {
+            add( i + (Long.numberOfTrailingZeros(emit) >>> 3) );
+          }
+          separated = (separators < 0);
+          continue;
         }
+
+        for (int j=i; j<i+8; ++j) step( bytes.get(j), j );
       }
-      catch (IOException ignore)
+
+      for (; i<end; ++i) step( bytes.get(i), i );
+    }
+
+    // High bit set in each byte lane of 'word' that equals 'ch'. Exact per lane
+    // since no carries cross lanes.
+    static long matches( long word, char ch )
+    {
+      long t = word ^ (ch * ONES);
+      return ~(((t & LOW_7) + LOW_7) | t) & HIGH;
+    }
+
+    void add( int position )
+    {
+      if (count == positions.length)
       {
+        positions = Arrays.copyOf( positions, count*2 );
+        escaped   = Arrays.copyOf( escaped, (count >> 5) + 1 );
+        non_ascii = Arrays.copyOf( non_ascii, (count >> 5) + 1 );
       }
-      return this;
+      positions[ count++ ] = position;
     }
 
-    public String toString()
+    boolean isEscaped( int entry )
     {
-      if (writer == null) return "";
+      return (escaped[entry >>> 6] & (1L << entry)) != 0;
+    }
 
-      try
+    boolean isNonASCII( int entry )
+    {
+      return (non_ascii[entry >>> 6] & (1L << entry)) != 0;
+    }
+
+    void step( byte b, int i )
+    {
+      if (terminator != 0)
+      {
+        if (escape)
+        {
+          escape = false;
+        }
+        else if (b == '\\')
+        {
+          escape = true;
+          escaped[ string_entry >>> 6 ] |= 1L << string_entry;
+        }
+        else if (b == terminator)
+        {
+          add( i );
+          terminator = 0;
+          separated = true;
+        }
+        else if (b < 0)
+        {
+          non_ascii[ string_entry >>> 6 ] |= 1L << string_entry;
+        }
+        return;
+      }
+
+      switch (b)
       {
-        writer.close();
+        case '"':
+        case '\'':
+          string_entry = count;
+          add( i );
+          terminator = b;
+          break;
+        case '{':
+        case '}':
+        case '[':
+        case ']':
+        case ':':
+        case ',':
+          add( i );
+          separated = true;
+          break;
+        case ' ':
+        case '\t':
+        case '\n':
+        case '\r':
+          separated = true;
+          break;
+        default:
+          if (separated) add( i );
+          separated = false;
       }
-      catch (IOException ignore)
+    }
+  }
+
+  // UTF8Reader whose second pass walks a StructuralIndex: whitespace runs are
+  // skipped in one step, string ends are looked up instead of scanned, and
+  // skipped containers only visit their structural characters.
+  static class IndexedReader extends UTF8Reader
+  {
+    StructuralIndex index;
+    int cursor;
+
+    IndexedReader( ByteBuffer bytes )
+    {
+      super( bytes );
+      index = new StructuralIndex( bytes, position, count );
+    }
+
+    void consumeSpacesAndEOLs()
+    {
+      if (position == count) return;
+      char ch = charAt( position );
+      if (ch != ' ' && ch != '\t' && ch != '\n' && ch != '\r') return;
+
+      // The next indexed position is the next non-whitespace byte
+      int k = seek( position );
+      position = (k < index.count) ? index.positions[k] : count;
+    }
+
+    int scanString( char terminator )
+    {
+      int quote = position - 1;
+      int k = seek( quote );
+      if (k+1 < index.count && index.positions[k] == quote)
       {
+        if (index.isEscaped(k)) return -1;
+        scanned_ascii = !index.isNonASCII( k );
+        cursor = k + 2;
+        return index.positions[ k+1 ];
       }
+      return super.scanString( terminator );
+    }
 
-      String result = bytes.toString();
-      bytes.reset();
-      writer = null;
-      return result;
+    // Returns the first index entry at or after 'pos'.
+    int seek( int pos )
+    {
+      int[] positions = index.positions;
+      int k = cursor;
+      if (k > 0 && k <= index.count && positions[k-1] >= pos)
+      {
+        // Moved backwards (lazy materialization); binary search
+        int lo = 0;
+        int hi = k - 1;
+        while (lo < hi)
+        {
+          int mid = (lo + hi) >>> 1;
+          if (positions[mid] < pos) lo = mid + 1;
+          else                      hi = mid;
+        }
+        k = lo;
+      }
+      int n = index.count;
+      while (k < n && positions[k] < pos) ++k;
+      cursor = k;
+      return k;
+    }
+
+    void skipContainer()
+    {
+      int[] positions = index.positions;
+      int n = index.count;
+      int k = seek( position );
+      if (k == n || positions[k] != position)
+      {
+        super.skipContainer();
+        return;
+      }
+
+      int depth = 0;
+      for (; k<n; ++k)
+      {
+        int p = positions[k];
+        switch (charAt(p))
+        {
+          case '{':
+          case '[':
+            ++depth;
+            break;
+          case '}':
+          case ']':
+            if (--depth == 0)
+            {
+              position = p + 1;
+              cursor = k + 1;
+              return;
+            }
+            break;
+          case '"':
+          case '\'':
+            ++k;  // closing quote
+            break;
+        }
+      }
+      position = count;
+      throw new JSONParseError( "Unterminated container." );
     }
   }
 
-  static class JSONReader
+  static public enum JSONToken
   {
-    StringBuilder parse_buffer = new StringBuilder();
+    START_OBJECT, END_OBJECT, START_ARRAY, END_ARRAY, KEY, STRING, NUMBER, TRUE, FALSE, NULL, END
+  }
+
+  // Pull-style tokenizer that reads UTF-8 from a stream or channel through a
+  // fixed-size buffer. Accepts the same relaxed syntax as JSONReader.
+  //
+  //   JSONTokenizer tokenizer = new JSONTokenizer( in );
+  //   if (tokenizer.next() == JSONToken.START_ARRAY)
+  //   {
+  //     while (tokenizer.next() != JSONToken.END_ARRAY)
+  //     {
+  //       JValue record = tokenizer.readValue();
+  //       ...
+  //     }
+  //   }
+  static public class JSONTokenizer implements Closeable
+  {
+    static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+    static final int MAX_CONSOLIDATED    = 4096;
+
+    static final byte IN_ARRAY  = 1;
+    static final byte IN_OBJECT = 2;
+
+    InputStream         input;
+    ReadableByteChannel channel;
+    ByteBuffer          channel_buffer;
+
+    byte[] buffer;
+    int    position;
+    int    limit;
+    boolean at_eof;
+
+    byte[] stack = new byte[32];
+    int    depth;
+    boolean expect_key;
+    boolean single_line;  // values may not span lines (JSON Lines)
+
+    JSONToken token;
+    char[]    text = new char[64];
+    int       text_count;
     HashMap<String,String> consolidation_table = new HashMap<String,String>();
 
-    StringBuilder data;
-    int count;
-    int position;
+    public JSONTokenizer( InputStream input )
+    {
+      this( input, DEFAULT_BUFFER_SIZE );
+    }
 
-    JSONReader( String source )
+    public JSONTokenizer( InputStream input, int buffer_size )
     {
-      count = source.length();
-      data = new StringBuilder( count );
-      if (count >= 1 && source.charAt(0) == 0xFEFF)
+      this.input = input;
+      buffer = new byte[ Math.max(buffer_size,16) ];
+      skipBOM();
+    }
+
+    public JSONTokenizer( ReadableByteChannel channel )
+    {
+      this( channel, DEFAULT_BUFFER_SIZE );
+    }
+
+    public JSONTokenizer( ReadableByteChannel channel, int buffer_size )
+    {
+      this.channel = channel;
+      buffer = new byte[ Math.max(buffer_size,16) ];
+      channel_buffer = ByteBuffer.wrap( buffer );
+      skipBOM();
+    }
+
+    public void close()
+    {
+      try
       {
-        // Discard Byte Order Mark (BOM)
-        for (int i=1; i<count; ++i)
+        if (input != null)   input.close();
+        if (channel != null) channel.close();
+      }
+      catch (IOException ignore)
+      {
+      }
+    }
+
+    public int depth()
+    {
+      return depth;
+    }
+
+    public JSONToken next()
+    {
+      token = advance();
+      return token;
+    }
+
+    // Materializes the value starting at the current token. Advances first if
+    // there is no current token yet or if the current token is a KEY. On return
+    // the current token is the last token of the value.
+    public JValue readValue()
+    {
+      if (token == null || token == JSONToken.KEY) next();
+      return materialize();
+    }
+
+    // Skips the value starting at the current token without materializing it.
+    public void skipValue()
+    {
+      if (token == null || token == JSONToken.KEY) next();
+      if (token != JSONToken.START_OBJECT && token != JSONToken.START_ARRAY) return;
+      int target = depth - 1;
+      while (depth > target) next();
+    }
+
+    public String stringValue()
+    {
+      if (token == JSONToken.KEY)
+      {
+        KeyPool pool = KeyPool.shared;
+        if (pool != null) return pool.get( text, 0, text_count );
+        return consolidate( new String(text,0,text_count) );
+      }
+      if (token == JSONToken.STRING || token == JSONToken.NUMBER) return new String( text, 0, text_count );
+      if (token == JSONToken.TRUE)  return "true";
+      if (token == JSONToken.FALSE) return "false";
+      if (token == JSONToken.NULL)  return "null";
+      return null;
+    }
+
+    public double doubleValue()
+    {
+      if (token != JSONToken.NUMBER) return 0.0;
+      return DoubleParser.parse( text, 0, text_count );
+    }
+
+    // Returns the current NUMBER token exactly if it is an integer that fits
+    // in a long, otherwise the truncated double value.
+    public long longValue()
+    {
+      if (token != JSONToken.NUMBER) return 0;
+      if (isLongText()) return Long.parseLong( new String(text,0,text_count) );
+      return (long) doubleValue();
+    }
+
+    boolean isLongText()
+    {
+      int i = (text_count > 0 && text[0] == '-') ? 1 : 0;
+      int digits = text_count - i;
+      if (digits == 0 || digits > 19) return false;
+      if (i == 1 && digits == 1 && text[1] == '0') return false;  // -0
+      for (; i<text_count; ++i)
+      {
+        if (text[i] < '0' || text[i] > '9') return false;
+      }
+      if (digits < 19) return true;
+      try
+      {
+        Long.parseLong( new String(text,0,text_count) );
+        return true;
+      }
+      catch (NumberFormatException overflow)
+      {
+        return false;
+      }
+    }
+
+    public JSONToken token()
+    {
+      return token;
+    }
+
+    // Returns the current scalar token as a JValue.
+    public JValue value()
+    {
+      if (token == null) return UndefinedValue.singleton;
+      switch (token)
+      {
+        case STRING:
         {
-          data.append( source.charAt(i) );
+          if (text_count == 0) return StringValue.empty_singleton;
+          String result = new String( text, 0, text_count );
+          char first_ch = result.charAt( 0 );
+          if (first_ch == 't' && result.equals("true"))  return LogicalValue.true_singleton;
+          if (first_ch == 'f' && result.equals("false")) return LogicalValue.false_singleton;
+          if (first_ch == 'n' && result.equals("null"))  return NullValue.singleton;
+          return new StringValue( result );
         }
+        case KEY:    return JValue.string( stringValue() );
+        case NUMBER: return isLongText() ? JValue.number( longValue() ) : JValue.number( doubleValue() );
+        case TRUE:   return LogicalValue.true_singleton;
+        case FALSE:  return LogicalValue.false_singleton;
+        case NULL:   return NullValue.singleton;
+        default:     return UndefinedValue.singleton;
       }
-      else if (count >= 3 && source.charAt(0) == 0xEF && source.charAt(1) == 0xBB && source.charAt(2) == 0xBF)
+    }
+
+    JSONToken advance()
+    {
+      int container = (depth > 0) ? stack[depth-1] : 0;
+
+      if (container == IN_OBJECT && !expect_key)
       {
-        // Discard Byte Order Mark (BOM)
-        for (int i=3; i<count; ++i)
+        // Value following a KEY
+        consumeSpacesAndEOLs();
+        if (peekByte() != ':')
         {
-          data.append( source.charAt(i) );
+          expect_key = true;
+          return JSONToken.TRUE;
         }
+        ++position;
+        consumeSpacesAndEOLs();
+        expect_key = true;
+        if (peekByte() == -1) throw new JSONParseError( "Value expected." );
+        return readValueToken();
       }
-      else
+
+      consumeSeparators( container != 0 );
+      int ch = peekByte();
+
+      if (ch == -1)
+      {
+        if (depth > 0) throw new JSONParseError( "Unexpected end of input." );
+        return JSONToken.END;
+      }
+
+      if (container == IN_OBJECT)
+      {
+        if (ch == '}')
+        {
+          ++position;
+          pop();
+          return JSONToken.END_OBJECT;
+        }
+        if (ch == '"' || ch == '\'' || isIdentifierCharacter(ch))
+        {
+          if (ch == '"' || ch == '\'') readString();
+          else                            readIdentifier();
+          if (text_count == 0) throw new JSONParseError( "Identifier expected." );
+          expect_key = false;
+          return JSONToken.KEY;
+        }
+        throw new JSONParseError( "'}' expected." );
+      }
+
+      if (container == IN_ARRAY && ch == ']')
+      {
+        ++position;
+        pop();
+        return JSONToken.END_ARRAY;
+      }
+
+      return readValueToken();
+    }
+
+    JSONToken readValueToken()
+    {
+      int ch = peekByte();
+      if (ch == '{')
+      {
+        ++position;
+        push( IN_OBJECT );
+        expect_key = true;
+        return JSONToken.START_OBJECT;
+      }
+      if (ch == '[')
+      {
+        ++position;
+        push( IN_ARRAY );
+        return JSONToken.START_ARRAY;
+      }
+      if (ch == '-' || (ch >= '0' && ch <= '9'))
+      {
+        readNumber();
+        return JSONToken.NUMBER;
+      }
+      if (ch == '"' || ch == '\'')
       {
-        data.append( source );
+        readString();
+        return JSONToken.STRING;
       }
+      if (isIdentifierCharacter(ch))
+      {
+        readIdentifier();
+        if (textEquals("true"))  return JSONToken.TRUE;
+        if (textEquals("false")) return JSONToken.FALSE;
+        if (textEquals("null"))  return JSONToken.NULL;
+        return JSONToken.STRING;
+      }
+      throw new JSONParseError( "Value expected." );
+    }
+
+    JValue materialize()
+    {
+      if (token == null) return UndefinedValue.singleton;
+      switch (token)
+      {
+        case START_OBJECT:
+        {
+          JValue table = new TableValue();
+          while (next() == JSONToken.KEY)
+          {
+            String key = stringValue();
+            next();
+            table.set( key, materialize() );
+          }
+          return table;
+        }
+        case START_ARRAY:
+        {
+          JValue list = new ListValue();
+          while (next() != JSONToken.END_ARRAY)
+          {
+            list.add( materialize() );
+          }
+          return list;
+        }
+        default:
+          return value();
+      }
+    }
+
+    String consolidate( String st )
+    {
+      String consolidated = consolidation_table.get( st );
+      if (consolidated != null) return consolidated;
+      if (consolidation_table.size() >= MAX_CONSOLIDATED) consolidation_table.clear();
+      consolidation_table.put( st, st );
+      return st;
+    }
+
+    void consumeSeparators( boolean allow_commas )
+    {
+      for (;;)
+      {
+        int ch = peekByte();
+        if (ch == ' ' || ch == '\t' || ch == '\r' || (allow_commas && ch == ',')) ++position;
+        else if (ch == '\n' && !(single_line && depth > 0)) ++position;
+        else if (ch == '\n') throw new JSONParseError( "Unexpected end of line." );
+        else return;
+      }
+    }
+
+    void consumeSpacesAndEOLs()
+    {
+      consumeSeparators( false );
     }
 
-    JSONReader( File file )
+    boolean fill()
     {
+      if (at_eof) return false;
       try
       {
-        count = (int) file.length();
-        data = new StringBuilder( count );
-        BufferedReader reader = new BufferedReader( new InputStreamReader( new FileInputStream(file.getPath()) ), 1024 );
-
-        int firstCh = reader.read();
-        if (firstCh != -1 && firstCh != 0xFEFF)
+        int n;
+        if (channel != null)
+        {
+          channel_buffer.clear();
+          do
+          {
+            n = channel.read( channel_buffer );
+          }
+          while (n == 0);
+        }
+        else
         {
-          // Discard Byte Order Mark (BOM)
-          data.append( (char) firstCh );
+          do
+          {
+            n = input.read( buffer, 0, buffer.length );
+          }
+          while (n == 0);
         }
 
-        for (int ch=reader.read(); ch!=-1; ch=reader.read())
+        if (n < 0)
         {
-          data.append( (char) ch );
+          at_eof = true;
+          return false;
         }
-        count = data.length();
-        reader.close();
+        position = 0;
+        limit = n;
+        return true;
       }
-      catch (Exception err)
+      catch (IOException err)
       {
-        data = new StringBuilder();
+        at_eof = true;
+        return false;
       }
     }
 
-    String consolidate( String st )
+    boolean isIdentifierCharacter( int ch )
     {
-      String consolidated = consolidation_table.get( st );
-      if (consolidated != null) return consolidated;
-      consolidation_table.put( st, st );
-      return st;
+      return (ch >= 'A' && ch <= 'Z') || (ch >= 'a' && ch <= 'z') || (ch >= '0' && ch <= '9') || ch == '_';
     }
 
-    boolean consume( char ch )
+    int peekByte()
     {
-      if (position == count) return false;
-      if (ch != data.charAt(position)) return false;
-      ++position;
-      return true;
+      if (position == limit && !fill()) return -1;
+      return buffer[position] & 255;
     }
 
-    boolean consumeEOLs()
+    void pop()
     {
-      boolean consumed_any = false;
-      while (consume('\n') || consume('\r')) consumed_any = true;
-      return consumed_any;
+      --depth;
+      expect_key = (depth > 0 && stack[depth-1] == IN_OBJECT);
     }
 
-    boolean consumeSpaces()
+    void push( byte container )
     {
-      boolean consumed_any = false;
-      while (consume(' ') || consume('\t')) consumed_any = true;
-      return consumed_any;
+      if (depth == stack.length) stack = Arrays.copyOf( stack, depth*2 );
+      stack[depth++] = container;
     }
 
-    void consumeSpacesAndEOLs()
+    int readByte()
     {
-      while (consumeSpaces() || consumeEOLs()) {}
+      if (position == limit && !fill()) return -1;
+      return buffer[position++] & 255;
     }
 
-    boolean hasAnother()
+    void readIdentifier()
     {
-      return position < count;
+      text_count = 0;
+      int ch = peekByte();
+      while (isIdentifierCharacter(ch))
+      {
+        ++position;
+        storeText( (char) ch );
+        ch = peekByte();
+      }
     }
 
-    JValue parseValue()
+    void readNumber()
     {
-      consumeSpacesAndEOLs();
-
-      if ( !hasAnother() ) return UndefinedValue.singleton;
-
-      char ch = peek();
-      if (ch == '{') return parseTable();
-      if (ch == '[') return parseList();
-
-      if (ch == '-')              return parseNumber();
-      if (ch >= '0' && ch <= '9') return parseNumber();
-
-      if (ch == '"' || ch == '\'')
-      {
-        String result = parseString();
-        if (result.length() == 0) return StringValue.empty_singleton;
-
-        char first_ch = result.charAt( 0 );
-        if (first_ch == 't' && result.equals("true"))  return LogicalValue.true_singleton;
-        if (first_ch == 'f' && result.equals("false")) return LogicalValue.false_singleton;
-        if (first_ch == 'n' && result.equals("null"))  return NullValue.singleton;
-
-        return new StringValue( result );
-      }
-      else if (nextIsIdentifier())
+      text_count = 0;
+      if (peekByte() == '-')
       {
-        String result = parseIdentifier();
-        if (result.length() == 0) return StringValue.empty_singleton;
-
-        char first_ch = result.charAt( 0 );
-        if (first_ch == 't' && result.equals("true"))  return LogicalValue.true_singleton;
-        if (first_ch == 'f' && result.equals("false")) return LogicalValue.false_singleton;
-        if (first_ch == 'n' && result.equals("null"))  return NullValue.singleton;
-
-        return new StringValue( result );
+        ++position;
+        storeText( '-' );
+        consumeSpacesAndEOLs();
       }
-      else
+      for (int ch=peekByte(); (ch>='0' && ch<='9') || ch=='.' || ch=='e' || ch=='E' || ch=='+' || ch=='-'; ch=peekByte())
       {
-        return UndefinedValue.singleton;
+        if ((ch == '+' || ch == '-') && text[text_count-1] != 'e' && text[text_count-1] != 'E') break;
+        ++position;
+        storeText( (char) ch );
       }
     }
 
-    JValue parseTable()
+    void readString()
     {
-      consumeSpacesAndEOLs();
-
-      if ( !consume('{')) return UndefinedValue.singleton;
-
-      consumeSpacesAndEOLs();
-
-      JValue table = new TableValue();
-      if (consume('}')) return table;
-
-      int prev_pos = position;
-      boolean first = true;
-      while (first || consume(',') || (hasAnother() && peek()!='}' && position>prev_pos))
+      int terminator = readByte();
+      text_count = 0;
+      for (int ch=readByte(); ch!=terminator; ch=readByte())
       {
-        first = false;
-        prev_pos = position;
-
-        consumeSpacesAndEOLs();
-
-        if (nextIsIdentifier())
+        if (ch == -1) return;
+        if (ch == '\\')
         {
-          String key = parseIdentifier();
-          consumeSpacesAndEOLs();
-
-          if (key.length() > 0)
+          ch = readByte();
+          switch (ch)
           {
-            if (consume(':'))
-            {
-              consumeSpacesAndEOLs();
-              JValue value = parseValue();
-              table.set( key, value );
-            }
-            else
+            case 'b': storeText( '\b' ); break;
+            case 'f': storeText( '\f' ); break;
+            case 'n': storeText( '\n' ); break;
+            case 'r': storeText( '\r' ); break;
+            case 't': storeText( '\t' ); break;
+            case 'u':
             {
-              table.set( key, JValue.logical(true) );
+              int code = 0;
+              for (int i=1; i<=4; ++i)
+              {
+                int digit = readByte();
+                if (digit == -1) break;
+                code = (code << 4) | hexCharacterToValue( digit );
+              }
+              storeText( (char) code );
+              break;
             }
-            consumeSpacesAndEOLs();
+            case -1: return;
+            default: storeText( (char) ch );
           }
         }
+        else if (ch < 0x80)
+        {
+          storeText( (char) ch );
+        }
+        else
+        {
+          storeCodePoint( readUTF8(ch) );
+        }
       }
-
-      if ( !consume('}')) throw new JSONParseError( "'}' expected." );
-
-      return table;
     }
 
-    JValue parseList()
+    int readUTF8( int ch )
     {
-      consumeSpacesAndEOLs();
-
-      if ( !consume('[')) return UndefinedValue.singleton;
-
-      consumeSpacesAndEOLs();
-
-      JValue list = new ListValue();
-      if (consume(']')) return list;
-
-      int prev_pos = position;
-      boolean first = true;
-      while (first || consume(',') || (hasAnother() && peek()!=']' && position>prev_pos))
+      int extra;
+      int code;
+      if      ((ch & 0xE0) == 0xC0) { extra = 1; code = ch & 0x1F; }
+      else if ((ch & 0xF0) == 0xE0) { extra = 2; code = ch & 0x0F; }
+      else if ((ch & 0xF8) == 0xF0) { extra = 3; code = ch & 0x07; }
+      else return 0xFFFD;
+
+      while (extra-- > 0)
       {
-        first = false;
-        prev_pos = position;
-        consumeSpacesAndEOLs();
-        if (peek() == ']') break;
-        list.add( parseValue() );
-        consumeSpacesAndEOLs();
+        int next = peekByte();
+        if ((next & 0xC0) != 0x80) return 0xFFFD;
+        ++position;
+        code = (code << 6) | (next & 0x3F);
       }
-
-      if ( !consume(']')) throw new JSONParseError( "']' expected." );
-
-      return list;
+      return code;
     }
 
-    String parseString()
+    // Consumes the rest of a JSON Lines record's line, which may hold only
+    // spaces after the value.
+    void endLine()
     {
-      consumeSpacesAndEOLs();
-
-      char terminator = '"';
-      if      (consume( '"' ))  terminator = '"';
-      else if (consume( '\'' )) terminator = '\'';
-
-      if ( !hasAnother()) return "";
-
-      StringBuilder buffer = parse_buffer;
-      buffer.setLength( 0 );
-      char ch = read();
-      while (hasAnother() && ch != terminator)
+      for (;;)
       {
-        if (ch == '\\')
-        {
-          ch = read();
-          if (ch == 'b')     buffer.append( '\b' );
-          else if (ch == 'f') buffer.append( '\f' );
-          else if (ch == 'n') buffer.append( '\n' );
-          else if (ch == 'r') buffer.append( '\r' );
-          else if (ch == 't') buffer.append( '\t' );
-          else if (ch == 'u') buffer.append( parseHexQuad() );
-          else               buffer.append( ch );
-        }
-        else
-        {
-          buffer.append( ch );
-        }
-        ch = read();
+        int ch = peekByte();
+        if (ch == ' ' || ch == '\t' || ch == '\r') ++position;
+        else if (ch == '\n') { ++position; return; }
+        else if (ch == -1) return;
+        else throw new JSONParseError( "Unexpected text after value." );
       }
-
-      return consolidate( buffer.toString() );
     }
 
-    int hexCharacterToValue( char ch )
+    // Discards the rest of the current line along with any partially read
+    // containers so that reading can resume after a parse error.
+    void skipLine()
     {
-      if (ch >= '0' && ch <= '9') return (ch - '0');
-      if (ch >= 'A' && ch <= 'Z') return (ch - 'A') + 10;
-      if (ch >= 'a' && ch <= 'z') return (ch - 'a') + 10;
-      return 0;
+      depth = 0;
+      expect_key = false;
+      token = null;
+      for (int ch=readByte(); ch!=-1 && ch!='\n'; ch=readByte()) {}
     }
 
-    char parseHexQuad()
+    // Copies up to 'max_lines' lines of unread input into 'out' and returns
+    // the number of lines copied.
+    int copyLines( ByteArrayOutputStream out, int max_lines )
     {
-      int code = 0;
-      for (int i=1; i<=4; ++i)
+      int lines = 0;
+      while (lines < max_lines)
       {
-        if (hasAnother())
+        if (position == limit && !fill()) return lines + 1;
+        int i = position;
+        while (i < limit && buffer[i] != '\n') ++i;
+        if (i < limit)
         {
-          code = (code << 4) | hexCharacterToValue( read() );
+          ++i;
+          ++lines;
         }
+        out.write( buffer, position, i-position );
+        position = i;
       }
-      return (char) code;
-    }
-
-    boolean isIdentifierStart( char ch )
-    {
-      return (ch >= 'A' && ch <= 'Z') || (ch >= 'a' && ch <= 'z') || ch == '_';
-    }
-
-    boolean isIdentifierContinuation( char ch )
-    {
-      return (ch >= 'A' && ch <= 'Z') || (ch >= 'a' && ch <= 'z') || (ch >= '0' && ch <= '9') || ch == '_';
+      return lines;
     }
 
-    String parseIdentifier()
+    // Discards a UTF-8 Byte Order Mark. Reads may return fewer bytes than
+    // asked for, so reads continue until three bytes are buffered or the
+    // input ends.
+    void skipBOM()
     {
-      consumeSpacesAndEOLs();
-
-      char ch = peek();
-      if (ch == '"' || ch == '\'')
-      {
-        return parseString();
-      }
-      else
+      try
       {
-        StringBuilder buffer = parse_buffer;
-        buffer.setLength( 0 );
-        boolean finished = false;
-        while ( !finished && hasAnother() )
+        while (limit < 3 && !at_eof)
         {
-          if (isIdentifierStart(ch))
+          int n;
+          if (channel != null)
           {
-            read();
-            buffer.append( ch );
-            ch = peek();
+            channel_buffer.limit( buffer.length );
+            channel_buffer.position( limit );
+            n = channel.read( channel_buffer );
           }
           else
           {
-            finished = true;
+            n = input.read( buffer, limit, buffer.length-limit );
           }
+          if (n < 0) at_eof = true;
+          else       limit += n;
         }
-
-        if (buffer.length() == 0) throw new JSONParseError( "Identifier expected." );
-        return consolidate( buffer.toString() );
       }
-    }
+      catch (IOException err)
+      {
+        at_eof = true;
+      }
 
-    boolean nextIsIdentifier()
-    {
-      char ch = peek();
-      if (isIdentifierContinuation(ch)) return true;
-      return (ch == '"' || ch == '\'');
+      if (limit >= 3 && (buffer[0]&255) == 0xEF && (buffer[1]&255) == 0xBB && (buffer[2]&255) == 0xBF)
+      {
+        position = 3;
+      }
     }
 
-    JValue parseNumber()
+    void storeCodePoint( int code )
     {
-      consumeSpacesAndEOLs();
-
-      double sign = 1.0;
-      if (consume( '-' ))
+      if (code < 0x10000)
       {
-        sign = -1.0;
-        consumeSpacesAndEOLs();
+        storeText( (char) code );
       }
-
-      double n = 0.0;
-      char ch = peek();
-      while (hasAnother() && ch >= '0' && ch <= '9')
+      else
       {
-        read();
-        n = n * 10 + (ch - '0');
-        ch = peek();
+        storeText( Character.highSurrogate(code) );
+        storeText( Character.lowSurrogate(code) );
       }
+    }
 
-      boolean is_real = false;
+    void storeText( char ch )
+    {
+      if (text_count == text.length) text = Arrays.copyOf( text, text_count*2 );
+      text[text_count++] = ch;
+    }
 
-      if (consume( '.' ))
+    boolean textEquals( String st )
+    {
+      if (text_count != st.length()) return false;
+      for (int i=0; i<text_count; ++i)
       {
-        is_real = true;
-        double decimal = 0.0;
-        double power = 0.0;
-        ch = peek();
-        while (hasAnother() && ch >= '0' && ch <= '9')
-        {
-          read();
-          decimal = decimal * 10 + (ch - '0');
-          power += 1.0;
-          ch = peek();
-        }
-        n += decimal / (Math.pow(10.0,power));
+        if (text[i] != st.charAt(i)) return false;
       }
+      return true;
+    }
 
-      if (consume( 'e' ) || consume( 'E' ))
-      {
-        boolean negexp = false;
-        if ( !consume('+') && consume('-')) negexp = true;
+    static int hexCharacterToValue( int ch )
+    {
+      if (ch >= '0' && ch <= '9') return (ch - '0');
+      if (ch >= 'A' && ch <= 'Z') return (ch - 'A') + 10;
+      if (ch >= 'a' && ch <= 'z') return (ch - 'a') + 10;
+      return 0;
+    }
+  }
 
-        double power = 0.0;
-        ch = peek();
-        while (hasAnother() && ch >= '0' && ch <= '9')
-        {
-          read();
-          power = power * 10.0 + (ch - '0');
-          ch = peek();
-        }
+  // Spliterator over the top-level values of a JSON Lines input. Splitting
+  // copies the next batch of raw lines so that it can be parsed by another
+  // thread; batches grow as the input is consumed and are not split further.
+  static class LineSpliterator implements Spliterator<JValue>
+  {
+    static final int INITIAL_BATCH_LINES = 1024;
+    static final int MAX_BATCH_LINES     = 32 * 1024;
 
-        if (negexp) n /= Math.pow(10,power);
-        else        n *= Math.pow(10,power);
-      }
+    JSONTokenizer tokenizer;
+    long size = Long.MAX_VALUE;  // line count of a batch, else unknown
+    int  batch_lines = INITIAL_BATCH_LINES;
+
+    LineSpliterator( JSONTokenizer tokenizer )
+    {
+      this.tokenizer = tokenizer;
+      tokenizer.single_line = true;
+    }
 
-      n = n * sign;
+    LineSpliterator( JSONTokenizer tokenizer, long size )
+    {
+      this( tokenizer );
+      this.size = size;
+    }
 
-      return JValue.number( n );
+    public int characteristics()
+    {
+      return ORDERED | NONNULL;
     }
 
-    char peek()
+    public long estimateSize()
     {
-      if (position == count) return (char) 0;
-      return data.charAt( position );
+      return size;
     }
 
-    char read()
+    public boolean tryAdvance( Consumer<? super JValue> action )
     {
-      return data.charAt( position++ );
+      JValue value;
+      try
+      {
+        if (tokenizer.next() == JSONToken.END) return false;
+        value = tokenizer.materialize();
+        tokenizer.endLine();
+      }
+      catch (JSONParseError err)
+      {
+        tokenizer.skipLine();
+        value = UndefinedValue.singleton;
+      }
+      action.accept( value );
+      return true;
     }
 
+    public Spliterator<JValue> trySplit()
+    {
+      if (size != Long.MAX_VALUE) return null;
+
+      ByteArrayOutputStream batch = new ByteArrayOutputStream();
+      int lines = tokenizer.copyLines( batch, batch_lines );
+      if (batch.size() == 0) return null;
+
+      batch_lines = Math.min( batch_lines*2, MAX_BATCH_LINES );
+      return new LineSpliterator(
+          new JSONTokenizer( new ByteArrayInputStream(batch.toByteArray()),
+              Math.min(batch.size(),JSONTokenizer.DEFAULT_BUFFER_SIZE) ),
+          lines
+      );
+    }
   }
 
-  static class JSONParseError extends RuntimeException
+  static public class JSONParseError extends RuntimeException
   {
     JSONParseError( String message )
     {
@@ -0,0 +1,42 @@
+package com.github.abepralle.jvalue;
+
+// Runs every test. From the repository root:
+//
+//   javac -d build Source/com/github/abepralle/jvalue/*.java Test/com/github/abepralle/jvalue/*.java
+//   java -cp build com.github.abepralle.jvalue.AllTests
+//
+// Exits with status 1 if any check fails.
+public class AllTests
+{
+  static public void main( String[] args ) throws Exception
+  {
+    ClonedTest.run();
+    PackedListTest.run();
+    HashTest.run();
+    CBORTest.run();
+    LazyTest.run();
+    TapeTest.run();
+    ParallelTest.run();
+    TokenizerTest.run();
+    DoubleFormatterTest.run();
+    DoubleParserTest.run();
+    SnapshotTest.run();
+    LinesTest.run();
+    FileParseTest.run();
+    UTF8Test.run();
+    StreamWriteTest.run();
+    JSONWriterTest.run();
+    IntegerValueTest.run();
+    IndexedParseTest.run();
+    KeyPoolTest.run();
+    ShapeTest.run();
+    OrderedMapTest.run();
+    ImmutableTest.run();
+    ConcurrentTableTest.run();
+    PathTest.run();
+    ProjectionTest.run();
+
+    System.out.println( Check.checks + " checks, " + Check.failures + " failures" );
+    if (Check.failures > 0) System.exit( 1 );
+  }
+}
@@ -0,0 +1,78 @@
+package com.github.abepralle.jvalue;
+
+import java.io.*;
+import java.util.*;
+
+class CBORTest
+{
+  static void run() throws Exception
+  {
+    // Round trips through bytes and through a stream
+    String[] documents =
+    {
+      "null", "true", "false", "0", "-1", "23", "24", "-25", "65536", "4294967296",
+      "9223372036854775807", "-9223372036854775808", "0.5", "-0.0", "1.0E300", "0.1",
+      "\"\"", "\"caf\\u00e9\"", "[]", "{}", "[1,[2,[3]],{\"a\":null}]",
+      "{\"key\":\"value\",\"list\":[1.5,\"x\",true],\"nested\":{\"n\":-7}}"
+    };
+    for (String json : documents)
+    {
+      JValue value = JValue.parse( json );
+      byte[] cbor = value.toCBOR();
+      Check.equal( value.toJSON(), JValue.fromCBOR(cbor).toJSON(), "bytes round trip " + json );
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      Check.isTrue( value.writeCBOR(out), "writeCBOR " + json );
+      Check.equal( value.toJSON(), JValue.fromCBOR(new ByteArrayInputStream(out.toByteArray())).toJSON(), "stream round trip " + json );
+    }
+
+    // Long strings and keys cross the stream reader's buffer
+    char[] chars = new char[ 10000 ];
+    Arrays.fill( chars, 'x' );
+    String long_text = new String( chars );
+    JValue long_doc = JValue.table().set( long_text, long_text );
+    JValue long_read = JValue.fromCBOR( new OneByteStream(long_doc.toCBOR()) );
+    Check.isTrue( long_doc.equals(long_read), "long string and key through a stream" );
+
+    // A stream holds a sequence of values
+    ByteArrayOutputStream sequence = new ByteArrayOutputStream();
+    JValue.number( 1 ).writeCBOR( sequence );
+    JValue.parse( "[2]" ).writeCBOR( sequence );
+    InputStream in = new ByteArrayInputStream( sequence.toByteArray() );
+    Check.json( "1", JValue.fromCBOR(in), "first of sequence" );
+    Check.json( "[2]", JValue.fromCBOR(in), "second of sequence" );
+
+    // Indefinite-length string and list
+    byte[] indefinite = { (byte)0x9F, 0x7F, 0x62, 'a', 'b', 0x61, 'c', (byte)0xFF, 0x01, (byte)0xFF };
+    Check.json( "[\"abc\",1]", JValue.fromCBOR(indefinite), "indefinite lengths" );
+
+    // A declared length larger than the data is undefined rather than an
+    // allocation of that size
+    byte[] huge = { 0x7A, 0x7F, (byte)0xFF, (byte)0xFF, (byte)0xFF };
+    Check.isTrue( JValue.fromCBOR(new ByteArrayInputStream(huge)).isUndefined(), "huge string length from stream" );
+    Check.isTrue( JValue.fromCBOR(huge).isUndefined(), "huge string length from bytes" );
+    byte[] huge_key = { (byte)0xA1, 0x7A, 0x7F, (byte)0xFF, (byte)0xFF, (byte)0xFF };
+    Check.isTrue( JValue.fromCBOR(new ByteArrayInputStream(huge_key)).isUndefined(), "huge key length from stream" );
+    byte[] truncated = Arrays.copyOf( JValue.string(long_text).toCBOR(), 5000 );
+    Check.isTrue( JValue.fromCBOR(new ByteArrayInputStream(truncated)).isUndefined(), "truncated long string" );
+
+    // Packed reals outside the long range stay reals
+    JValue packed = JValue.list( new double[]{ 0.5, 9.223372036854775808E18, -9.223372036854775808E18, 3 } );
+    JValue decoded = JValue.fromCBOR( packed.toCBOR() );
+    Check.isTrue( packed.equals(decoded), "packed reals round trip" );
+    Check.equal( 9.223372036854775808E18, decoded.get(1).toDouble(), "2^63 stays 2^63" );
+  }
+
+  // Returns one byte per read() to exercise buffer refills
+  static class OneByteStream extends ByteArrayInputStream
+  {
+    OneByteStream( byte[] bytes )
+    {
+      super( bytes );
+    }
+
+    public synchronized int read( byte[] bytes, int offset, int count )
+    {
+      return super.read( bytes, offset, Math.min(count,1) );
+    }
+  }
+}
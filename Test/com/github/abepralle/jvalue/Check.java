@@ -0,0 +1,35 @@
+package com.github.abepralle.jvalue;
+
+// Assertion helpers for the tests in this directory, which run without a
+// test framework; see AllTests.
+class Check
+{
+  static int checks;
+  static int failures;
+
+  static void equal( Object expected, Object actual, String what )
+  {
+    ++checks;
+    if (expected == null ? actual == null : expected.equals(actual)) return;
+    ++failures;
+    System.out.println( "FAILED " + what + ": expected <" + expected + "> but was <" + actual + ">" );
+  }
+
+  static void isTrue( boolean condition, String what )
+  {
+    ++checks;
+    if (condition) return;
+    ++failures;
+    System.out.println( "FAILED " + what );
+  }
+
+  static void isFalse( boolean condition, String what )
+  {
+    isTrue( !condition, what );
+  }
+
+  static void json( String expected, JValue actual, String what )
+  {
+    equal( expected, actual.isUndefined() ? "undefined" : actual.toJSON(), what );
+  }
+}
@@ -0,0 +1,146 @@
+package com.github.abepralle.jvalue;
+
+import java.util.*;
+
+class ClonedTest
+{
+  static void run() throws Exception
+  {
+    // A clone is unaffected by later changes to the original, including
+    // changes made through references obtained before cloning
+    JValue doc = JValue.parse( "{\"items\":[1,2],\"t\":{\"a\":1},\"n\":[5]}" );
+    JValue items = doc.ensureList( "items" );
+    JValue t = doc.get( "t" );
+    JValue c = doc.cloned();
+    items.add( 3 );
+    t.set( "b", 2 );
+    doc.get( "n" ).add( 6 );
+    doc.set( "x", 1 );
+    Check.json( "{\"items\":[1,2],\"t\":{\"a\":1},\"n\":[5]}", c, "clone isolated from original" );
+    Check.json( "{\"items\":[1,2,3],\"t\":{\"a\":1,\"b\":2},\"n\":[5,6],\"x\":1}", doc, "original changed" );
+
+    // ...and the other way around
+    c.get( "items" ).add( 9 );
+    c.get( "t" ).remove( "a" );
+    Check.json( "[1,2,3]", doc.get("items"), "original isolated from clone" );
+    Check.json( "{\"a\":1,\"b\":2}", doc.get("t"), "original table isolated from clone" );
+
+    // Packed lists and dictionary tables
+    JValue packed = JValue.list( new long[]{ 1, 2, 3 } );
+    JValue packed_copy = packed.cloned();
+    packed.set( 0, 10 );
+    Check.json( "[1,2,3]", packed_copy, "packed list copied" );
+    JValue dict = JValue.table();
+    for (int i=0; i<40; ++i) dict.set( "k"+i, JValue.list().add(i) );
+    dict.remove( "k0" );
+    JValue dict_copy = dict.cloned();
+    dict.get( "k1" ).add( 0 );
+    Check.json( "[1]", dict_copy.get("k1"), "dictionary table values copied" );
+    Check.equal( 39, dict_copy.count(), "dictionary table count" );
+
+    // Frozen values are shared rather than copied
+    JValue frozen = JValue.parse( "[1,[2]]" ).freeze();
+    JValue holder = JValue.table().set( "f", frozen );
+    Check.isTrue( holder.cloned().get("f") == frozen, "frozen child shared" );
+
+    // Cloning and reading only read the source, so threads may share it
+    final JValue template = JValue.parse( "{\"a\":{\"b\":[1,2,{\"c\":3}]},\"d\":[4,5]}" );
+    final String expected = template.toJSON();
+    final int[] errors = new int[ 1 ];
+    Thread[] threads = new Thread[ 4 ];
+    for (int i=0; i<threads.length; ++i)
+    {
+      threads[i] = new Thread()
+      {
+        public void run()
+        {
+          for (int n=0; n<2000; ++n)
+          {
+            JValue copy = template.cloned();
+            copy.get( "a" ).get( "b" ).add( n );
+            copy.set( "d", 0 );
+            if ( !template.toJSON().equals(expected) ) synchronized (errors) { ++errors[0]; }
+          }
+        }
+      };
+      threads[i].start();
+    }
+    for (Thread thread : threads) thread.join();
+    Check.equal( 0, errors[0], "template unchanged by concurrent clones" );
+    Check.json( expected, template, "template unchanged" );
+
+    // After the first, cloning a large document costs nothing until the
+    // clone is used, and then only for the parts used
+    JValue large = JValue.list();
+    for (int i=0; i<100000; ++i) large.add( JValue.table().set("id",i).set("tags",JValue.list().add(i)) );
+    large.cloned();
+    long start = System.nanoTime();
+    for (int i=0; i<200; ++i)
+    {
+      JValue copy = large.cloned();
+      copy.get( i ).get( "tags" ).add( -1 );
+    }
+    Check.isTrue( System.nanoTime() - start < 1000000000L, "repeated clones copy only what is used" );
+    Check.json( "[5]", large.get(5).get("tags"), "large template unchanged" );
+
+    // Clones of clones, before and after use
+    JValue original = JValue.parse( "{\"a\":[1,{\"b\":2}]}" );
+    JValue first = original.cloned();
+    JValue second = first.cloned();
+    first.get( "a" ).get( 1 ).set( "b", 3 );
+    JValue third = first.cloned();
+    first.get( "a" ).add( 4 );
+    Check.json( "{\"a\":[1,{\"b\":2}]}", original, "original unchanged by clone edits" );
+    Check.json( "{\"a\":[1,{\"b\":2}]}", second, "clone of clone isolated" );
+    Check.json( "{\"a\":[1,{\"b\":3}]}", third, "clone of edited clone" );
+    Check.json( "{\"a\":[1,{\"b\":3},4]}", first, "edited clone" );
+
+    // Changes deep inside, through stale references, after a cached clone
+    JValue nested = JValue.parse( "{\"x\":{\"y\":{\"z\":[1]}}}" );
+    JValue z = nested.get( "x" ).get( "y" ).get( "z" );
+    nested.cloned();
+    z.add( 2 );
+    Check.json( "{\"x\":{\"y\":{\"z\":[1,2]}}}", nested.cloned(), "deep change seen by later clones" );
+    z.set( 0, 0 );
+    Check.json( "{\"x\":{\"y\":{\"z\":[0,2]}}}", nested.cloned(), "deep packed change seen by later clones" );
+
+    // A child moved to another parent still reports changes to the first
+    // while it is held there
+    JValue child = JValue.list().add( 1 );
+    JValue p1 = JValue.list().add( child );
+    JValue p2 = JValue.table();
+    p1.cloned();
+    p2.set( "c", child );
+    p1.cloned();
+    p2.cloned();
+    child.add( 2 );
+    Check.json( "[[1,2]]", p1.cloned(), "first parent sees changes to shared child" );
+    Check.json( "{\"c\":[1,2]}", p2.cloned(), "second parent sees changes to shared child" );
+    p2.remove( "c" );
+    child.add( 3 );
+    Check.json( "[[1,2,3]]", p1.cloned(), "removed child still seen by other parent" );
+
+    // Replaced values no longer affect the table that held them
+    JValue replaced = JValue.list().add( 1 );
+    JValue owner = JValue.table().set( "r", replaced );
+    owner.set( "r", 0 );
+    owner.cloned();
+    replaced.add( 2 );
+    Check.json( "{\"r\":0}", owner.cloned(), "replaced value detached" );
+
+    // Lazily parsed values are read in before being copied
+    JValue lazy = JValue.parseLazy( "[{\"a\":[1]},{\"b\":2}]" );
+    JValue lazy_copy = lazy.cloned();
+    lazy.get( 0 ).get( "a" ).add( 2 );
+    Check.json( "[{\"a\":[1]},{\"b\":2}]", lazy_copy, "lazy list cloned" );
+    Check.json( "[{\"a\":[1,2]},{\"b\":2}]", lazy.cloned(), "lazy list change seen by later clones" );
+
+    // Concurrent tables inside are copied rather than shared
+    JValue concurrent = JValue.concurrentTable().set( "n", 1 );
+    JValue with_concurrent = JValue.list().add( concurrent );
+    JValue concurrent_copy = with_concurrent.cloned();
+    concurrent.set( "n", 2 );
+    Check.json( "[{\"n\":1}]", concurrent_copy, "concurrent table copied" );
+    Check.json( "[{\"n\":2}]", with_concurrent.cloned(), "concurrent table change seen by later clones" );
+  }
+}
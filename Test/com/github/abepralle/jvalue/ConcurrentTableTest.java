@@ -0,0 +1,71 @@
+package com.github.abepralle.jvalue;
+
+import java.util.*;
+
+class ConcurrentTableTest
+{
+  static void run() throws Exception
+  {
+    // Behaves as a table in one thread
+    JValue table = JValue.concurrentTable();
+    table.set( "a", 1 ).set( "b", 2 ).set( "c", 3 );
+    table.set( "a", 10 );
+    table.remove( "b" );
+    table.set( "b", 20 );
+    Check.json( "{\"a\":10,\"c\":3,\"b\":20}", table, "order: replaced in place, re-added last" );
+    Check.isTrue( table.equals(JValue.parse("{\"c\":3,\"b\":20,\"a\":10}")), "equals ignores key order" );
+    Check.equal( JValue.parse("{\"a\":10,\"c\":3,\"b\":20}").hashCode(), table.hashCode(), "hash code matches a table" );
+    Check.equal( "[\"a\",\"c\",\"b\"]", table.keys().toJSON(), "keys" );
+    JValue copy = table.cloned();
+    copy.set( "d", 4 );
+    Check.isFalse( table.contains("d"), "clone is separate" );
+    Check.isTrue( table.ensureTable("nested") == table.ensureTable("nested"), "ensureTable returns the same table" );
+
+    // Writers on several threads: every write lands, and ensureList() hands
+    // every caller the same list
+    final JValue shared = JValue.concurrentTable();
+    final int threads = 4;
+    final int per_thread = 2000;
+    Thread[] workers = new Thread[ threads ];
+    for (int t=0; t<threads; ++t)
+    {
+      final int id = t;
+      workers[t] = new Thread(
+          new Runnable()
+          {
+            public void run()
+            {
+              for (int i=0; i<per_thread; ++i)
+              {
+                shared.set( "t" + id + "_" + i, i );
+                if (i % 2 == 0) shared.remove( "t" + id + "_" + (i/2) );
+                JValue log = shared.ensureList( "log" );
+                synchronized (log) { log.add( id ); }
+                shared.toJSON();  // iterate while others write
+              }
+            }
+          }
+      );
+      workers[t].start();
+    }
+    for (Thread worker : workers) worker.join();
+
+    int expected_count = 1;  // "log"
+    boolean values_right = true;
+    for (int t=0; t<threads; ++t)
+    {
+      Set<Integer> removed = new HashSet<Integer>();
+      for (int i=0; i<per_thread; i+=2) removed.add( i/2 );
+      for (int i=0; i<per_thread; ++i)
+      {
+        JValue value = shared.get( "t" + t + "_" + i );
+        if (removed.contains(i)) values_right &= value.isUndefined();
+        else { values_right &= (value.toLong() == i); ++expected_count; }
+      }
+    }
+    Check.isTrue( values_right, "concurrent sets and removes" );
+    Check.equal( expected_count, shared.count(), "concurrent count" );
+    Check.equal( threads * per_thread, shared.get("log").count(), "ensureList shared by all threads" );
+    Check.equal( expected_count, JValue.parse(shared.toJSON()).count(), "written after concurrent changes" );
+  }
+}
@@ -0,0 +1,60 @@
+package com.github.abepralle.jvalue;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.*;
+
+class DoubleFormatterTest
+{
+  static void run() throws Exception
+  {
+    // Laid out as JavaScript's Number.toString() does
+    double[] values =
+    {
+      0.1, 1.5, 123.456, 0.30000000000000004, 1e21, 1e22, 1e-6, 1e-7, 0.000001234, 2.5e-5,
+      1.2345678901234568e20, 9.223372036854775808E18, Double.MAX_VALUE, Double.MIN_VALUE,
+      2*Double.MIN_VALUE, 3*Double.MIN_VALUE, Double.MIN_NORMAL, -2.5, 5e-324, 1.7e-322
+    };
+    String[] expected =
+    {
+      "0.1", "1.5", "123.456", "0.30000000000000004", "1e+21", "1e+22", "0.000001", "1e-7", "0.000001234", "0.000025",
+      "123456789012345680000", "9223372036854776000", "1.7976931348623157e+308", "5e-324",
+      "1e-323", "1.5e-323", "2.2250738585072014e-308", "-2.5", "5e-324", "1.7e-322"
+    };
+    for (int i=0; i<values.length; ++i)
+    {
+      Check.equal( expected[i], new JValue.NumberValue(values[i]).toJSON(), "format " + values[i] );
+    }
+    Check.equal( "0", new JValue.NumberValue(-0.0).toJSON(), "negative zero" );
+    Check.equal( "null", new JValue.NumberValue(Double.NaN).toJSON(), "NaN" );
+    Check.equal( "null", new JValue.NumberValue(Double.POSITIVE_INFINITY).toJSON(), "infinity" );
+
+    // Random doubles round trip, and no shorter decimal would. Integral values
+    // within the long range are written exactly, as integers are.
+    Random random = new Random( 6 );
+    int round_trip_failures = 0;
+    int shortest_failures = 0;
+    for (int i=0; i<100000; ++i)
+    {
+      double value = Double.longBitsToDouble( random.nextLong() );
+      if (Double.isNaN(value) || Double.isInfinite(value) || value == 0) continue;
+      String json = new JValue.NumberValue( value ).toJSON();
+      if (Double.parseDouble(json) != value) ++round_trip_failures;
+      boolean exact = (value == Math.rint(value) && Math.abs(value) < 9.223372036854775808E18);
+      if ( !exact && !isShortest(json,value) ) ++shortest_failures;
+    }
+    Check.equal( 0, round_trip_failures, "random doubles round trip" );
+    Check.equal( 0, shortest_failures, "random doubles shortest" );
+  }
+
+  // Returns false if a decimal one digit shorter than 'json' reads back as
+  // 'value'. Such a decimal would lie next to 'json' on one side or the other.
+  static boolean isShortest( String json, double value )
+  {
+    BigDecimal decimal = new BigDecimal( json ).stripTrailingZeros();
+    if (decimal.precision() == 1) return true;
+    int scale = decimal.scale() - 1;
+    return decimal.setScale(scale,RoundingMode.FLOOR).doubleValue() != value
+        && decimal.setScale(scale,RoundingMode.CEILING).doubleValue() != value;
+  }
+}
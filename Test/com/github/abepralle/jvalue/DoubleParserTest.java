@@ -0,0 +1,63 @@
+package com.github.abepralle.jvalue;
+
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+class DoubleParserTest
+{
+  static void run() throws Exception
+  {
+    // Cases near rounding boundaries, limits and long digit strings
+    String[] numbers =
+    {
+      "0", "-0", "-0.0", "1", "0.1", "0.1e1", "1E2", "123.456e-7", "0.30000000000000004",
+      "9007199254740993", "9007199254740993.0", "9007199254740993e0", "9223372036854775807",
+      "9223372036854775808", "-9223372036854775808", "-9223372036854775809",
+      "2.2250738585072011e-308", "2.2250738585072012e-308", "4.9406564584124654e-324",
+      "2.4703282292062327e-324", "2.4703282292062328e-324", "1.7976931348623157e308",
+      "1.7976931348623158e308", "1.7976931348623159e308", "1e-400", "1e400", "-1e400",
+      "123456789012345678901234567890", "0.000000000000000000000000000001234567890123456789",
+      "1.00000000000000011102230246251565404236316680908203125",
+      "1.00000000000000011102230246251565404236316680908203124",
+      "1.00000000000000011102230246251565404236316680908203126",
+      "7.038531e-26", "3.4028235677973366e38", "1448997445238699", "1e23", "8.98846567431158e307"
+    };
+    for (String number : numbers) check( number );
+
+    // Random doubles written several ways, and random decimal strings
+    Random random = new Random( 7 );
+    int failures = 0;
+    for (int i=0; i<20000; ++i)
+    {
+      double value = Double.longBitsToDouble( random.nextLong() );
+      if (Double.isNaN(value) || Double.isInfinite(value)) continue;
+      if ( !parsesAs(Double.toString(value)) ) ++failures;
+      if ( !parsesAs(String.format("%.17e",value)) ) ++failures;
+      if ( !parsesAs(String.format("%.25e",value)) ) ++failures;
+
+      StringBuilder decimal = new StringBuilder();
+      if (random.nextBoolean()) decimal.append( '-' );
+      decimal.append( 1 + random.nextInt(9) );
+      for (int d=random.nextInt(25); d>0; --d) decimal.append( random.nextInt(10) );
+      decimal.append( 'e' ).append( random.nextInt(660) - 340 );
+      if ( !parsesAs(decimal.toString()) ) ++failures;
+    }
+    Check.equal( 0, failures, "random numbers parse as Double.parseDouble() does" );
+  }
+
+  static void check( String number )
+  {
+    Check.isTrue( parsesAs(number), "parse " + number );
+  }
+
+  // Returns true if 'number' parses from a String and from UTF-8 to the same
+  // double as Double.parseDouble().
+  static boolean parsesAs( String number )
+  {
+    long expected = Double.doubleToLongBits( Double.parseDouble(number) );
+    JValue from_string = JValue.parse( number );
+    JValue from_utf8 = JValue.parse( number.getBytes(StandardCharsets.UTF_8) );
+    return Double.doubleToLongBits(from_string.toDouble()) == expected
+        && Double.doubleToLongBits(from_utf8.toDouble()) == expected;
+  }
+}
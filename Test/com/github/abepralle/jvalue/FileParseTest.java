@@ -0,0 +1,63 @@
+package com.github.abepralle.jvalue;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+
+class FileParseTest
+{
+  static void run() throws Exception
+  {
+    File file = File.createTempFile( "jvalue", ".json" );
+    file.deleteOnExit();
+
+    // Small files are read and larger ones mapped; both parse alike
+    StringBuilder large = new StringBuilder( "[" );
+    for (int i=0; i<10000; ++i)
+    {
+      if (i > 0) large.append( ',' );
+      large.append( "{\"i\":" ).append( i ).append( ",\"s\":\"caf\u00e9 \\u00e9 \\ud83d\\ude00\"}" );
+    }
+    large.append( ']' );
+    String[] documents = { "{\"a\":[1,2.5,\"\u00e9\u4e2d\ud83d\ude00\"],b:'x'}", large.toString(), "" };
+    for (String json : documents)
+    {
+      write( file, json.getBytes(StandardCharsets.UTF_8) );
+      String expected = JValue.parse( json ).toJSON();
+      String what = (json.length() > 100) ? "large file" : "file " + json;
+      Check.equal( expected, JValue.parse(file).toJSON(), what );
+      Check.equal( expected, JValue.load(file).toJSON(), "load " + what );
+      Check.equal( expected, JValue.parse(JValue.loadLazy(file).toJSON()).toJSON(), "loadLazy " + what );
+      Check.equal( expected, JValue.parseTape(file).toJSON(), "parseTape " + what );
+    }
+
+    // A Byte Order Mark is skipped
+    byte[] json = "[1]".getBytes( StandardCharsets.UTF_8 );
+    write( file, new byte[]{ (byte)0xEF, (byte)0xBB, (byte)0xBF, json[0], json[1], json[2] } );
+    Check.json( "[1]", JValue.parse(file), "BOM in file" );
+
+    // save() writes what parse(File) reads back
+    JValue doc = JValue.parse( documents[0] );
+    Check.isTrue( doc.save(file), "save" );
+    Check.isTrue( doc.equals(JValue.parse(file)), "save round trip" );
+    Check.equal( "[1,2]", JValue.list("[1,2]").toJSON(), "list(String)" );
+    write( file, "{\"k\":1}".getBytes(StandardCharsets.UTF_8) );
+    Check.json( "{\"k\":1}", JValue.table(file), "table(File)" );
+
+    // Missing files are undefined
+    file.delete();
+    Check.isTrue( JValue.parse(file).isUndefined(), "missing file" );
+  }
+
+  static void write( File file, byte[] bytes ) throws IOException
+  {
+    FileOutputStream out = new FileOutputStream( file );
+    try
+    {
+      out.write( bytes );
+    }
+    finally
+    {
+      out.close();
+    }
+  }
+}
@@ -0,0 +1,90 @@
+package com.github.abepralle.jvalue;
+
+import java.util.*;
+
+class HashTest
+{
+  static void run() throws Exception
+  {
+    // Cached hash codes follow changes to the container and to nested children
+    JValue doc = JValue.parse( "{\"a\":[1,{\"b\":[2]}],\"c\":3}" );
+    int original = doc.hashCode();
+    Check.equal( original, doc.hashCode(), "hash code stable" );
+    JValue inner = doc.get( "a" ).get( 1 ).get( "b" );
+    inner.add( 3 );
+    Check.equal( JValue.parse("{\"a\":[1,{\"b\":[2,3]}],\"c\":3}").hashCode(), doc.hashCode(), "nested change invalidates parents" );
+    inner.remove( 1 );
+    Check.equal( original, doc.hashCode(), "hash code restored" );
+
+    // A child shared by two parents invalidates both
+    JValue shared = JValue.list().add( 1 );
+    JValue p1 = JValue.list().add( shared );
+    JValue p2 = JValue.table().set( "s", shared );
+    int h1 = p1.hashCode();
+    int h2 = p2.hashCode();
+    shared.add( 2 );
+    Check.isTrue( p1.hashCode() == JValue.parse("[[1,2]]").hashCode() && p1.hashCode() != h1, "first parent invalidated" );
+    Check.isTrue( p2.hashCode() == JValue.parse("{\"s\":[1,2]}").hashCode() && p2.hashCode() != h2, "second parent invalidated" );
+
+    // Changing an unrelated container leaves cached codes alone
+    JValue unrelated = JValue.table();
+    unrelated.set( "x", 1 );
+    Check.equal( JValue.parse("[[1,2]]").hashCode(), p1.hashCode(), "unaffected by unrelated change" );
+
+    // Containers holding a concurrent table never serve a stale code
+    JValue concurrent = JValue.concurrentTable();
+    JValue holder = JValue.list().add( concurrent );
+    holder.hashCode();
+    concurrent.set( "k", 1 );
+    Check.equal( JValue.parse("[{\"k\":1}]").hashCode(), holder.hashCode(), "concurrent child not cached" );
+
+    // Containers found in a hash set after being modified and restored
+    HashSet<JValue> set = new HashSet<JValue>();
+    JValue member = JValue.parse( "{\"list\":[1,2]}" );
+    set.add( member );
+    member.get( "list" ).add( 3 );
+    Check.isFalse( set.contains(JValue.parse("{\"list\":[1,2]}")), "modified member not found by old value" );
+    member.get( "list" ).remove( 2 );
+    Check.isTrue( set.contains(JValue.parse("{\"list\":[1,2]}")), "restored member found" );
+
+    // Integers and reals compare exactly, so equality is transitive
+    JValue a = JValue.number( 9007199254740992L );
+    JValue b = JValue.number( 9007199254740993L );
+    JValue x = new JValue.NumberValue( 9007199254740992.0 );
+    Check.isTrue( a.equals(x) && x.equals(a), "2^53 equals 2^53.0" );
+    Check.isFalse( b.equals(x) || x.equals(b), "2^53+1 differs from 2^53.0" );
+    Check.isTrue( b.compareTo(x) < 0 && x.compareTo(b) > 0, "2^53+1 orders after 2^53.0" );
+    JValue big = JValue.number( 9.223372036854775808E18 );
+    JValue max = JValue.number( Long.MAX_VALUE );
+    Check.isFalse( big.equals(max) || max.equals(big), "2^63 differs from Long.MAX_VALUE" );
+    Check.isTrue( max.compareTo(big) > 0, "2^63 orders after Long.MAX_VALUE" );
+    Check.isTrue( JValue.number(2).equals(JValue.number(2.5)) == false, "integer differs from fraction" );
+    Check.isTrue( JValue.number(2).compareTo(JValue.number(2.5)) > 0, "2.5 orders after 2" );
+    JValue nan = JValue.number( Double.NaN );
+    Check.isTrue( nan.equals(nan) && nan.equals(JValue.number(Double.NaN)), "NaN equals itself" );
+    Check.isTrue( nan.compareTo(nan) == 0 && nan.compareTo(JValue.number(1)) < 0 && JValue.number(1).compareTo(nan) > 0, "NaN orders after numbers" );
+
+    // Packed lists compare their elements exactly too
+    JValue longs = JValue.list( new long[]{ 9007199254740993L } );
+    JValue doubles = JValue.list( new double[]{ 9007199254740992.0 } );
+    Check.isFalse( longs.equals(doubles) || doubles.equals(longs), "packed 2^53+1 differs from 2^53.0" );
+    Check.equal( longs.get(0).equals(doubles.get(0)), longs.equals(doubles), "packed agrees with elements" );
+    Check.isTrue( longs.compareTo(doubles) < 0 && doubles.compareTo(longs) > 0, "packed 2^53+1 orders after 2^53.0" );
+    Check.isTrue( JValue.list(new long[]{ 1L<<53 }).equals(doubles), "packed 2^53 equals 2^53.0" );
+    Check.equal( -1, ((JValue.ListValue) doubles).indexOf(JValue.number(9007199254740993L)), "indexOf is exact" );
+    JValue nans = JValue.list( new double[]{ 1.5, Double.NaN } );
+    Check.isTrue( nans.equals(nans.cloned()), "packed NaN equals its clone" );
+    Check.equal( 0.0, nans.compareTo(nans.cloned()), "packed NaN compares equal" );
+    Check.isTrue( nans.compareTo(JValue.list(new double[]{ 1.5, 2 })) < 0, "packed NaN orders last" );
+    Check.equal( 1, ((JValue.ListValue) nans).indexOf(JValue.number(Double.NaN)), "indexOf finds NaN" );
+    Check.equal( nans.hashCode(), nans.cloned().hashCode(), "packed NaN hashes alike" );
+
+    // Hashing many parents of one child retains none of them and stays linear
+    JValue child = JValue.list().add( 1 );
+    long start = System.nanoTime();
+    for (int i=0; i<50000; ++i) JValue.list().add( child ).hashCode();
+    Check.isTrue( System.nanoTime() - start < 1000000000L, "hashing parents of a shared child is linear" );
+    child.add( 2 );
+    Check.equal( JValue.parse("[1,2]").hashCode(), child.hashCode(), "shared child still hashes" );
+  }
+}
@@ -0,0 +1,111 @@
+package com.github.abepralle.jvalue;
+
+import java.util.*;
+
+class ImmutableTest
+{
+  static void run() throws Exception
+  {
+    // Every version of a list keeps its contents, across trie levels
+    Random random = new Random( 18 );
+    List<List<Long>> models = new ArrayList<List<Long>>();
+    List<JValue> versions = new ArrayList<JValue>();
+    List<Long> model = new ArrayList<Long>();
+    JValue list = JValue.immutableList();
+    for (int op=0; op<6000; ++op)
+    {
+      int choice = random.nextInt( 10 );
+      if (choice < 7 || model.isEmpty())
+      {
+        long value = random.nextInt( 1000 );
+        model.add( value );
+        list = list.add( value );
+      }
+      else if (choice < 9)
+      {
+        int index = random.nextInt( model.size() );
+        model.set( index, -1L );
+        list = list.set( index, -1L );
+      }
+      else
+      {
+        int index = random.nextInt( model.size() );
+        model.remove( index );
+        list = list.remove( index );
+      }
+      if (op % 500 == 0)
+      {
+        models.add( new ArrayList<Long>(model) );
+        versions.add( list );
+      }
+    }
+    models.add( model );
+    versions.add( list );
+    boolean lists_agree = true;
+    for (int i=0; i<versions.size(); ++i) lists_agree &= sameList( models.get(i), versions.get(i) );
+    Check.isTrue( lists_agree, "list versions keep their contents" );
+
+    // Tables, including keys with colliding hash codes
+    LinkedHashMap<String,Long> table_model = new LinkedHashMap<String,Long>();
+    JValue table = JValue.immutableTable();
+    JValue first_version = null;
+    String first_json = null;
+    String[] colliding = { "Aa", "BB", "AaAa", "BBBB", "AaBB", "BBAa" };
+    for (int op=0; op<5000; ++op)
+    {
+      String key = (op % 7 == 0) ? colliding[ random.nextInt(colliding.length) ] : "k" + random.nextInt( 300 );
+      if (random.nextInt(4) == 0)
+      {
+        table_model.remove( key );
+        table = table.remove( key );
+      }
+      else
+      {
+        long value = random.nextInt( 1000 );
+        table_model.put( key, value );
+        table = table.set( key, value );
+      }
+      if (op == 100)
+      {
+        first_version = table;
+        first_json = table.toJSON();
+      }
+    }
+    JValue expected = JValue.table();
+    for (Map.Entry<String,Long> entry : table_model.entrySet()) expected.set( entry.getKey(), entry.getValue() );
+    Check.equal( table_model.size(), table.count(), "table count" );
+    Check.isTrue( expected.equals(table) && table.equals(expected), "table contents" );
+    Check.equal( expected.hashCode(), table.hashCode(), "table hash code" );
+    boolean found = true;
+    for (String key : colliding) found &= (table.get(key).isUndefined() == !table_model.containsKey(key));
+    Check.isTrue( found, "colliding keys" );
+    Check.equal( first_json, first_version.toJSON(), "old table version unchanged" );
+
+    // freeze() makes an immutable deep copy that equals the original
+    JValue doc = JValue.parse( "{\"a\":[1,{\"b\":2}],\"c\":\"s\"}" );
+    JValue frozen = doc.freeze();
+    Check.isTrue( frozen.equals(doc) && frozen.hashCode() == doc.hashCode(), "frozen equals original" );
+    Check.isTrue( frozen.freeze() == frozen, "freezing twice" );
+    JValue changed = frozen.set( "c", "t" );
+    Check.json( "{\"a\":[1,{\"b\":2}],\"c\":\"s\"}", frozen, "set returns a new version" );
+    Check.json( "{\"a\":[1,{\"b\":2}],\"c\":\"t\"}", changed, "new version" );
+    Check.isTrue( changed.get("a") == frozen.get("a"), "unchanged children shared" );
+    doc.get( "a" ).add( 3 );
+    Check.json( "[1,{\"b\":2}]", frozen.get("a"), "frozen copy isolated" );
+  }
+
+  static boolean sameList( List<Long> model, JValue list )
+  {
+    if (model.size() != list.count()) return false;
+    for (int i=0; i<model.size(); ++i)
+    {
+      if (list.get(i).toLong() != model.get(i)) return false;
+    }
+    int i = 0;
+    for (JValue value : list)
+    {
+      if (value.toLong() != model.get(i++)) return false;
+    }
+    return true;
+  }
+}
@@ -0,0 +1,102 @@
+package com.github.abepralle.jvalue;
+
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+class IndexedParseTest
+{
+  static void run() throws Exception
+  {
+    // Strings holding structural characters, escapes and runs of
+    // backslashes, including across the index's 64-byte blocks
+    String[] documents =
+    {
+      "[\"a,b\",\"c]d\",\"{e:f}\",\"\\\"\",\"\\\\\",\"\\\\\\\"\",\"x\\\\\\\\\"]",
+      "{\"k\":\"" + repeat("\\\\", 40) + "\",\"j\":\"" + repeat("\\\"", 40) + "\"}",
+      "[" + repeat(" ", 70) + "1," + repeat("\n\t ", 30) + "\"" + repeat("\u00e9\u4e2d\ud83d\ude00", 30) + "\"]",
+      "{a:1,b:'single \"quoted\"',c:[x,y],d}", "[]", "{}", "  7  ", "\"s\""
+    };
+    for (String json : documents)
+    {
+      Check.equal( JValue.parse(json).toJSON(), JValue.parseIndexed(json.getBytes(StandardCharsets.UTF_8)).toJSON(), "indexed " + json );
+    }
+
+    // Random documents
+    Random random = new Random( 11 );
+    int failures = 0;
+    for (int i=0; i<300; ++i)
+    {
+      StringBuilder json = new StringBuilder();
+      randomValue( random, json, 0 );
+      String text = json.toString();
+      if ( !JValue.parse(text).toJSON().equals(JValue.parseIndexed(text.getBytes(StandardCharsets.UTF_8)).toJSON()) )
+      {
+        if (++failures == 1) System.out.println( "indexed mismatch: " + text );
+      }
+    }
+    Check.equal( 0, failures, "random documents parse as parse() does" );
+
+    Check.isTrue( JValue.parseIndexed("[\"unterminated".getBytes(StandardCharsets.UTF_8)).isUndefined(), "unterminated string" );
+    Check.isTrue( JValue.parseIndexed("[[1}]".getBytes(StandardCharsets.UTF_8)).isUndefined(), "mismatched brackets" );
+  }
+
+  static void randomValue( Random random, StringBuilder json, int depth )
+  {
+    spaces( random, json );
+    int kind = random.nextInt( (depth < 4) ? 7 : 5 );
+    switch (kind)
+    {
+      case 0: json.append( random.nextInt(2000) - 1000 ); break;
+      case 1: json.append( random.nextDouble() * 1e5 ); break;
+      case 2: json.append( random.nextBoolean() ? "true" : "null" ); break;
+      case 3:
+      case 4: randomString( random, json ); break;
+      case 5:
+      {
+        json.append( '[' );
+        for (int i=random.nextInt(6); i>0; --i)
+        {
+          randomValue( random, json, depth+1 );
+          if (i > 1) json.append( ',' );
+        }
+        spaces( random, json );
+        json.append( ']' );
+        break;
+      }
+      default:
+      {
+        json.append( '{' );
+        for (int i=random.nextInt(6); i>0; --i)
+        {
+          spaces( random, json );
+          json.append( "\"k" ).append( random.nextInt(10) ).append( "\":" );
+          randomValue( random, json, depth+1 );
+          if (i > 1) json.append( ',' );
+        }
+        spaces( random, json );
+        json.append( '}' );
+      }
+    }
+    spaces( random, json );
+  }
+
+  static void randomString( Random random, StringBuilder json )
+  {
+    String[] pieces = { "a", "\\\\", "\\\"", ",", "]", "}", "[", "{", ":", " ", "\\n", "\\u00e9", "\u00e9", "\u4e2d", "\ud83d\ude00" };
+    json.append( '"' );
+    for (int i=random.nextInt(90); i>0; --i) json.append( pieces[random.nextInt(pieces.length)] );
+    json.append( '"' );
+  }
+
+  static void spaces( Random random, StringBuilder json )
+  {
+    for (int i=random.nextInt(3); i>0; --i) json.append( (random.nextInt(4) == 0) ? '\n' : ' ' );
+  }
+
+  static String repeat( String text, int n )
+  {
+    StringBuilder builder = new StringBuilder();
+    for (int i=0; i<n; ++i) builder.append( text );
+    return builder.toString();
+  }
+}
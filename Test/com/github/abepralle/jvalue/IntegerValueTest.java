@@ -0,0 +1,39 @@
+package com.github.abepralle.jvalue;
+
+class IntegerValueTest
+{
+  static void run() throws Exception
+  {
+    // Small integers come from the cache; others are new values
+    Check.isTrue( JValue.number(5) == JValue.number(5L), "cached small integer" );
+    Check.isTrue( JValue.number(-128) == JValue.number(-128), "cache lower bound" );
+    Check.isTrue( JValue.number(1023) == JValue.number(1023), "cache upper bound" );
+    Check.isTrue( JValue.number(1024).equals(JValue.number(1024)), "uncached integers equal" );
+    Check.isTrue( JValue.number(3.0) == JValue.number(3), "integral double uses the cache" );
+
+    // Integers are exact across the long range
+    long[] values = { 0, 1, -1, 1L << 53, (1L << 53) + 1, Long.MAX_VALUE, Long.MIN_VALUE, Long.MAX_VALUE - 1 };
+    for (long value : values)
+    {
+      JValue number = JValue.number( value );
+      Check.equal( value, number.toLong(), "toLong " + value );
+      Check.equal( Long.toString(value), number.toJSON(), "toJSON " + value );
+      Check.equal( value, JValue.parse(number.toJSON()).toLong(), "parse " + value );
+      Check.equal( value, JValue.fromCBOR(number.toCBOR()).toLong(), "CBOR " + value );
+    }
+
+    // Conversions
+    Check.equal( Integer.MAX_VALUE, JValue.number(Long.MAX_VALUE).toInt(), "toInt saturates high" );
+    Check.equal( Integer.MIN_VALUE, JValue.number(Long.MIN_VALUE).toInt(), "toInt saturates low" );
+    Check.equal( 42, JValue.number(42).toInt(), "toInt" );
+    Check.isTrue( JValue.number(1).toLogical() && !JValue.number(0).toLogical(), "toLogical" );
+    Check.isFalse( JValue.number(-0.0) == JValue.number(0), "negative zero stays real" );
+    Check.isTrue( JValue.number(2.5) instanceof JValue.NumberValue, "fraction stays real" );
+    Check.isTrue( JValue.number(9.223372036854775808E18) instanceof JValue.NumberValue, "2^63 stays real" );
+
+    // Integers added to a list as longs or integral doubles
+    JValue list = JValue.list().add( 1 ).add( 2L ).add( 3.0 );
+    Check.json( "[1,2,3]", list, "integers in a list" );
+    Check.equal( 6L, list.get(0).toLong() + list.get(1).toLong() + list.get(2).toLong(), "list integer values" );
+  }
+}
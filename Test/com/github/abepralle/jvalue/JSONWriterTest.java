@@ -0,0 +1,51 @@
+package com.github.abepralle.jvalue;
+
+class JSONWriterTest
+{
+  static void run() throws Exception
+  {
+    // Escapes
+    Check.equal( "\"a\\\"b\\\\c/\\b\\f\\n\\r\\t\\u0001\\u001f\\u007f\u00e9\\u2028\\u2029\ud83d\ude00\"",
+        JValue.string("a\"b\\c/\b\f\n\r\t\u0001\u001f\u007f\u00e9\u2028\u2029\ud83d\ude00").toJSON(), "escapes" );
+    Check.equal( "{\"k\\\"ey\\n\":1}", JValue.table().set("k\"ey\n",1).toJSON(), "escaped key" );
+    Check.equal( "[-9223372036854775808,9223372036854775807,0.5,null,true,false]",
+        JValue.list().add(Long.MIN_VALUE).add(Long.MAX_VALUE).add(0.5).add(JValue.nullValue()).add(true).add(false).toJSON(),
+        "scalars" );
+
+    // Every character reads back, BMP and supplementary
+    StringBuilder all = new StringBuilder();
+    for (char ch=0; ch<0xD800; ++ch) all.append( ch );
+    for (char ch=0xE000; ch!=0; ++ch) all.append( ch );
+    all.append( "\ud800\udc00\udbff\udfff" );
+    String text = all.toString();
+    Check.equal( text, JValue.parse(JValue.string(text).toJSON()).toString(), "all characters round trip" );
+    Check.equal( text, JValue.parse(JValue.string(text).toJSON().getBytes("UTF-8")).toString(), "all characters round trip as UTF-8" );
+
+    // Pooled writers are not shared between threads
+    final JValue doc = JValue.parse( "{\"a\":[1,2,{\"b\":\"" + text.substring(0,5000).replace("\\","\\\\").replace("\"","\\\"") + "\"}]}" );
+    final String expected = doc.toJSON();
+    final int[] errors = new int[ 1 ];
+    Thread[] threads = new Thread[ 4 ];
+    for (int t=0; t<threads.length; ++t)
+    {
+      threads[t] = new Thread(
+          new Runnable()
+          {
+            public void run()
+            {
+              for (int i=0; i<200; ++i)
+              {
+                if ( !doc.toJSON().equals(expected) )
+                {
+                  synchronized (errors) { ++errors[0]; }
+                }
+              }
+            }
+          }
+      );
+      threads[t].start();
+    }
+    for (Thread thread : threads) thread.join();
+    Check.equal( 0, errors[0], "concurrent writes" );
+  }
+}
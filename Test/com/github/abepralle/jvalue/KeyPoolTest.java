@@ -0,0 +1,72 @@
+package com.github.abepralle.jvalue;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+
+class KeyPoolTest
+{
+  static void run() throws Exception
+  {
+    JValue.setKeyPoolCapacity( 256 );
+    try
+    {
+      // Documents share key Strings whichever reader parses them
+      String json = "{\"name\":1,\"caf\\u00e9\":2,\"\u00e9\u4e2d\":3,\"esc\\\"aped\":4}";
+      JValue a = JValue.parse( json );
+      JValue b = JValue.parse( json.getBytes(StandardCharsets.UTF_8) );
+      JValue c = new JValue.JSONTokenizer( new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)) ).readValue();
+      JValue d = JValue.fromCBOR( a.toCBOR() );
+      for (int i=0; i<a.count(); ++i)
+      {
+        String key = a.keys().get( i ).toString();
+        Check.isTrue( key == b.keys().get(i).toString(), "UTF-8 key shared " + key );
+        Check.isTrue( key == c.keys().get(i).toString(), "tokenizer key shared " + key );
+        Check.isTrue( key == d.keys().get(i).toString(), "CBOR key shared " + key );
+      }
+      Check.isTrue( a.equals(b) && a.equals(c) && a.equals(d), "pooled documents equal" );
+
+      // Far more keys than the pool holds still parse correctly
+      StringBuilder many = new StringBuilder( "{" );
+      for (int i=0; i<5000; ++i)
+      {
+        if (i > 0) many.append( ',' );
+        many.append( "\"key" ).append( i ).append( "\":" ).append( i );
+      }
+      many.append( '}' );
+      JValue parsed = JValue.parse( many.toString().getBytes(StandardCharsets.UTF_8) );
+      Check.equal( 5000, parsed.count(), "evicting pool count" );
+      Check.equal( 4321L, parsed.get("key4321").toLong(), "evicting pool lookup" );
+
+      // Threads parsing at once through the shared pool
+      final byte[] utf8 = many.toString().getBytes( StandardCharsets.UTF_8 );
+      final String expected = parsed.toJSON();
+      final int[] errors = new int[ 1 ];
+      Thread[] threads = new Thread[ 4 ];
+      for (int t=0; t<threads.length; ++t)
+      {
+        threads[t] = new Thread(
+            new Runnable()
+            {
+              public void run()
+              {
+                for (int i=0; i<20; ++i)
+                {
+                  if ( !JValue.parse(utf8).toJSON().equals(expected) )
+                  {
+                    synchronized (errors) { ++errors[0]; }
+                  }
+                }
+              }
+            }
+        );
+        threads[t].start();
+      }
+      for (Thread thread : threads) thread.join();
+      Check.equal( 0, errors[0], "concurrent parses through the pool" );
+    }
+    finally
+    {
+      JValue.setKeyPoolCapacity( 0 );
+    }
+  }
+}
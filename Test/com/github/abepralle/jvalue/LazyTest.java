@@ -0,0 +1,80 @@
+package com.github.abepralle.jvalue;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+
+class LazyTest
+{
+  static void run() throws Exception
+  {
+    // Lazy and eager parses agree, whether the containers are untouched,
+    // read, or written out, from a String or from UTF-8. Untouched strict
+    // JSON is written verbatim, so compare what it reads back as.
+    String[] documents =
+    {
+      "[]", "{}", "[1,2.5,-3e2,\"s\",true,false,null]",
+      "{\"a\":{\"b\":[1,{\"c\":\"\\u00e9\\n\"}]},\"d\":[]}",
+      " [ 1 , [ 2 ] , { \"k\" : \"v\" } ] ", "[1,[2,[3,[4,[5,[6]]]]]]", "[0,-0,1.0,1E2]"
+    };
+    for (String json : documents)
+    {
+      String expected = JValue.parse( json ).toJSON();
+      Check.equal( expected, JValue.parse(JValue.parseLazy(json).toJSON()).toJSON(), "untouched lazy " + json );
+      Check.equal( expected, JValue.parse(JValue.parseLazy(json.getBytes(StandardCharsets.UTF_8)).toJSON()).toJSON(), "untouched lazy UTF-8 " + json );
+      JValue touched = JValue.parseLazy( json );
+      touched.count();
+      Check.equal( expected, JValue.parse(touched.toJSON()).toJSON(), "materialized lazy " + json );
+      Check.isTrue( JValue.parse(json).equals(JValue.parseLazy(json)), "lazy equals eager " + json );
+    }
+    Check.equal( "[1.50,{\"a\":1e2}]", JValue.parseLazy("[1.50,{\"a\":1e2}]").toJSON(), "strict span verbatim" );
+
+    // Untouched spans are written compactly, keeping whitespace in strings
+    String pretty = "{\n  \"a\" : [ 1,\t2 ],\r\n  \"s\" : \" x \\\" y\\\\ \\u00e9 \u00e9\"\n}";
+    String compact = "{\"a\":[1,2],\"s\":\" x \\\" y\\\\ \\u00e9 \u00e9\"}";
+    Check.equal( compact, JValue.parseLazy(pretty).toJSON(), "pretty lazy written compactly" );
+    Check.equal( compact, JValue.parseLazy(pretty.getBytes(StandardCharsets.UTF_8)).toJSON(), "pretty lazy UTF-8 written compactly" );
+    Check.equal( "[[1,2],{\"k\":\"v w\"}]", JValue.parseLazy("[ [1, 2] ,\n { \"k\" : \"v w\" } ]").toJSON(), "nested pretty lazy" );
+
+    // so records stay on one line of JSON Lines
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    JValue records = JValue.list().add( JValue.parseLazy(pretty) ).add( JValue.parseLazy("[\n1,\n2\n]") );
+    JValue.writeLines( records, out );
+    JValue read_back = JValue.list();
+    Iterator<JValue> lines = JValue.lines( new ByteArrayInputStream(out.toByteArray()) ).iterator();
+    while (lines.hasNext()) read_back.add( lines.next() );
+    Check.json( JValue.parse(compact + "\n").toJSON(), read_back.get(0), "pretty lazy record reads back" );
+    Check.json( "[1,2]", read_back.get(1), "second record reads back" );
+    Check.equal( 2, read_back.count(), "one line per lazy record" );
+
+    // Relaxed syntax, and strings that parse as literals, are never copied
+    String[] relaxed =
+    {
+      "[{a:1,b:'x'}]", "{a:[1 2 3],b}", "[\"true\",\"null\",\"false\"]",
+      "{\"x\":[{\"y\":'single'}]}", "[[1,2],[3,],[4]]"
+    };
+    for (String json : relaxed)
+    {
+      String expected = JValue.parse( json ).toJSON();
+      Check.equal( expected, JValue.parseLazy(json).toJSON(), "relaxed lazy " + json );
+      Check.equal( expected, JValue.parseLazy(json.getBytes(StandardCharsets.UTF_8)).toJSON(), "relaxed lazy UTF-8 " + json );
+    }
+
+    // Malformed containers are undefined as they are from parse(), however
+    // deeply nested
+    String[] malformed = { "[[1}, 2]", "{\"a\":[[1}]}", "[1,[2,{\"b\":[3]]]]", "{\"\":1}", "[[1 : 2]]" };
+    for (String json : malformed)
+    {
+      Check.isTrue( JValue.parse(json).isUndefined(), "eager undefined " + json );
+      Check.isTrue( JValue.parseLazy(json).isUndefined(), "lazy undefined " + json );
+    }
+
+    // Changes to a lazy container are kept and written
+    JValue doc = JValue.parseLazy( "{\"list\":[1,2],\"t\":{\"k\":1}}" );
+    doc.get( "list" ).add( 3 );
+    doc.get( "t" ).set( "j", 2 );
+    Check.json( "{\"list\":[1,2,3],\"t\":{\"k\":1,\"j\":2}}", doc, "lazy modified" );
+    JValue copy = JValue.parseLazy( "[[1],[2]]" ).cloned();
+    Check.json( "[[1],[2]]", copy, "lazy cloned" );
+  }
+}
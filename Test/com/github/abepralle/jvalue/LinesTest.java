@@ -0,0 +1,71 @@
+package com.github.abepralle.jvalue;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.stream.*;
+
+class LinesTest
+{
+  static void run() throws Exception
+  {
+    // writeLines() and lines() round trip, sequentially and in parallel
+    List<JValue> records = new ArrayList<JValue>();
+    for (int i=0; i<20000; ++i)
+    {
+      records.add( JValue.parse("{\"id\":" + i + ",\"name\":\"n" + i + "\",\"tags\":[" + i%3 + ",\"x\\ny\"],\"r\":" + (i * 0.25) + "}") );
+    }
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    Check.isTrue( JValue.writeLines(records,out), "writeLines" );
+    byte[] bytes = out.toByteArray();
+    Check.equal( records, read(bytes,false), "lines round trip" );
+    Check.equal( records, read(bytes,true), "parallel lines round trip" );
+
+    // Each line is one record; a line that isn't exactly one value is
+    // undefined and reading resumes on the next line
+    Check.equal( "[1, 2]", describe("1\n2\n"), "plain lines" );
+    Check.equal( "[{\"a\":1}, [2]]", describe("{\"a\":1}\r\n[2]\r\n"), "CRLF" );
+    Check.equal( "[1, 2]", describe("1\n\n  \n2"), "blank lines and no final newline" );
+    Check.equal( "[undefined, undefined, 3]", describe("[1,\n2]\n3\n"), "value split across lines" );
+    Check.equal( "[undefined, 4]", describe("{bad}}\n4\n"), "trailing text" );
+    Check.equal( "[undefined, 5]", describe("1 2\n5"), "two values on a line" );
+    Check.equal( "[undefined, 6]", describe("[1}\n6"), "malformed line" );
+
+    // Closing the stream closes the input
+    final boolean[] closed = new boolean[ 1 ];
+    InputStream in = new ByteArrayInputStream( bytes )
+    {
+      public void close()
+      {
+        closed[0] = true;
+      }
+    };
+    Stream<JValue> stream = JValue.lines( in );
+    stream.close();
+    Check.isTrue( closed[0], "close closes input" );
+    Check.equal( 0L, JValue.lines(new File("missing.jsonl.nonexistent")).count(), "missing file is empty" );
+  }
+
+  static List<JValue> read( byte[] bytes, boolean parallel )
+  {
+    Stream<JValue> stream = JValue.lines( new ByteArrayInputStream(bytes) );
+    try
+    {
+      return (parallel ? stream.parallel() : stream).collect( Collectors.<JValue>toList() );
+    }
+    finally
+    {
+      stream.close();
+    }
+  }
+
+  static String describe( String text )
+  {
+    List<String> result = new ArrayList<String>();
+    for (JValue value : read(text.getBytes(StandardCharsets.UTF_8),false))
+    {
+      result.add( value.isUndefined() ? "undefined" : value.toJSON() );
+    }
+    return result.toString();
+  }
+}
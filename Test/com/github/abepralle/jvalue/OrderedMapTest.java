@@ -0,0 +1,66 @@
+package com.github.abepralle.jvalue;
+
+import java.util.*;
+
+class OrderedMapTest
+{
+  static void run() throws Exception
+  {
+    // Random sets and removes agree with LinkedHashMap, through the map
+    // itself and through dictionary tables, across index growth and the
+    // squeezing out of holes
+    Random random = new Random( 17 );
+    for (int round=0; round<20; ++round)
+    {
+      int key_range = 4 + random.nextInt( 200 );
+      LinkedHashMap<String,Long> model = new LinkedHashMap<String,Long>();
+      JValue.OrderedMap map = new JValue.OrderedMap( 0 );
+      JValue table = JValue.table();
+      table.set( "x", 0 );
+      table.remove( "x" );  // dictionary mode
+      boolean agree = true;
+      for (int op=0; op<2000; ++op)
+      {
+        String key = "k" + random.nextInt( key_range );
+        if (random.nextInt(3) == 0)
+        {
+          Long expected = model.remove( key );
+          JValue removed = map.remove( key );
+          agree &= (expected == null) ? removed == null : removed.toLong() == expected;
+          table.remove( key );
+        }
+        else
+        {
+          long value = random.nextInt( 1000 );
+          model.put( key, value );
+          map.put( key, JValue.number(value) );
+          table.set( key, value );
+        }
+        String probe = "k" + random.nextInt( key_range );
+        Long expected = model.get( probe );
+        JValue found = map.get( probe );
+        agree &= (expected == null) ? found == null : found.toLong() == expected;
+        agree &= (table.contains(probe) == (expected != null));
+      }
+      Check.isTrue( agree, "random operations round " + round );
+      Check.equal( model.size(), map.size, "size round " + round );
+      Check.equal( model.size(), table.count(), "table count round " + round );
+      Check.equal( toJSON(model), table.toJSON(), "table order round " + round );
+
+      JValue.OrderedMap copy = map.copy();
+      map.put( "new", JValue.number(1) );
+      Check.isTrue( copy.get("new") == null && copy.size == model.size(), "copy independent round " + round );
+    }
+  }
+
+  static String toJSON( LinkedHashMap<String,Long> model )
+  {
+    StringBuilder json = new StringBuilder( "{" );
+    for (Map.Entry<String,Long> entry : model.entrySet())
+    {
+      if (json.length() > 1) json.append( ',' );
+      json.append( '"' ).append( entry.getKey() ).append( "\":" ).append( entry.getValue() );
+    }
+    return json.append( '}' ).toString();
+  }
+}
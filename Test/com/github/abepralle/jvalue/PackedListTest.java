@@ -0,0 +1,30 @@
+package com.github.abepralle.jvalue;
+
+class PackedListTest
+{
+  static void run()
+  {
+    // Integers that have no exact double keep the list from packing as doubles
+    JValue list = JValue.parse( "[9223372036854775807,0.5]" );
+    Check.json( "[9223372036854775807,0.5]", list, "Long.MAX_VALUE then real" );
+    Check.equal( Long.MAX_VALUE, list.get(0).toLong(), "Long.MAX_VALUE element" );
+    Check.isTrue( list.get(0) instanceof JValue.IntegerValue, "Long.MAX_VALUE stays an integer" );
+
+    list = JValue.list().add( 0.5 ).add( Long.MAX_VALUE ).add( 9007199254740993L ).add( -9223372036854775808L );
+    Check.json( "[0.5,9223372036854775807,9007199254740993,-9223372036854775808]", list, "real then large integers" );
+
+    list = JValue.list().add( 1 ).add( 2 );
+    list.set( 1, 2.5 );
+    list.set( 0, Long.MAX_VALUE - 1 );
+    Check.json( "[9223372036854775806,2.5]", list, "set() into double storage" );
+
+    // Integers exactly representable as doubles still pack
+    list = JValue.parse( "[1,9007199254740992,-9223372036854775808,0.5]" );
+    Check.isTrue( ((JValue.ListValue) list).doubles != null, "exact integers pack with reals" );
+    Check.json( "[1,9007199254740992,-9223372036854775808,0.5]", list, "packed mixed list" );
+
+    Check.isTrue( JValue.ListValue.isExactDouble(Long.MIN_VALUE), "Long.MIN_VALUE is exact" );
+    Check.isFalse( JValue.ListValue.isExactDouble(Long.MAX_VALUE), "Long.MAX_VALUE is not exact" );
+    Check.isFalse( JValue.ListValue.isExactDouble((1L<<53)+1), "2^53+1 is not exact" );
+  }
+}
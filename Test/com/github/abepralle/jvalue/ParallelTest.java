@@ -0,0 +1,46 @@
+package com.github.abepralle.jvalue;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ForkJoinPool;
+
+class ParallelTest
+{
+  static void run() throws Exception
+  {
+    // A list large enough to be split, with separators inside strings and
+    // nested containers near the cut points
+    StringBuilder builder = new StringBuilder( "[" );
+    for (int i=0; i<40000; ++i)
+    {
+      if (i > 0) builder.append( i % 7 == 0 ? " ,\n " : "," );
+      builder.append( "{\"id\":" ).append( i )
+             .append( ",\"s\":\"a,b]c}\\\"[d\",\"n\":[" ).append( i ).append( ",[],{}],t:'x,y'}" );
+    }
+    builder.append( ']' );
+    String json = builder.toString();
+    String expected = JValue.parse( json ).toJSON();
+
+    ForkJoinPool pool = new ForkJoinPool( 4 );
+    try
+    {
+      byte[] utf8 = json.getBytes( StandardCharsets.UTF_8 );
+      Check.equal( expected, JValue.parseParallel(ByteBuffer.wrap(utf8),pool).toJSON(), "parallel parse matches parse()" );
+      Check.equal( expected, JValue.parseParallel(json).toJSON(), "parallel parse of a String" );
+      Check.equal( 40000, JValue.parseParallel(ByteBuffer.wrap(utf8),pool).count(), "parallel parse count" );
+
+      // Small inputs and other documents fall back to a normal parse
+      Check.json( "[1,2]", JValue.parseParallel(ByteBuffer.wrap("[1,2]".getBytes(StandardCharsets.UTF_8)),pool), "small list" );
+      Check.json( "{\"a\":1}", JValue.parseParallel("{a:1}"), "table" );
+
+      // An error in any run makes the whole result undefined
+      String malformed = json.substring( 0, json.length()/2 ) + "[1}" + json.substring( json.length()/2 );
+      Check.isTrue( JValue.parse(malformed).isUndefined(), "malformed parse" );
+      Check.isTrue( JValue.parseParallel(ByteBuffer.wrap(malformed.getBytes(StandardCharsets.UTF_8)),pool).isUndefined(), "malformed parallel parse" );
+    }
+    finally
+    {
+      pool.shutdown();
+    }
+  }
+}
@@ -0,0 +1,76 @@
+package com.github.abepralle.jvalue;
+
+import java.util.*;
+
+class PathTest
+{
+  static final String STORE =
+      "{\"store\":{\"book\":[" +
+      "{\"title\":\"A\",\"price\":8.95,\"tags\":[\"x\"]}," +
+      "{\"title\":\"B\",\"price\":12.99}," +
+      "{\"title\":\"C\",\"price\":8.99,\"isbn\":\"0-553\"}," +
+      "{\"title\":\"D\",\"price\":22.99,\"isbn\":\"0-395\"}]," +
+      "\"bicycle\":{\"color\":\"red\",\"price\":19.95}}," +
+      "\"a/b\":1,\"m~n\":2,\"7\":\"seven\"}";
+
+  static void run()
+  {
+    JValue doc = JValue.parse( STORE );
+
+    // JSON Pointer
+    Check.json( STORE, doc.at(""), "pointer: whole document" );
+    Check.json( "\"A\"", doc.at("/store/book/0/title"), "pointer: member and index" );
+    Check.json( "1", doc.at("/a~1b"), "pointer: ~1 escape" );
+    Check.json( "2", doc.at("/m~0n"), "pointer: ~0 escape" );
+    Check.json( "\"seven\"", doc.at("/7"), "pointer: numeric name on a table" );
+    Check.json( "\"empty\"", JValue.table().set("","empty").at("/"), "pointer: empty name" );
+    Check.isTrue( doc.at("/store/book/9").isUndefined(), "pointer: index past the end" );
+    Check.isTrue( doc.at("/store/nothing/title").isUndefined(), "pointer: missing member" );
+
+    // JSONPath, single values
+    Check.json( "\"D\"", doc.at("$.store.book[3].title"), "path: dots and index" );
+    Check.json( "\"D\"", doc.at("$.store.book[-1].title"), "path: negative index" );
+    Check.json( "\"red\"", doc.at("$['store']['bicycle']['color']"), "path: bracket names" );
+    Check.json( "\"red\"", doc.at("store.bicycle.color"), "path: implicit root" );
+    Check.isTrue( JValue.Path.compile("$.store.book[0].tags[0]").isSingle(), "names and indices are single" );
+    Check.isFalse( JValue.Path.compile("$.store.book[*]").isSingle(), "wildcards are not single" );
+
+    // JSONPath, several values
+    Check.json( "[\"A\",\"B\",\"C\",\"D\"]", doc.at("$.store.book[*].title"), "path: wildcard" );
+    Check.json( "[\"B\",\"C\"]", doc.at("$.store.book[1:3].title"), "path: slice" );
+    Check.json( "[\"C\",\"D\"]", doc.at("$.store.book[-2:].title"), "path: open slice from the end" );
+    Check.json( "[8.95,12.99,8.99,22.99,19.95]", doc.at("$..price"), "path: descendants in document order" );
+    Check.json( "[\"A\",\"C\"]", doc.at("$.store.book[?(@.price < 10)].title"), "path: numeric filter" );
+    Check.json( "[\"C\",\"D\"]", doc.at("$.store.book[?(@.isbn)].title"), "path: existence filter" );
+    Check.json( "[\"B\"]", doc.at("$.store.book[?(@.title == 'B')].title"), "path: string filter" );
+    Check.json( "[\"A\",\"D\"]", doc.at("$.store.book[?(@.tags || @.price >= 20)].title"), "path: || filter" );
+    Check.json( "[\"C\"]", doc.at("$.store.book[?(@.isbn && @.price < 10)].title"), "path: && filter" );
+    Check.json( "[]", doc.at("$.store.book[?(@.price > 100)]"), "path: filter with no matches" );
+
+    // The iterator is lazy and agrees with at()
+    Iterator<JValue> prices = JValue.Path.compile( "$..price" ).iterator( doc );
+    Check.json( "8.95", prices.next(), "iterator: first match" );
+    int n = 1;
+    while (prices.hasNext()) { prices.next(); ++n; }
+    Check.equal( 5, n, "iterator: match count" );
+    Check.json( "8.95", JValue.Path.compile("$..price").get(doc), "get(): first match" );
+
+    // Invalid expressions select nothing
+    String[] invalid = { "$.store.book[", "$.store[?(@.price <)]", "$..", "$[1:x]", "store..[" };
+    for (String expression : invalid)
+    {
+      JValue.Path path = JValue.Path.compile( expression );
+      Check.isFalse( path.isValid(), "invalid: " + expression );
+      Check.isTrue( doc.at(expression).isUndefined(), "invalid selects nothing: " + expression );
+    }
+
+    // Compiled paths are cached
+    Check.isTrue( JValue.Path.compile("$.store.bicycle") == JValue.Path.compile("$.store.bicycle"), "compile() caches" );
+    for (int i=0; i<JValue.Path.CACHE_SIZE*2; ++i) JValue.Path.compile( "/p" + i );
+    Check.isTrue( JValue.Path.cache.size() <= JValue.Path.CACHE_SIZE, "cache is bounded" );
+
+    // Paths over non-containers
+    Check.isTrue( JValue.number(3).at("/a").isUndefined(), "pointer into a number" );
+    Check.json( "[]", JValue.number(3).at("$[*]"), "wildcard over a number" );
+  }
+}
@@ -0,0 +1,70 @@
+package com.github.abepralle.jvalue;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+class ProjectionTest
+{
+  static final String ORDER =
+      "{\"id\":7,\"note\":\"skip \\\"[{\\\" me\",\"user\":{\"name\":\"Ann\",\"email\":\"a@b\",\"tags\":[1,{\"x\":[]}]}," +
+      "\"items\":[{\"sku\":\"p1\",\"price\":2.5,\"extra\":{\"deep\":[1,2]}},{\"sku\":\"p2\",\"price\":4}]," +
+      "\"caf\\u00e9\":\"accent\",\"a\\\"b\":\"quote\"}";
+
+  static void run() throws Exception
+  {
+    check( "{\"id\":7}", "id" );
+    check( "{\"id\":7}", "/id" );
+    check( "{\"user\":{\"name\":\"Ann\"}}", "$.user.name" );
+    check( "{\"user\":{\"name\":\"Ann\",\"email\":\"a@b\",\"tags\":[1,{\"x\":[]}]}}", "user" );
+    check( "{\"items\":[{\"price\":2.5},{\"price\":4}]}", "items[*].price" );
+    check( "{\"items\":[null,{\"sku\":\"p2\"}]}", "items[1].sku" );
+    check( "{\"items\":[{\"sku\":\"p1\",\"price\":2.5},{\"sku\":\"p2\"}]}", "items[*].sku", "items[0].price" );
+    check( "{\"id\":7,\"items\":[{\"extra\":{\"deep\":[1,2]}},{}]}", "id", "items[*].extra" );
+    check( "{\"user\":{\"name\":\"Ann\",\"email\":\"a@b\",\"tags\":[1,{\"x\":[]}]}}", "user.name", "user" );
+    check( JValue.parse(ORDER).toJSON(), "$..price" );  // keeps everything below a descendant step
+    check( "{\"caf\u00e9\":\"accent\"}", "caf\u00e9" );  // escaped in the source
+    Check.json( "{\"caf\u00e9\":1}", JValue.parse("{\"x\":0,\"caf\u00e9\":1}", JValue.Projection.of("caf\u00e9")), "non-ASCII key" );
+    Check.json( "{\"caf\u00e9\":1}", JValue.parse("{\"x\":0,\"caf\u00e9\":1}".getBytes(StandardCharsets.UTF_8), JValue.Projection.of("caf\u00e9")), "non-ASCII key (UTF-8)" );
+    check( "{\"a\\\"b\":\"quote\"}", "$['a\"b']" );
+    check( "{}", "missing" );
+    check( "{}", "$.store[" );  // an invalid path selects nothing
+    check( JValue.parse(ORDER).toJSON(), "$" );
+
+    // Projections apply to any root
+    Check.json( "[null,{\"a\":2}]", JValue.parse("[{\"a\":1,\"b\":1},{\"a\":2,\"b\":2}]", JValue.Projection.of("[1].a")), "list root" );
+    Check.isTrue( JValue.parse(" 3 ", JValue.Projection.of("a")).isUndefined(), "unselected number root" );
+    Check.json( "3", JValue.parse(" 3 ", JValue.Projection.of("$")), "selected number root" );
+
+    // Malformed input in a selected part is still an error
+    Check.isTrue( JValue.parse("{\"id\":[1,}", JValue.Projection.of("id")).isUndefined(), "malformed selected value" );
+    Check.isTrue( JValue.parse("{\"id\":1,\"x\":[1,2}", JValue.Projection.of("id")).isUndefined(), "unbalanced skipped value" );
+
+    // All sources agree
+    JValue.Projection projection = JValue.Projection.of( "id", "items[*].price", "caf\u00e9" );
+    String expected = JValue.parse( ORDER, projection ).toJSON();
+    byte[] utf8 = ORDER.getBytes( StandardCharsets.UTF_8 );
+    Check.json( expected, JValue.parse(utf8, projection), "byte[] source" );
+    Check.json( expected, JValue.parse(ByteBuffer.wrap(utf8), projection), "ByteBuffer source" );
+    File file = File.createTempFile( "projection", ".json" );
+    try
+    {
+      FileOutputStream out = new FileOutputStream( file );
+      out.write( utf8 );
+      out.close();
+      Check.json( expected, JValue.parse(file, projection), "File source" );
+    }
+    finally
+    {
+      file.delete();
+    }
+  }
+
+  static void check( String expected, String... paths )
+  {
+    JValue.Projection projection = JValue.Projection.of( paths );
+    String label = "projection " + java.util.Arrays.toString( paths );
+    Check.json( expected, JValue.parse(ORDER, projection), label );
+    Check.json( expected, JValue.parse(ORDER.getBytes(StandardCharsets.UTF_8), projection), label + " (UTF-8)" );
+  }
+}
@@ -0,0 +1,73 @@
+package com.github.abepralle.jvalue;
+
+class ShapeTest
+{
+  static void run() throws Exception
+  {
+    // Tables whose keys arrive in the same order share a shape
+    JValue.TableValue a = (JValue.TableValue) JValue.parse( "{\"id\":1,\"name\":\"a\",\"tags\":[]}" );
+    JValue.TableValue b = (JValue.TableValue) JValue.table().set( "id", 2 ).set( "name", "b" ).set( "tags", JValue.list() );
+    Check.isTrue( a.shape != null && a.shape == b.shape, "same key order shares a shape" );
+    JValue.TableValue c = (JValue.TableValue) JValue.parse( "{\"name\":\"c\",\"id\":3}" );
+    Check.isTrue( c.shape != a.shape, "different key order has its own shape" );
+
+    // Replacing a value keeps the shape and the key's position
+    b.set( "id", 20 );
+    Check.isTrue( b.shape == a.shape, "replacing keeps the shape" );
+    Check.json( "{\"id\":20,\"name\":\"b\",\"tags\":[]}", b, "replaced value in place" );
+
+    // Removing a key moves the table to a dictionary, keeping order
+    b.remove( "name" );
+    Check.isTrue( b.shape == null, "removal leaves the shape" );
+    Check.json( "{\"id\":20,\"tags\":[]}", b, "order after removal" );
+    b.set( "name", "again" );
+    Check.json( "{\"id\":20,\"tags\":[],\"name\":\"again\"}", b, "re-added key goes last" );
+    Check.json( "{\"id\":1,\"name\":\"a\",\"tags\":[]}", a, "other tables of the shape unaffected" );
+
+    // More keys than a shape holds
+    JValue wide = JValue.table();
+    for (int i=0; i<JValue.Shape.MAX_KEYS+10; ++i) wide.set( "k" + i, i );
+    Check.equal( JValue.Shape.MAX_KEYS+10, wide.count(), "wide table count" );
+    Check.isTrue( ((JValue.TableValue) wide).shape == null, "wide table is a dictionary" );
+    boolean all_found = true;
+    for (int i=0; i<JValue.Shape.MAX_KEYS+10; ++i) all_found &= (wide.get("k" + i).toLong() == i);
+    Check.isTrue( all_found, "wide table lookups" );
+
+    // Many key orders from one shape: tables beyond the successor limit still work
+    for (int i=0; i<JValue.Shape.MAX_SUCCESSORS*2; ++i)
+    {
+      JValue table = JValue.table().set( "shared", 0 ).set( "branch" + i, i ).set( "last", true );
+      Check.json( "{\"shared\":0,\"branch" + i + "\":" + i + ",\"last\":true}", table, "branch " + i );
+    }
+
+    // Any number of first keys get shapes
+    for (int i=0; i<JValue.Shape.MAX_SUCCESSORS*2; ++i)
+    {
+      Check.isTrue( ((JValue.TableValue) JValue.table().set("first" + i, i)).shape != null, "first key " + i + " has a shape" );
+    }
+
+    // Making more than MAX_SHAPES shapes starts the cache over instead of
+    // turning every later table into a dictionary
+    for (int i=0; i<JValue.Shape.MAX_SHAPES+1000; ++i)
+    {
+      JValue table = JValue.table().set( "many", true );
+      for (int digit=0, n=i; digit<5; ++digit, n>>=4) table.set( "d" + digit + "_" + (n & 15), digit );
+    }
+    Check.isTrue( JValue.Shape.shape_count.get() < JValue.Shape.MAX_SHAPES, "shape count starts over" );
+    JValue.TableValue fresh = (JValue.TableValue) JValue.table().set( "fresh", 1 ).set( "layout", 2 );
+    JValue.TableValue again = (JValue.TableValue) JValue.table().set( "fresh", 3 ).set( "layout", 4 );
+    Check.isTrue( fresh.shape != null && fresh.shape == again.shape, "new layouts still share shapes" );
+    Check.isTrue( a.shape != null, "older tables keep their shape" );
+    a.set( "extra", 1 );
+    Check.json( "{\"id\":1,\"name\":\"a\",\"tags\":[],\"extra\":1}", a, "older shape grows" );
+
+    // Shaped and dictionary tables compare, hash and clone alike
+    JValue shaped = JValue.parse( "{\"x\":1,\"y\":2}" );
+    JValue dictionary = JValue.parse( "{\"x\":1,\"y\":2,\"z\":3}" );
+    dictionary.remove( "z" );
+    Check.isTrue( shaped.equals(dictionary) && shaped.hashCode() == dictionary.hashCode(), "shaped equals dictionary" );
+    JValue copy = shaped.cloned();
+    copy.set( "x", 9 );
+    Check.json( "{\"x\":1,\"y\":2}", shaped, "clone of a shaped table is separate" );
+  }
+}
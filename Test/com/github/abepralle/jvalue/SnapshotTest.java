@@ -0,0 +1,88 @@
+package com.github.abepralle.jvalue;
+
+import java.io.*;
+
+class SnapshotTest
+{
+  static void run() throws Exception
+  {
+    File file = File.createTempFile( "jvalue", ".snapshot" );
+    file.deleteOnExit();
+
+    // Round trips, including integers on either side of the immediate range
+    String[] documents =
+    {
+      "null", "true", "false", "0", "-1", "36028797018963967", "-36028797018963968",
+      "36028797018963968", "-36028797018963969", "9223372036854775807", "2.5", "-1e300",
+      "\"\"", "\"h\\u00e9llo \\ud83d\\ude00\"", "[]", "{}",
+      "[1,[2,[3,[]]],{\"a\":null,\"b\":[true,false]},\"s\",0.5]",
+      "{\"z\":1,\"a\":{\"y\":[1,2],\"b\":{}},\"m\":\"text\",\"\\u00e9\":2}"
+    };
+    for (String json : documents)
+    {
+      JValue value = JValue.parse( json );
+      Check.isTrue( value.saveSnapshot(file), "save " + json );
+      JValue snapshot = JValue.openSnapshot( file );
+      Check.equal( value.toJSON(), snapshot.toJSON(), "snapshot " + json );
+      Check.isTrue( snapshot.equals(value) && value.equals(snapshot), "snapshot equals original " + json );
+      Check.equal( value.hashCode(), snapshot.hashCode(), "snapshot hash code " + json );
+      if (value.isTable())
+      {
+        Check.equal( value.keys().toJSON(), snapshot.keys().toJSON(), "snapshot keys " + json );
+        for (JValue key : value.keys())
+        {
+          Check.isTrue( value.get(key.toString()).equals(snapshot.get(key.toString())), "snapshot get " + key );
+        }
+        Check.isTrue( snapshot.get("missing").isUndefined(), "snapshot missing key" );
+      }
+    }
+
+    // A larger document with many keys and elements
+    JValue large = JValue.table();
+    for (int i=0; i<2000; ++i)
+    {
+      large.set( "key" + i, JValue.list().add(i).add("v" + i).add(i * 0.5) );
+    }
+    Check.isTrue( large.saveSnapshot(file), "save large" );
+    JValue large_snapshot = JValue.openSnapshot( file );
+    Check.isTrue( large.equals(large_snapshot), "large snapshot" );
+    Check.json( "[1234,\"v1234\",617]", large_snapshot.get("key1234"), "large snapshot lookup" );
+
+    // Files that aren't complete snapshots open as undefined
+    byte[] bytes = readFile( file );
+    writeFile( file, java.util.Arrays.copyOf(bytes, bytes.length/2) );
+    Check.isTrue( JValue.openSnapshot(file).isUndefined(), "truncated snapshot" );
+    writeFile( file, "[1,2,3] is not a snapshot, just text".getBytes("UTF-8") );
+    Check.isTrue( JValue.openSnapshot(file).isUndefined(), "not a snapshot" );
+    Check.isTrue( JValue.openSnapshot(new File(file.getPath() + ".missing")).isUndefined(), "missing snapshot" );
+    file.delete();
+  }
+
+  static byte[] readFile( File file ) throws IOException
+  {
+    DataInputStream in = new DataInputStream( new FileInputStream(file) );
+    try
+    {
+      byte[] bytes = new byte[ (int) file.length() ];
+      in.readFully( bytes );
+      return bytes;
+    }
+    finally
+    {
+      in.close();
+    }
+  }
+
+  static void writeFile( File file, byte[] bytes ) throws IOException
+  {
+    FileOutputStream out = new FileOutputStream( file );
+    try
+    {
+      out.write( bytes );
+    }
+    finally
+    {
+      out.close();
+    }
+  }
+}
@@ -0,0 +1,68 @@
+package com.github.abepralle.jvalue;
+
+import java.io.*;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+
+class StreamWriteTest
+{
+  static void run() throws Exception
+  {
+    // Streams, writers and channels receive exactly what toJSON() returns,
+    // including documents larger than the writer's buffer
+    JValue large = JValue.list();
+    for (int i=0; i<20000; ++i)
+    {
+      large.add( JValue.table().set("i",i).set("s","caf\u00e9 \ud83d\ude00 \"q\"").set("r",i*0.1) );
+    }
+    JValue[] values =
+    {
+      JValue.parse( "{\"a\":[1,-2.5,true,null,\"\\u00e9\\n\"],\"b\":{}}" ), JValue.number( 7 ),
+      JValue.string( "" ), large
+    };
+    for (JValue value : values)
+    {
+      String json = value.toJSON();
+      String what = (json.length() > 100) ? "large document" : json;
+
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      Check.isTrue( value.write(bytes), "write stream " + what );
+      Check.isTrue( java.util.Arrays.equals(json.getBytes(StandardCharsets.UTF_8), bytes.toByteArray()), "stream bytes " + what );
+
+      StringWriter chars = new StringWriter();
+      Check.isTrue( value.write(chars), "write writer " + what );
+      Check.equal( json, chars.toString(), "writer text " + what );
+
+      ByteArrayOutputStream channel_bytes = new ByteArrayOutputStream();
+      Check.isTrue( value.write(Channels.newChannel(channel_bytes)), "write channel " + what );
+      Check.isTrue( java.util.Arrays.equals(json.getBytes(StandardCharsets.UTF_8), channel_bytes.toByteArray()), "channel bytes " + what );
+    }
+
+    // The sink is flushed but not closed, and errors return false
+    final boolean[] flushed_closed = new boolean[ 2 ];
+    OutputStream watched = new ByteArrayOutputStream()
+    {
+      public void flush()
+      {
+        flushed_closed[0] = true;
+      }
+
+      public void close()
+      {
+        flushed_closed[1] = true;
+      }
+    };
+    JValue.number( 1 ).write( watched );
+    Check.isTrue( flushed_closed[0] && !flushed_closed[1], "flushed, not closed" );
+
+    OutputStream failing = new OutputStream()
+    {
+      public void write( int b ) throws IOException
+      {
+        throw new IOException( "full" );
+      }
+    };
+    Check.isFalse( large.write(failing), "I/O error returns false" );
+    Check.equal( large.get(0).toJSON(), JValue.parse(large.get(0).toJSON()).toJSON(), "writer usable after an error" );
+  }
+}
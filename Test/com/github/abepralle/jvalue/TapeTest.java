@@ -0,0 +1,58 @@
+package com.github.abepralle.jvalue;
+
+import java.nio.charset.StandardCharsets;
+
+class TapeTest
+{
+  static void run() throws Exception
+  {
+    // Tape documents read the same as parsed ones
+    String[] documents =
+    {
+      "null", "true", "-12", "2.5", "\"s\"", "[]", "{}",
+      "[1,-2,3.5,\"x\",true,false,null,[],{},[[1],[2,[3]]]]",
+      "{\"a\":{\"b\":[1,{\"c\":\"\\u00e9\\n\"}]},\"d\":[9223372036854775807,-1e300]}",
+      "{a:1,b:'two',c}", "[\"true\",\"null\"]",
+      // Duplicate keys: the last value wins, in the first key's position
+      "{\"a\":1,\"a\":2}", "{\"a\":1,\"b\":2,\"a\":3}",
+      "{\"a\":[1,{\"x\":1}],\"b\":2.5,\"a\":{\"y\":[3,4],\"y\":[5]},\"c\":3,\"b\":true}",
+      "[{\"k\":1,\"k\":2},{\"k\":[1],\"j\":0,\"k\":[2,[3]]}]",
+      "{\"a\":1,\"a\":{\"n\":1},\"a\":[7]}"
+    };
+    for (String json : documents)
+    {
+      JValue expected = JValue.parse( json );
+      JValue tape = JValue.parseTape( json );
+      Check.equal( expected.toJSON(), tape.toJSON(), "tape " + json );
+      Check.equal( expected.toJSON(), JValue.parseTape(json.getBytes(StandardCharsets.UTF_8)).toJSON(), "tape UTF-8 " + json );
+      Check.isTrue( tape.equals(expected) && expected.equals(tape), "tape equals parsed " + json );
+      Check.equal( expected.hashCode(), tape.hashCode(), "tape hash code " + json );
+      Check.equal( expected.count(), tape.count(), "tape count " + json );
+      if (expected.isTable())
+      {
+        Check.equal( expected.keys().toJSON(), tape.keys().toJSON(), "tape keys " + json );
+      }
+    }
+
+    JValue dup = JValue.parseTape( "{\"a\":1,\"b\":[2],\"a\":{\"c\":3}}" );
+    Check.equal( 2, dup.count(), "duplicate counted once" );
+    Check.json( "{\"c\":3}", dup.get("a"), "last duplicate wins" );
+    Check.json( "[2]", dup.get("b"), "entry after a moved value" );
+    int seen = 0;
+    for (JValue key : dup) ++seen;
+    Check.equal( 2, seen, "duplicate iterated once" );
+
+    // Many keys, many duplicates
+    StringBuilder large = new StringBuilder( "{" );
+    for (int i=0; i<500; ++i)
+    {
+      if (i > 0) large.append( ',' );
+      large.append( "\"k" ).append( i % 100 ).append( "\":[" ).append( i ).append( ']' );
+    }
+    large.append( '}' );
+    Check.equal( JValue.parse(large.toString()).toJSON(), JValue.parseTape(large.toString()).toJSON(), "many duplicate keys" );
+
+    // Malformed input is undefined
+    Check.isTrue( JValue.parseTape("[[1}, 2]").isUndefined(), "malformed tape" );
+  }
+}
@@ -0,0 +1,47 @@
+package com.github.abepralle.jvalue;
+
+import java.io.*;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+
+class TokenizerTest
+{
+  static void run() throws Exception
+  {
+    // A Byte Order Mark is skipped however the input arrives
+    byte[] json = "[1,{\"a\":true}]".getBytes( StandardCharsets.UTF_8 );
+    byte[] bom = new byte[ json.length + 3 ];
+    bom[0] = (byte) 0xEF;
+    bom[1] = (byte) 0xBB;
+    bom[2] = (byte) 0xBF;
+    System.arraycopy( json, 0, bom, 3, json.length );
+    Check.json( "[1,{\"a\":true}]", new JValue.JSONTokenizer(new ByteArrayInputStream(bom)).readValue(), "BOM" );
+    Check.json( "[1,{\"a\":true}]", new JValue.JSONTokenizer(new CBORTest.OneByteStream(bom)).readValue(), "BOM one byte per read" );
+    Check.json( "[1,{\"a\":true}]", new JValue.JSONTokenizer(Channels.newChannel(new CBORTest.OneByteStream(bom))).readValue(), "BOM through a channel" );
+    Check.json( "[1,{\"a\":true}]", new JValue.JSONTokenizer(new CBORTest.OneByteStream(json)).readValue(), "no BOM one byte per read" );
+    Check.json( "7", new JValue.JSONTokenizer(new CBORTest.OneByteStream(new byte[]{ '7' })).readValue(), "input shorter than a BOM" );
+
+    // Token sequence, including a key without a value
+    JValue.JSONTokenizer tokenizer = new JValue.JSONTokenizer( new ByteArrayInputStream("{a, b:[1,\"x\"], c:null}".getBytes(StandardCharsets.UTF_8)) );
+    StringBuilder tokens = new StringBuilder();
+    for (JValue.JSONToken token=tokenizer.next(); token!=JValue.JSONToken.END; token=tokenizer.next())
+    {
+      tokens.append( token ).append( ' ' );
+    }
+    Check.equal( "START_OBJECT KEY TRUE KEY START_ARRAY NUMBER STRING END_ARRAY KEY NULL END_OBJECT ",
+        tokens.toString(), "token sequence" );
+
+    // Values read through a small buffer match parse()
+    String[] documents =
+    {
+      "[1,-2.5,1e300,9223372036854775807,\"caf\\u00e9 \\ud83d\\ude00\",true,false,null]",
+      "{\"long\":\"" + new String(new char[200]).replace('\0','x') + "\",\"n\":{\"m\":[[],{}]}}",
+      "{a:1,b:'two',c}"
+    };
+    for (String document : documents)
+    {
+      byte[] bytes = document.getBytes( StandardCharsets.UTF_8 );
+      Check.equal( JValue.parse(document).toJSON(), new JValue.JSONTokenizer(new CBORTest.OneByteStream(bytes),16).readValue().toJSON(), "tokenizer " + document );
+    }
+  }
+}
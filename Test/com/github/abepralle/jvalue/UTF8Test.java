@@ -0,0 +1,54 @@
+package com.github.abepralle.jvalue;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+class UTF8Test
+{
+  static void run() throws Exception
+  {
+    // UTF-8 parses as the decoded String does, from arrays, slices and
+    // direct buffers
+    String[] documents =
+    {
+      "[\"plain\",\"caf\u00e9\",\"\u4e2d\u6587\",\"\ud83d\ude00\",\"\\u00e9\\ud83d\\ude00\\n\\t\\\"\\\\\\/\"]",
+      "{\"\u043a\u043b\u044e\u0447\":\"\u0437\u043d\u0430\u0447\u0435\u043d\u0438\u0435\",\"k\":{\"\u00e9\":[1,-2.5e-3,true,null]},bare:'single \u00e9'}",
+      "\"" + repeat("\u00e9\u4e2d\ud83d\ude00", 2000) + "\"", "{}", "  [ ]  "
+    };
+    for (String json : documents)
+    {
+      String expected = JValue.parse( json ).toJSON();
+      byte[] utf8 = json.getBytes( StandardCharsets.UTF_8 );
+      String what = (json.length() > 100) ? "long string" : json;
+      Check.equal( expected, JValue.parse(utf8).toJSON(), "bytes " + what );
+
+      byte[] padded = new byte[ utf8.length + 6 ];
+      padded[0] = padded[1] = padded[2] = '[';
+      System.arraycopy( utf8, 0, padded, 3, utf8.length );
+      padded[ padded.length-1 ] = '}';
+      Check.equal( expected, JValue.parse(padded,3,utf8.length).toJSON(), "slice " + what );
+
+      ByteBuffer direct = ByteBuffer.allocateDirect( utf8.length );
+      direct.put( utf8 ).flip();
+      Check.equal( expected, JValue.parse(direct).toJSON(), "direct buffer " + what );
+      Check.equal( 0, direct.position(), "buffer position unchanged " + what );
+    }
+
+    // Malformed UTF-8 becomes replacement characters rather than an error
+    byte[] malformed = { '"', 'a', (byte)0xC3, '"' };
+    Check.equal( "a\ufffd", JValue.parse(malformed).toString(), "truncated sequence" );
+    byte[] stray = { '"', (byte)0x80, 'b', '"' };
+    Check.equal( "\ufffdb", JValue.parse(stray).toString(), "stray continuation byte" );
+
+    // A Byte Order Mark is skipped
+    Check.json( "[1]", JValue.parse(new byte[]{ (byte)0xEF, (byte)0xBB, (byte)0xBF, '[', '1', ']' }), "BOM" );
+    Check.isTrue( JValue.parse("[1,".getBytes(StandardCharsets.UTF_8)).isUndefined(), "unterminated list" );
+  }
+
+  static String repeat( String text, int n )
+  {
+    StringBuilder builder = new StringBuilder();
+    for (int i=0; i<n; ++i) builder.append( text );
+    return builder.toString();
+  }
+}